@@ -4,22 +4,45 @@ import android.content.Context;
 import android.os.ParcelUuid;
 
 import com.dataart.btle_android.R;
+import com.dataart.btle_android.btle_gateway.advertising.AdvertisingData;
+import com.dataart.btle_android.btle_gateway.gatt_callbacks.ConnectionPriority;
+import com.dataart.btle_android.btle_gateway.gatt_callbacks.ConnectionProfile;
+import com.dataart.btle_android.btle_gateway.gatt_callbacks.DeliveryPolicy;
+import com.dataart.btle_android.btle_gateway.gatt_callbacks.StatusJson;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.AttributeUuid;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.GatewayTimer;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.GatewayUplink;
 import com.dataart.btle_android.btle_gateway.gateway_helpers.HexHelper;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.MacAddress;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.UuidHelper;
 import com.dataart.btle_android.btle_gateway.gateway_helpers.ValidationHelper;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.WireEncoding;
+import com.dataart.btle_android.btle_gateway.model.BTLEBatchStepResult;
 import com.dataart.btle_android.btle_gateway.model.BTLECharacteristic;
+import com.dataart.btle_android.btle_gateway.model.BTLEConnectionStatus;
 import com.dataart.btle_android.btle_gateway.model.BTLEDevice;
+import com.dataart.btle_android.btle_gateway.model.BTLEProximity;
+import com.dataart.btle_android.btle_gateway.model.BTLEReadResult;
+import com.dataart.btle_android.btle_gateway.model.BTLEScanSummary;
+import com.dataart.btle_android.btle_gateway.model.BTLETimerStatus;
+import com.dataart.btle_android.btle_gateway.model.BTLEWriteStreamResult;
 import com.dataart.btle_android.btle_gateway.server.BluetoothServer;
+import com.dataart.btle_android.helpers.ble.base.BleScanFilter;
+import com.dataart.btle_android.helpers.ble.base.Phy;
+import com.dataart.btle_android.helpers.ble.base.ScanParameters;
 import com.github.devicehive.client.model.Parameter;
 import com.github.devicehive.client.service.Device;
 import com.github.devicehive.client.service.DeviceCommand;
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.reflect.TypeToken;
 
-import java.lang.reflect.Type;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import timber.log.Timber;
 
@@ -27,6 +50,44 @@ public class BTLEGateway {
 
     public static final String DEVICE = "device";
     public static final String SERVICE_UUID = "serviceUUID";
+    public static final String DEVICES = "devices";
+    public static final String NAME_PREFIX = "namePrefix";
+    public static final String MANUFACTURER_ID = "manufacturerId";
+    public static final String MANUFACTURER_DATA = "manufacturerData";
+    public static final String MANUFACTURER_DATA_MASK = "manufacturerDataMask";
+    public static final String SCAN_MODE = "scanMode";
+    public static final String REPORT_DELAY = "reportDelay";
+    public static final String STREAM = "stream";
+    public static final String STREAM_INTERVAL = "streamInterval";
+    public static final String MTU = "mtu";
+    public static final String PRIORITY = "priority";
+    public static final String IDLE_TIMEOUT = "idleTimeout";
+    public static final String PHY = "phy";
+    public static final String CHARACTERISTIC_UUID = "characteristicUUID";
+    public static final String VALUE = "value";
+    public static final String COMMAND = "command";
+    public static final String OPERATIONS = "operations";
+    public static final String CHARACTERISTICS = "characteristics";
+    public static final String MAX_AGE = "maxAge";
+    public static final String HANDLE = "handle";
+    public static final String TIMEOUTS = "timeouts";
+    public static final String SUBSCRIPTION = "subscription";
+    public static final String WINDOW = "window";
+    public static final String MAX_ITEMS = "maxItems";
+    public static final String MAX_BYTES = "maxBytes";
+    public static final String MAX_DELAY = "maxDelay";
+    public static final String POLICY = "policy";
+    public static final String ENCODING = "encoding";
+    public static final String MODE = "mode";
+    public static final String INTERVAL = "interval";
+    public static final String RATE = "rate";
+    public static final String FORMAT = "format";
+    public static final String OFFSET = "offset";
+    public static final String DELTA = "delta";
+    public static final String ON_ERROR = "onError";
+    public static final String ON_ERROR_STOP = "stop";
+    public static final String ON_ERROR_CONTINUE = "continue";
+    private static final String GATT_PREFIX = "gatt/";
     private final BluetoothServer bluetoothServerGateway;
     private Device dhDevice = null;
 
@@ -41,33 +102,40 @@ public class BTLEGateway {
     private void failWithReason(final Context context, DeviceCommand command, String reason) {
         JsonObject result = new JsonObject();
         result.addProperty(context.getString(R.string.reason), reason);
-        command.setResult(result);
-        command.setStatus(context.getString(R.string.failed));
-        command.updateCommand();
+        updateCommand(command, context.getString(R.string.failed), result);
     }
 
     private void commandStatusResult(final Context context, DeviceCommand command, boolean ok, String description) {
-        if (ok) {
-            command.setStatus(context.getString(R.string.completed));
-        } else {
-            command.setStatus(context.getString(R.string.failed));
-        }
+        JsonObject result = null;
         if (description != null) {
             if (!description.isEmpty()) {
-                JsonObject result = new JsonObject();
+                result = new JsonObject();
                 result.addProperty(context.getString(ok ? R.string.result : R.string.reason), description);
-                command.setResult(result);
             }
         }
-        command.updateCommand();
+        updateCommand(command, context.getString(ok ? R.string.completed : R.string.failed), result);
     }
 
     private void successWithObject(final Context context, DeviceCommand command, Object object) {
+        resultWithObject(context, command, true, object);
+    }
+
+    //    Result object is sent either way, for commands which report partial success
+    private void resultWithObject(final Context context, DeviceCommand command, boolean ok, Object object) {
         JsonObject result = new JsonObject();
         result.add(context.getString(R.string.result), new Gson().toJsonTree(object));
-        command.setResult(result);
-        command.setStatus(context.getString(R.string.completed));
-        command.updateCommand();
+        updateCommand(command, context.getString(ok ? R.string.completed : R.string.failed), result);
+    }
+
+    //    Results come from timer and Bluetooth callback threads, network call is handed over to uplink thread
+    private static void updateCommand(DeviceCommand command, String status, JsonObject result) {
+        GatewayUplink.execute(() -> {
+            if (result != null) {
+                command.setResult(result);
+            }
+            command.setStatus(status);
+            command.updateCommand();
+        });
     }
 
     public void doCommand(final Context context, DeviceCommand command) {
@@ -78,20 +146,75 @@ public class BTLEGateway {
             final String name = command.getCommandName();
             final LeCommand leCommand = LeCommand.fromName(name);
 
-            Type type = new TypeToken<HashMap<String, String>>() {
-            }.getType();
-            HashMap<String, String> params = new Gson().fromJson(command.getParameters().toString(), type);
+            final JsonObject json = new Gson().fromJson(command.getParameters().toString(), JsonObject.class);
+            final HashMap<String, String> params = stringParams(json);
 
             final String address = (params != null) ? params.get(DEVICE) : null;
-            final String serviceUUID = (params != null) ? params.get(SERVICE_UUID) : null;
-            final String characteristicUUID = (params != null) ? params.get("characteristicUUID") : null;
+//            Strings are left here, at DeviceHive boundary - gateway works with packed addresses and parsed uuids
+            final long mac = MacAddress.parse(address);
 
             String validationError;
 
+//            characteristic may be addressed by handle from gatt/characteristics instead of uuids
+            final String handle = getString(json, HANDLE);
+            BTLECharacteristic byHandle = null;
+            if (handle != null && leCommand.isCharacteristicCommand()) {
+                validationError = validationHelper.validateAddress(leCommand.getCommand(), address);
+                if (validationError == null) {
+                    validationError = validationHelper.validateHandle(leCommand.getCommand(), handle);
+                }
+                if (validationError != null) {
+                    failWithReason(context, command, validationError);
+                    return;
+                }
+                byHandle = bluetoothServerGateway.getCharacteristic(mac, Integer.parseInt(handle));
+                if (byHandle == null) {
+                    failWithReason(context, command, context.getString(R.string.cmd_unknown_handle, leCommand.getCommand(), handle));
+                    return;
+                }
+            }
+
+            final String serviceUUID = byHandle != null ? byHandle.serviceUUID : (params != null) ? params.get(SERVICE_UUID) : null;
+            final String characteristicUUID = byHandle != null ? byHandle.characteristicUUID : (params != null) ? params.get(CHARACTERISTIC_UUID) : null;
+            final AttributeUuid serviceUuid = AttributeUuid.parse(serviceUUID);
+            final AttributeUuid characteristicUuid = AttributeUuid.parse(characteristicUUID);
+
+//            any gatt command may change connection priority of its device, gatt/connect sets the whole profile.
+//            Priority is applied by each command only after its own validation, rejected command changes nothing
+            final String priorityName = getString(json, PRIORITY);
+            if (priorityName != null && leCommand.getCommand().startsWith(GATT_PREFIX) && leCommand != LeCommand.GATT_CONNECT) {
+                validationError = validationHelper.validateAddress(leCommand.getCommand(), address);
+                if (validationError == null) {
+                    validationError = validationHelper.validateConnection(leCommand.getCommand(), json);
+                }
+                if (validationError != null) {
+                    failWithReason(context, command, validationError);
+                    return;
+                }
+            }
+            final ConnectionPriority priority = priorityName != null ? ConnectionPriority.fromName(priorityName) : null;
+
+//            values of reads and notifications may be sent in other encoding than their original one
+            final String encodingName = getString(json, ENCODING);
+            if (encodingName != null) {
+                validationError = validationHelper.validateEncoding(leCommand.getCommand(), encodingName);
+                if (validationError != null) {
+                    failWithReason(context, command, validationError);
+                    return;
+                }
+            }
+            final WireEncoding encoding = encodingName != null ? WireEncoding.fromName(encodingName) : WireEncoding.getPreferred();
+
             Timber.d("switch");
             switch (leCommand) {
                 case SCAN_START:
-                    bluetoothServerGateway.scanStart();
+                    validationError = validationHelper.validateScan(leCommand.getCommand(), json);
+                    if (validationError != null) {
+                        failWithReason(context, command, validationError);
+                        return;
+                    }
+
+                    bluetoothServerGateway.scanStart(scanParameters(json));
                     break;
 
                 case SCAN_STOP:
@@ -99,33 +222,114 @@ public class BTLEGateway {
                     sendStopResult(context, command);
                     break;
 
+                case SCAN_STATS:
+                    successWithObject(context, command, bluetoothServerGateway.getScanStatistics());
+                    return;
+
+                case ENCODING: {
+                    if (encodingName != null) {
+                        WireEncoding.setPreferred(encoding);
+                    }
+                    final Map<String, String> result = new HashMap<>();
+                    result.put(ENCODING, encoding != null ? encoding.getName() : WireEncoding.DEFAULT_NAME);
+                    successWithObject(context, command, result);
+                    return;
+                }
+
+                case TIMERS:
+                    validationError = validationHelper.validateTimers(leCommand.getCommand(), json);
+                    if (validationError != null) {
+                        failWithReason(context, command, validationError);
+                        return;
+                    }
+                    if (json != null && json.has(TIMEOUTS)) {
+                        for (Map.Entry<String, JsonElement> entry : json.getAsJsonObject(TIMEOUTS).entrySet()) {
+                            GatewayTimer.Timeout.fromName(entry.getKey()).set(entry.getValue().getAsLong());
+                        }
+                    }
+                    successWithObject(context, command, timerStatus());
+                    return;
+
                 case SCAN:
-                    scanAndReturnResults(context, command);
+                    validationError = validationHelper.validateScan(leCommand.getCommand(), json);
+                    if (validationError != null) {
+                        failWithReason(context, command, validationError);
+                        return;
+                    }
+
+                    if (Boolean.parseBoolean(getString(json, STREAM))) {
+                        final String interval = getString(json, STREAM_INTERVAL);
+                        streamScanResults(context, command, scanParameters(json),
+                                interval != null ? Long.parseLong(interval) : ScanStream.DEFAULT_INTERVAL);
+                        return;
+                    }
+                    scanAndReturnResults(context, command, scanParameters(json));
                     return;
 
+                case DEVICE_PROXIMITY: {
+                    validationError = validationHelper.validateAddress(leCommand.getCommand(), address);
+                    if (validationError != null) {
+                        failWithReason(context, command, validationError);
+                        return;
+                    }
+
+                    final BTLEProximity proximity = bluetoothServerGateway.getProximity(mac);
+                    if (proximity == null) {
+                        failWithReason(context, command, String.format(context.getString(R.string.device_not_found), address));
+                        return;
+                    }
+                    successWithObject(context, command, proximity);
+                    return;
+                }
+
                 case GATT_CONNECT:
                     validationError = validationHelper.validateAddress(leCommand.getCommand(), address);
+                    if (validationError == null) {
+                        validationError = validationHelper.validateConnection(leCommand.getCommand(), json);
+                    }
                     if (validationError != null) {
                         failWithReason(context, command, validationError);
                         return;
                     }
 
+                    if (json != null && (json.has(MTU) || json.has(PRIORITY) || json.has(IDLE_TIMEOUT) || json.has(PHY))) {
+                        bluetoothServerGateway.setConnectionProfile(mac, connectionProfile(json, bluetoothServerGateway.getConnectionProfile(mac)));
+                    }
+
                     Timber.d("Connecting to %s", address);
-                    bluetoothServerGateway.gattConnect(address, () -> {
+                    bluetoothServerGateway.gattConnect(mac, () -> {
                         final String data = String.format(context.getString(R.string.is_disconnected), address);
                         sendNotification(context, leCommand, data);
                     }, (boolean ok, String reason) -> commandStatusResult(context, command, ok, reason));
                     return;
 
+                case GATT_CONNECTION: {
+                    validationError = validationHelper.validateAddress(leCommand.getCommand(), address);
+                    if (validationError != null) {
+                        failWithReason(context, command, validationError);
+                        return;
+                    }
+                    applyPriority(mac, priority);
+
+                    final BTLEConnectionStatus status = bluetoothServerGateway.getConnectionStatus(mac);
+                    if (status == null) {
+                        failWithReason(context, command, String.format(context.getString(R.string.connection_not_established), address));
+                        return;
+                    }
+                    successWithObject(context, command, status);
+                    return;
+                }
+
                 case GATT_DISCONNECT:
                     validationError = validationHelper.validateAddress(leCommand.getCommand(), address);
                     if (validationError != null) {
                         failWithReason(context, command, validationError);
                         return;
                     }
+                    applyPriority(mac, priority);
 
                     Timber.d("Disconnecting from %s", address);
-                    bluetoothServerGateway.gattDisconnect(address, (boolean ok, String reason) -> commandStatusResult(context, command, ok, reason));
+                    bluetoothServerGateway.gattDisconnect(mac, (boolean ok, String reason) -> commandStatusResult(context, command, ok, reason));
                     return;
 
                 case GATT_PRIMARY:
@@ -134,8 +338,25 @@ public class BTLEGateway {
                         failWithReason(context, command, validationError);
                         return;
                     }
+                    applyPriority(mac, priority);
 
-                    gattPrimary(context, address, command, leCommand);
+                    gattPrimary(context, mac, command, leCommand);
+                    return;
+
+                case GATT_REFRESH:
+                    validationError = validationHelper.validateAddress(leCommand.getCommand(), address);
+                    if (validationError != null) {
+                        failWithReason(context, command, validationError);
+                        return;
+                    }
+                    applyPriority(mac, priority);
+
+                    bluetoothServerGateway.gattRefresh(mac, new GattCharacteristicCallBack() {
+                        @Override
+                        public void onServices(List<ParcelUuid> uuidList) {
+                            successWithObject(context, command, uuidList);
+                        }
+                    });
                     return;
 
                 case GATT_CHARACTERISTICS:
@@ -144,25 +365,73 @@ public class BTLEGateway {
                         failWithReason(context, command, validationError);
                         return;
                     }
+                    applyPriority(mac, priority);
 
-                    gattCharacteristics(context, address, command, leCommand);
+                    gattCharacteristics(context, mac, command, leCommand);
                     return;
 
                 case GATT_READ: {
                     validationError = validationHelper.validateRead(leCommand.getCommand(), address, serviceUUID, characteristicUUID);
+                    if (validationError == null) {
+                        validationError = validationHelper.validateMaxAge(leCommand.getCommand(), getString(json, MAX_AGE));
+                    }
                     if (validationError != null) {
                         failWithReason(context, command, validationError);
                         return;
                     }
+                    applyPriority(mac, priority);
 
-                    bluetoothServerGateway.gattRead(address, serviceUUID, characteristicUUID, new GattCharacteristicCallBack() {
-                        @SuppressWarnings("EmptyMethod")
+                    bluetoothServerGateway.gattRead(mac, serviceUuid, characteristicUuid, maxAge(json), new GattCharacteristicCallBack() {
                         @Override
                         public void onRead(byte[] value) {
-//                            no notifications needed
-//                            final String sValue = HexHelper.printHexBinary(value);
-//                            final String json = new Gson().toJson(sValue);
-//                            sendNotification(dh, leCommand, json);
+//                            without chosen encoding result keeps its original "0x01, 0x02" form
+                            commandStatusResult(context, command, true, encoding != null
+                                    ? encoding.encode(value, System.currentTimeMillis()) : StatusJson.bytes2String(value));
+                        }
+                    }, (boolean ok, String reason) -> {
+//                        success is reported with value by callback
+                        if (!ok) {
+                            commandStatusResult(context, command, false, reason);
+                        }
+                    });
+                    return;
+                }
+
+                case GATT_READ_MULTIPLE: {
+                    validationError = validationHelper.validateReadMultiple(leCommand.getCommand(), json);
+                    if (validationError == null) {
+                        validationError = validationHelper.validateMaxAge(leCommand.getCommand(), getString(json, MAX_AGE));
+                    }
+                    if (validationError != null) {
+                        failWithReason(context, command, validationError);
+                        return;
+                    }
+                    applyPriority(mac, priority);
+
+//                    results are keyed by characteristic UUID exactly as it was requested
+                    final JsonArray items = json.getAsJsonArray(CHARACTERISTICS);
+                    final List<String> keys = new ArrayList<>(items.size());
+                    final List<AttributeUuid> serviceUuids = new ArrayList<>(items.size());
+                    final List<AttributeUuid> characteristicUuids = new ArrayList<>(items.size());
+                    for (JsonElement item : items) {
+                        final String itemService = getString(item.getAsJsonObject(), SERVICE_UUID);
+                        final String itemCharacteristic = getString(item.getAsJsonObject(), CHARACTERISTIC_UUID);
+                        keys.add(itemCharacteristic);
+                        serviceUuids.add(AttributeUuid.parse(itemService != null ? itemService : serviceUUID));
+                        characteristicUuids.add(AttributeUuid.parse(itemCharacteristic));
+                    }
+
+                    bluetoothServerGateway.gattReadMultiple(mac, serviceUuids, characteristicUuids, maxAge(json),
+                            encoding != null ? encoding : WireEncoding.HEX, new GattCharacteristicCallBack() {
+                        @Override
+                        public void onReadMultiple(List<BTLEReadResult> results) {
+                            final Map<String, BTLEReadResult> values = new LinkedHashMap<>();
+                            boolean ok = true;
+                            for (int i = 0; i < results.size(); i++) {
+                                values.put(keys.get(i), results.get(i));
+                                ok &= results.get(i).isCompleted();
+                            }
+                            resultWithObject(context, command, ok, values);
                         }
                     }, (boolean ok, String reason) -> commandStatusResult(context, command, ok, reason));
                     return;
@@ -176,9 +445,10 @@ public class BTLEGateway {
                         failWithReason(context, command, validationError);
                         return;
                     }
+                    applyPriority(mac, priority);
 
                     final byte[] value = HexHelper.parseHexBinary(sValue);
-                    bluetoothServerGateway.gattWrite(address, serviceUUID, characteristicUUID, value, new GattCharacteristicCallBack() {
+                    bluetoothServerGateway.gattWrite(mac, serviceUuid, characteristicUuid, value, new GattCharacteristicCallBack() {
                         @Override
                         public void onWrite(int state) {
 //                            no notifications needed
@@ -189,37 +459,97 @@ public class BTLEGateway {
                     return;
                 }
 
-                case GATT_NOTIFICATION:
-                    validationError = validationHelper.validateNotifications(leCommand.getCommand(), address, serviceUUID);
+                case GATT_WRITE_STREAM: {
+                    final String sValue = (params != null) ? params.get("value") : null;
+
+                    validationError = validationHelper.validateWrite(leCommand.getCommand(), address, serviceUUID, characteristicUUID, sValue);
+                    if (validationError != null) {
+                        failWithReason(context, command, validationError);
+                        return;
+                    }
+                    applyPriority(mac, priority);
+
+                    final byte[] value = HexHelper.parseHexBinary(sValue);
+                    bluetoothServerGateway.gattWriteStream(mac, serviceUuid, characteristicUuid, value, new GattCharacteristicCallBack() {
+                        @Override
+                        public void onWriteStream(BTLEWriteStreamResult result) {
+                            successWithObject(context, command, result);
+                        }
+                    }, (boolean ok, String reason) -> commandStatusResult(context, command, ok, reason));
+                    return;
+                }
+
+                case GATT_NOTIFICATION: {
+                    validationError = validationHelper.validateNotifications(leCommand.getCommand(), address, serviceUUID, characteristicUUID);
+                    if (validationError == null) {
+                        validationError = validationHelper.validateWindow(leCommand.getCommand(), json);
+                    }
+                    if (validationError == null) {
+                        validationError = validationHelper.validatePolicy(leCommand.getCommand(), json);
+                    }
                     if (validationError != null) {
                         failWithReason(context, command, validationError);
                         return;
                     }
+                    applyPriority(mac, priority);
 
-                    bluetoothServerGateway.gattNotifications(context, address, serviceUUID, characteristicUUID, true, new GattCharacteristicCallBack() {
+//                    with window values go out in batches, otherwise each one right away
+                    final WireEncoding valueEncoding = encoding != null ? encoding : WireEncoding.HEX;
+                    final NotificationWindow window = notificationWindow(json, address, characteristicUUID, valueEncoding,
+                            data -> sendNotification(context, NotificationWindow.NOTIFICATION, address, characteristicUUID, data));
+                    bluetoothServerGateway.gattNotifications(context, mac, serviceUuid, characteristicUuid, deliveryPolicy(json), new GattCharacteristicCallBack() {
                         @Override
                         public void onRead(byte[] value) {
-                            final String sValue = HexHelper.printHexBinary(value);
-                            sendNotification(context, leCommand, sValue);
+                            if (window != null) {
+                                window.add(value, System.currentTimeMillis());
+                                return;
+                            }
+                            final String sValue = valueEncoding.encode(value, System.currentTimeMillis());
+                            sendNotification(context, leCommand.getCommand(), address, characteristicUUID, sValue);
                         }
                     }, (boolean ok, String reason) -> commandStatusResult(context, command, ok, reason));
                     return;
+                }
 
                 case GATT_NOTIFICATION_STOP:
-                    validationError = validationHelper.validateNotifications(leCommand.getCommand(), address, serviceUUID);
+                    validationError = validationHelper.validateNotifications(leCommand.getCommand(), address, serviceUUID, characteristicUUID);
+                    if (validationError != null) {
+                        failWithReason(context, command, validationError);
+                        return;
+                    }
+
+                    final String subscription = getString(json, SUBSCRIPTION);
+                    validationError = validationHelper.validateSubscription(leCommand.getCommand(), subscription);
                     if (validationError != null) {
                         failWithReason(context, command, validationError);
                         return;
                     }
+                    applyPriority(mac, priority);
 
-                    bluetoothServerGateway.gattNotifications(context, address, serviceUUID, characteristicUUID, false, new GattCharacteristicCallBack() {
+                    bluetoothServerGateway.gattNotificationsStop(mac, serviceUuid, characteristicUuid,
+                            subscription != null ? Integer.parseInt(subscription) : 0,
+                            (boolean ok, String reason) -> commandStatusResult(context, command, ok, reason));
+                    return;
 
+                case GATT_BATCH:
+                    validationError = validationHelper.validateBatch(leCommand.getCommand(), json);
+                    if (validationError != null) {
+                        failWithReason(context, command, validationError);
+                        return;
+                    }
+                    applyPriority(mac, priority);
+
+                    new GattBatch(bluetoothServerGateway, context, batchSteps(json), encoding != null ? encoding : WireEncoding.HEX, new GattBatch.Sink() {
                         @Override
-                        public void onRead(byte[] value) {
-                            final String sValue = HexHelper.printHexBinary(value);
-                            sendNotification(context, leCommand, sValue);
+                        public void onNotification(String name, String device, String characteristicUUID, String data) {
+                            sendNotification(context, name, device, characteristicUUID, data);
                         }
-                    }, (boolean ok, String reason) -> commandStatusResult(context, command, ok, reason));
+
+                        @Override
+                        public void onFinished(boolean ok, List<BTLEBatchStepResult> results) {
+                            resultWithObject(context, command, ok, results);
+                        }
+                    }).start();
                     return;
 
                 case UNKNOWN:
@@ -234,40 +564,208 @@ public class BTLEGateway {
         }
 
         Timber.d("default status ok");
-        command.setStatus(context.getString(R.string.completed));
-        command.updateCommand();
+        updateCommand(command, context.getString(R.string.completed), null);
+    }
+
+    private void scanAndReturnResults(Context context, DeviceCommand command, ScanParameters parameters) {
+        bluetoothServerGateway.scan(parameters, GatewayTimer.Timeout.SCAN.get(),
+                () -> successWithObject(context, command, bluetoothServerGateway.getDiscoveredDevices(parameters.getFilter())));
     }
 
-    private void scanAndReturnResults(Context context, DeviceCommand command) {
-        bluetoothServerGateway.scanStart();
-        new Thread() {
+    private void streamScanResults(Context context, DeviceCommand command, ScanParameters parameters, long interval) {
+        new ScanStream(bluetoothServerGateway, interval, GatewayTimer.Timeout.SCAN.get(), new ScanStream.Sink() {
             @Override
-            public void run() {
-                try {
-                    sleep(BluetoothServer.COMMAND_SCAN_DELAY);
-                    sendStopResult(context, command);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+            public void onNotification(String name, String data) {
+                sendNotification(context, name, data);
             }
-        }.start();
+
+            @Override
+            public void onFinished(BTLEScanSummary summary) {
+                successWithObject(context, command, summary);
+            }
+        }).start(parameters);
+    }
+
+    //    Top-level primitive parameters as strings - structured ones (arrays, objects) are read from json directly
+    private static HashMap<String, String> stringParams(JsonObject json) {
+        if (json == null) {
+            return null;
+        }
+        final HashMap<String, String> params = new HashMap<>();
+        for (Map.Entry<String, JsonElement> entry : json.entrySet()) {
+            if (entry.getValue().isJsonPrimitive()) {
+                params.put(entry.getKey(), entry.getValue().getAsString());
+            }
+        }
+        return params;
+    }
+
+    private void applyPriority(long mac, ConnectionPriority priority) {
+        if (priority != null) {
+            bluetoothServerGateway.setConnectionPriority(mac, priority);
+        }
+    }
+
+    //    Should be called after ValidationHelper.validatePolicy
+    private static DeliveryPolicy deliveryPolicy(JsonObject json) {
+        final JsonElement element = json != null ? json.get(POLICY) : null;
+        if (element == null) {
+            return DeliveryPolicy.ALL;
+        }
+        final JsonObject policy = element.isJsonObject() ? element.getAsJsonObject() : new JsonObject();
+        final String mode = element.isJsonObject() ? getString(policy, MODE) : element.getAsString();
+        switch (mode) {
+            case DeliveryPolicy.CONFLATE_NAME: {
+                final String interval = getString(policy, INTERVAL);
+                return DeliveryPolicy.conflate(interval != null ? Long.parseLong(interval) : DeliveryPolicy.DEFAULT_CONFLATE_INTERVAL);
+            }
+            case DeliveryPolicy.RATE_NAME:
+                return DeliveryPolicy.rate(Double.parseDouble(getString(policy, RATE)));
+            case DeliveryPolicy.ON_CHANGE_NAME: {
+                final String offset = getString(policy, OFFSET);
+                final String delta = getString(policy, DELTA);
+                return DeliveryPolicy.onChange(DeliveryPolicy.Format.fromName(getString(policy, FORMAT)),
+                        offset != null ? Integer.parseInt(offset) : DeliveryPolicy.DEFAULT_OFFSET,
+                        delta != null ? Double.parseDouble(delta) : DeliveryPolicy.DEFAULT_DELTA);
+            }
+            default:
+                return DeliveryPolicy.ALL;
+        }
+    }
+
+    //    Should be called after ValidationHelper.validateWindow
+    private static NotificationWindow notificationWindow(JsonObject json, String address, String characteristicUUID,
+                                                         WireEncoding encoding, NotificationWindow.Sink sink) {
+        final JsonElement element = json != null ? json.get(WINDOW) : null;
+        if (element == null) {
+            return null;
+        }
+        final JsonObject window = element.getAsJsonObject();
+        final String maxItems = getString(window, MAX_ITEMS);
+        final String maxBytes = getString(window, MAX_BYTES);
+        final String maxDelay = getString(window, MAX_DELAY);
+        return new NotificationWindow(address, characteristicUUID,
+                maxItems != null ? Integer.parseInt(maxItems) : NotificationWindow.DEFAULT_MAX_ITEMS,
+                maxBytes != null ? Integer.parseInt(maxBytes) : NotificationWindow.DEFAULT_MAX_BYTES,
+                maxDelay != null ? Long.parseLong(maxDelay) : NotificationWindow.DEFAULT_MAX_DELAY,
+                encoding, sink);
+    }
+
+    private static String getString(JsonObject json, String key) {
+        final JsonElement element = json != null ? json.get(key) : null;
+        return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+    }
+
+    //    Should be called after ValidationHelper.validateScan
+    private static ScanParameters scanParameters(JsonObject json) {
+        if (json == null) {
+            return ScanParameters.DEFAULT;
+        }
+
+        long[] addresses = null;
+        final JsonElement devices = json.get(DEVICES);
+        if (devices != null && devices.isJsonArray()) {
+            final JsonArray array = devices.getAsJsonArray();
+            addresses = new long[array.size()];
+            for (int i = 0; i < addresses.length; i++) {
+                addresses[i] = MacAddress.parse(array.get(i).getAsString());
+            }
+        }
+
+        final String manufacturerId = getString(json, MANUFACTURER_ID);
+        final String manufacturerData = getString(json, MANUFACTURER_DATA);
+        final String manufacturerDataMask = getString(json, MANUFACTURER_DATA_MASK);
+        final BleScanFilter filter = new BleScanFilter(
+                UuidHelper.parse(getString(json, SERVICE_UUID)),
+                getString(json, NAME_PREFIX),
+                addresses,
+                manufacturerId != null ? Integer.parseInt(manufacturerId) : AdvertisingData.MANUFACTURER_UNKNOWN,
+                manufacturerData != null ? HexHelper.parseHexBinary(manufacturerData) : null,
+                manufacturerDataMask != null ? HexHelper.parseHexBinary(manufacturerDataMask) : null);
+
+        final String reportDelay = getString(json, REPORT_DELAY);
+        return new ScanParameters(filter, ScanParameters.ScanMode.fromName(getString(json, SCAN_MODE)),
+                reportDelay != null ? Long.parseLong(reportDelay) : 0);
+    }
+
+    //    Should be called after ValidationHelper.validateMaxAge
+    private static long maxAge(JsonObject json) {
+        final String maxAge = getString(json, MAX_AGE);
+        return maxAge != null ? Long.parseLong(maxAge) : 0;
+    }
+
+    //    Should be called after ValidationHelper.validateConnection, missing values are taken from current profile
+    private static ConnectionProfile connectionProfile(JsonObject json, ConnectionProfile current) {
+        final String mtu = getString(json, MTU);
+        final String priority = getString(json, PRIORITY);
+        final String idleTimeout = getString(json, IDLE_TIMEOUT);
+        final String phy = getString(json, PHY);
+        return new ConnectionProfile(
+                mtu != null ? Integer.parseInt(mtu) : current.getMtu(),
+                priority != null ? ConnectionPriority.fromName(priority) : current.getPriority(),
+                idleTimeout != null ? Long.parseLong(idleTimeout) : current.getIdleTimeout(),
+                phy != null ? Phy.fromName(phy) : current.getPhy());
+    }
+
+    //    Should be called after ValidationHelper.validateBatch. Device and error policy of the batch apply to operations which don't set their own
+    private static List<GattBatch.Step> batchSteps(JsonObject json) {
+        final String batchDevice = getString(json, DEVICE);
+        final String batchOnError = getString(json, ON_ERROR);
+        final JsonArray operations = json.getAsJsonArray(OPERATIONS);
+        final List<GattBatch.Step> steps = new ArrayList<>(operations.size());
+        for (JsonElement element : operations) {
+            final JsonObject operation = element.getAsJsonObject();
+            final String device = getString(operation, DEVICE) != null ? getString(operation, DEVICE) : batchDevice;
+            final String serviceUUID = getString(operation, SERVICE_UUID);
+            final String characteristicUUID = getString(operation, CHARACTERISTIC_UUID);
+            final String value = getString(operation, VALUE);
+            final String onError = getString(operation, ON_ERROR) != null ? getString(operation, ON_ERROR) : batchOnError;
+            steps.add(new GattBatch.Step(LeCommand.fromName(getString(operation, COMMAND)), device, serviceUUID, characteristicUUID,
+                    MacAddress.parse(device), AttributeUuid.parse(serviceUUID), AttributeUuid.parse(characteristicUUID),
+                    value != null ? HexHelper.parseHexBinary(value) : null,
+                    !ON_ERROR_CONTINUE.equals(onError)));
+        }
+        return steps;
     }
 
     private void sendNotification(Context context, final LeCommand leCommand, final String data) {
+        sendNotification(context, leCommand.getCommand(), data);
+    }
+
+    private void sendNotification(Context context, final String name, final String data) {
+        sendNotification(context, name, null, null, data);
+    }
+
+    //    Device and characteristic tell apart values of concurrent subscriptions
+    private void sendNotification(Context context, final String name, final String device, final String characteristicUUID, final String data) {
         Timber.d("Notification: %s", data);
-        if (dhDevice != null) {
+        final Device dh = dhDevice;
+        if (dh != null) {
             ArrayList<Parameter> parameters = new ArrayList<>();
             parameters.add(new Parameter(context.getString(R.string.data), data));
-            dhDevice.sendNotification(leCommand.getCommand(), parameters);
+            if (device != null) {
+                parameters.add(new Parameter(DEVICE, device));
+                parameters.add(new Parameter(CHARACTERISTIC_UUID, characteristicUUID));
+            }
+            GatewayUplink.execute(() -> dh.sendNotification(name, parameters));
         }
     }
 
+    private static BTLETimerStatus timerStatus() {
+        final Map<String, Long> timeouts = new LinkedHashMap<>();
+        for (GatewayTimer.Timeout timeout : GatewayTimer.Timeout.values()) {
+            timeouts.put(timeout.getName(), timeout.get());
+        }
+        return new BTLETimerStatus(GatewayTimer.getPending(), GatewayTimer.getScheduled(), GatewayTimer.getFired(),
+                Thread.activeCount(), timeouts);
+    }
+
     private void sendStopResult(Context context, DeviceCommand command) {
         final ArrayList<BTLEDevice> devices = bluetoothServerGateway.getDiscoveredDevices();
         successWithObject(context, command, devices);
     }
 
-    private void gattPrimary(Context context, String address, DeviceCommand command, @SuppressWarnings("UnusedParameters") final LeCommand leCommand) {
+    private void gattPrimary(Context context, long address, DeviceCommand command, @SuppressWarnings("UnusedParameters") final LeCommand leCommand) {
         bluetoothServerGateway.gattPrimary(address, new GattCharacteristicCallBack() {
             @Override
             public void onServices(List<ParcelUuid> uuidList) {
@@ -276,7 +774,7 @@ public class BTLEGateway {
         }, (boolean ok, String reason) -> commandStatusResult(context, command, ok, reason));
     }
 
-    private void gattCharacteristics(Context context, String address, DeviceCommand command, @SuppressWarnings("UnusedParameters") final LeCommand leCommand) {
+    private void gattCharacteristics(Context context, long address, DeviceCommand command, @SuppressWarnings("UnusedParameters") final LeCommand leCommand) {
         bluetoothServerGateway.gattCharacteristics(address, new GattCharacteristicCallBack() {
             @Override
             public void onCharacteristics(ArrayList<BTLECharacteristic> characteristics) {
@@ -289,14 +787,23 @@ public class BTLEGateway {
         SCAN_START("scan/start"),
         SCAN_STOP("scan/stop"),
         SCAN("scan"),
+        SCAN_STATS("scan/stats"),
+        TIMERS("timers"),
+        ENCODING("encoding"),
+        DEVICE_PROXIMITY("device/proximity"),
         GATT_PRIMARY("gatt/primary"),
         GATT_CHARACTERISTICS("gatt/characteristics"),
+        GATT_REFRESH("gatt/refresh"),
         GATT_READ("gatt/read"),
+        GATT_READ_MULTIPLE("gatt/read/multiple"),
         GATT_WRITE("gatt/write"),
+        GATT_WRITE_STREAM("gatt/write/stream"),
         GATT_NOTIFICATION("gatt/notifications"),
         GATT_NOTIFICATION_STOP("gatt/notifications/stop"),
         GATT_CONNECT("gatt/connect"),
+        GATT_CONNECTION("gatt/connection"),
         GATT_DISCONNECT("gatt/disconnect"),
+        GATT_BATCH("gatt/batch"),
         UNKNOWN("unknown");
 
         private final String command;
@@ -318,5 +825,11 @@ public class BTLEGateway {
             return command;
         }
 
+        //        commands addressing single characteristic, which may be given by handle
+        boolean isCharacteristicCommand() {
+            return this == GATT_READ || this == GATT_WRITE || this == GATT_WRITE_STREAM
+                    || this == GATT_NOTIFICATION || this == GATT_NOTIFICATION_STOP;
+        }
+
     }
 }
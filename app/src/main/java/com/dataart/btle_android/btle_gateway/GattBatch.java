@@ -0,0 +1,164 @@
+package com.dataart.btle_android.btle_gateway;
+
+import android.content.Context;
+
+import com.dataart.btle_android.btle_gateway.gatt_callbacks.DeliveryPolicy;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.AttributeUuid;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.WireEncoding;
+import com.dataart.btle_android.btle_gateway.model.BTLEBatchStepResult;
+import com.dataart.btle_android.btle_gateway.model.BTLEWriteStreamResult;
+import com.dataart.btle_android.btle_gateway.server.BluetoothServer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import timber.log.Timber;
+
+/**
+ * Ordered list of GATT operations run as single command. Each operation starts when the previous one is complete,
+ * so the whole batch costs one DeviceHive round trip instead of one per operation, while device sees the same sequence
+ * of requests as with separate commands. Operations go through connection's queue like any other request.
+ * <p>
+ * Failed operation with "stop" policy skips the rest of the batch, with "continue" the batch goes on
+ */
+class GattBatch {
+
+    private final BluetoothServer server;
+    private final Context context;
+    private final List<Step> steps;
+    //    of read values and notifications
+    private final WireEncoding encoding;
+    private final Sink sink;
+    private final List<BTLEBatchStepResult> results;
+    private boolean failed = false;
+
+    GattBatch(BluetoothServer server, Context context, List<Step> steps, WireEncoding encoding, Sink sink) {
+        this.server = server;
+        this.context = context;
+        this.steps = steps;
+        this.encoding = encoding;
+        this.sink = sink;
+        this.results = new ArrayList<>(steps.size());
+    }
+
+    void start() {
+        run(0);
+    }
+
+    private void run(final int index) {
+        if (index == steps.size()) {
+            sink.onFinished(!failed, results);
+            return;
+        }
+
+        final Step step = steps.get(index);
+        Timber.d("batch step %d: %s", index, step.command.getCommand());
+        switch (step.command) {
+            case GATT_READ:
+                server.gattRead(step.address, step.serviceUuid, step.characteristicUuid, 0, new GattCharacteristicCallBack() {
+                    @Override
+                    public void onRead(byte[] value) {
+                        complete(index, true, encoding.encode(value, System.currentTimeMillis()), null);
+                    }
+                }, (boolean ok, String reason) -> {
+//                    success is reported with value by callback
+                    if (!ok) {
+                        complete(index, false, null, reason);
+                    }
+                });
+                break;
+
+            case GATT_WRITE:
+                server.gattWrite(step.address, step.serviceUuid, step.characteristicUuid, step.value, new GattCharacteristicCallBack(),
+                        (boolean ok, String reason) -> complete(index, ok, null, reason));
+                break;
+
+            case GATT_WRITE_STREAM:
+//                stream reports success through callback only
+                server.gattWriteStream(step.address, step.serviceUuid, step.characteristicUuid, step.value, new GattCharacteristicCallBack() {
+                    @Override
+                    public void onWriteStream(BTLEWriteStreamResult result) {
+                        complete(index, true, null, null);
+                    }
+                }, (boolean ok, String reason) -> complete(index, ok, null, reason));
+                break;
+
+            case GATT_NOTIFICATION:
+                server.gattNotifications(context, step.address, step.serviceUuid, step.characteristicUuid, DeliveryPolicy.ALL, new GattCharacteristicCallBack() {
+                    @Override
+                    public void onRead(byte[] value) {
+                        sink.onNotification(BTLEGateway.LeCommand.GATT_NOTIFICATION.getCommand(), step.device, step.characteristicUUID,
+                                encoding.encode(value, System.currentTimeMillis()));
+                    }
+                }, (boolean ok, String reason) -> complete(index, ok, null, reason));
+                break;
+
+            case GATT_NOTIFICATION_STOP:
+                server.gattNotificationsStop(step.address, step.serviceUuid, step.characteristicUuid, 0,
+                        (boolean ok, String reason) -> complete(index, ok, null, reason));
+                break;
+
+            default:
+//                rejected by validation
+                complete(index, false, null, null);
+        }
+    }
+
+    private void complete(int index, boolean ok, String value, String reason) {
+        final Step step = steps.get(index);
+        int next = index + 1;
+        synchronized (this) {
+//            operation may report status more than once, only the first one counts
+            if (results.size() != index) {
+                return;
+            }
+            results.add(step.result(ok ? BTLEBatchStepResult.COMPLETED : BTLEBatchStepResult.FAILED, value, ok ? null : reason));
+            if (!ok) {
+                failed = true;
+                if (step.stopOnError) {
+                    for (int i = next; i < steps.size(); i++) {
+                        results.add(steps.get(i).result(BTLEBatchStepResult.SKIPPED, null, null));
+                    }
+                    next = steps.size();
+                }
+            }
+        }
+        run(next);
+    }
+
+    static class Step {
+        private final BTLEGateway.LeCommand command;
+        private final String device;
+        private final String serviceUUID;
+        private final String characteristicUUID;
+        private final long address;
+        private final AttributeUuid serviceUuid;
+        private final AttributeUuid characteristicUuid;
+        private final byte[] value;
+        private final boolean stopOnError;
+
+        Step(BTLEGateway.LeCommand command, String device, String serviceUUID, String characteristicUUID,
+             long address, AttributeUuid serviceUuid, AttributeUuid characteristicUuid, byte[] value, boolean stopOnError) {
+            this.command = command;
+            this.device = device;
+            this.serviceUUID = serviceUUID;
+            this.characteristicUUID = characteristicUUID;
+            this.address = address;
+            this.serviceUuid = serviceUuid;
+            this.characteristicUuid = characteristicUuid;
+            this.value = value;
+            this.stopOnError = stopOnError;
+        }
+
+        private BTLEBatchStepResult result(String status, String value, String reason) {
+            return new BTLEBatchStepResult(command.getCommand(), device, serviceUUID, characteristicUUID, status, value, reason);
+        }
+    }
+
+    interface Sink {
+        //        device and characteristic identify the source among subscriptions
+        void onNotification(String name, String device, String characteristicUUID, String data);
+
+        void onFinished(boolean ok, List<BTLEBatchStepResult> results);
+    }
+}
@@ -3,6 +3,8 @@ package com.dataart.btle_android.btle_gateway;
 import android.os.ParcelUuid;
 
 import com.dataart.btle_android.btle_gateway.model.BTLECharacteristic;
+import com.dataart.btle_android.btle_gateway.model.BTLEReadResult;
+import com.dataart.btle_android.btle_gateway.model.BTLEWriteStreamResult;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -22,4 +24,10 @@ public class GattCharacteristicCallBack {
     @SuppressWarnings("EmptyMethod")
     public void onWrite(int status) {
     }
+
+    public void onWriteStream(BTLEWriteStreamResult result) {
+    }
+
+    public void onReadMultiple(List<BTLEReadResult> results) {
+    }
 }
@@ -0,0 +1,119 @@
+package com.dataart.btle_android.btle_gateway;
+
+import com.dataart.btle_android.btle_gateway.gateway_helpers.GatewayTimer;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.GatewayUplink;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.WireEncoding;
+import com.dataart.btle_android.btle_gateway.model.BTLENotificationBatch;
+import com.google.gson.Gson;
+
+import java.util.Arrays;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Collects notified values of one subscription and sends them as single notification per window. Window is closed
+ * when it has max items, or max bytes of values, or when its first value has waited for max delay.
+ * <p>
+ * Values keep their order and arrival times. Closed windows are encoded and sent on gateway uplink thread in order
+ * they were closed, never on Bluetooth callback or timer thread
+ */
+class NotificationWindow {
+
+    static final String NOTIFICATION = "gatt/notifications/batch";
+
+    static final int DEFAULT_MAX_ITEMS = 100;
+    static final int DEFAULT_MAX_BYTES = 8192;
+    static final long DEFAULT_MAX_DELAY = 1000;
+
+    private final String device;
+    private final String characteristicUUID;
+    private final int maxItems;
+    private final int maxBytes;
+    private final long maxDelay;
+    private final WireEncoding encoding;
+    private final Sink sink;
+    private final Gson gson = new Gson();
+
+    //    window being filled, null until the next value
+    private Window window;
+
+    NotificationWindow(String device, String characteristicUUID, int maxItems, int maxBytes, long maxDelay, WireEncoding encoding, Sink sink) {
+        this.device = device;
+        this.characteristicUUID = characteristicUUID;
+        this.maxItems = maxItems;
+        this.maxBytes = maxBytes;
+        this.maxDelay = maxDelay;
+        this.encoding = encoding;
+        this.sink = sink;
+    }
+
+    /**
+     * @param value     is copied, platform reuses characteristic's buffer
+     * @param timestamp arrival time, milliseconds since epoch
+     */
+    void add(byte[] value, long timestamp) {
+        final Window closed;
+        synchronized (this) {
+            if (window == null) {
+                final Window opened = new Window(maxItems);
+                opened.deadline = GatewayTimer.schedule(() -> expire(opened), maxDelay);
+                window = opened;
+            }
+            window.add(value.clone(), timestamp);
+            if (window.count < maxItems && window.bytes < maxBytes) {
+                return;
+            }
+            closed = window;
+            window = null;
+        }
+        closed.deadline.cancel(false);
+//        queued after windows closed earlier, uplink thread runs them in order
+        GatewayUplink.execute(() -> send(closed));
+    }
+
+    private void expire(Window expired) {
+        synchronized (this) {
+            if (window != expired) {
+                return;
+            }
+            window = null;
+        }
+        GatewayUplink.execute(() -> send(expired));
+    }
+
+    private void send(Window closed) {
+        if (encoding == WireEncoding.CBOR) {
+            sink.onBatch(WireEncoding.encodeBatch(device, characteristicUUID, closed.timestamps, closed.values, closed.count));
+            return;
+        }
+        final String[] values = new String[closed.count];
+        for (int i = 0; i < closed.count; i++) {
+            values[i] = encoding.encode(closed.values[i], closed.timestamps[i]);
+        }
+        sink.onBatch(gson.toJson(new BTLENotificationBatch(device, characteristicUUID, Arrays.copyOf(closed.timestamps, closed.count), values)));
+    }
+
+    private static class Window {
+        private final long[] timestamps;
+        private final byte[][] values;
+        private int count = 0;
+        private int bytes = 0;
+        private ScheduledFuture<?> deadline;
+
+        private Window(int capacity) {
+            timestamps = new long[capacity];
+            values = new byte[capacity][];
+        }
+
+        private void add(byte[] value, long timestamp) {
+            timestamps[count] = timestamp;
+            values[count] = value;
+            count++;
+            bytes += value.length;
+        }
+    }
+
+    interface Sink {
+        //        JSON batch, or envelope as base64 text for CBOR
+        void onBatch(String data);
+    }
+}
@@ -0,0 +1,120 @@
+package com.dataart.btle_android.btle_gateway;
+
+import android.os.SystemClock;
+
+import com.dataart.btle_android.btle_gateway.gateway_helpers.GatewayTimer;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.GatewayUplink;
+import com.dataart.btle_android.btle_gateway.model.BTLEDevice;
+import com.dataart.btle_android.btle_gateway.model.BTLEScanDelta;
+import com.dataart.btle_android.btle_gateway.model.BTLEScanSummary;
+import com.dataart.btle_android.btle_gateway.server.BluetoothServer;
+import com.dataart.btle_android.btle_gateway.server.ScanDeltaTracker;
+import com.dataart.btle_android.helpers.ble.base.ScanParameters;
+import com.google.gson.Gson;
+
+import java.util.concurrent.ScheduledFuture;
+
+import timber.log.Timber;
+
+/**
+ * Streaming scan: newly discovered devices are sent as separate notifications right away, and everything
+ * else - devices above the per-interval limit, RSSI changes, lost devices - is coalesced into periodic deltas
+ * of bounded size. Command result carries only summary.
+ * <p>
+ * All bookkeeping and sending happens on gateway uplink thread, never on the scan callback or timer thread
+ */
+class ScanStream {
+
+    static final String NOTIFICATION_DEVICE = "scan/device";
+    static final String NOTIFICATION_DELTA = "scan/delta";
+
+    static final long DEFAULT_INTERVAL = 1000;
+    private static final int MAX_IMMEDIATE_PER_INTERVAL = 20;
+    private static final int MAX_DELTA_ITEMS = 50;
+    private static final int RSSI_THRESHOLD = 5;
+    private static final long MIN_LOST_TIMEOUT = 5000;
+
+    private final BluetoothServer server;
+    private final long interval;
+    private final long duration;
+    private final Sink sink;
+    private final Gson gson = new Gson();
+    private final BluetoothServer.DiscoveryListener discoveryListener;
+
+    private ScanDeltaTracker tracker;
+    private ScheduledFuture<?> flushes;
+    private int immediateBudget = MAX_IMMEDIATE_PER_INTERVAL;
+    private int notifications = 0;
+    private long startedAt;
+    //    flush or discovery queued before finish may run after it
+    private boolean finished = false;
+
+    ScanStream(BluetoothServer server, long interval, long duration, Sink sink) {
+        this.server = server;
+        this.interval = interval;
+        this.duration = duration;
+        this.sink = sink;
+        this.discoveryListener = address -> GatewayUplink.execute(() -> onDiscovered(address));
+    }
+
+    void start(ScanParameters parameters) {
+        startedAt = SystemClock.elapsedRealtime();
+        tracker = server.createDeltaTracker(Math.max(MIN_LOST_TIMEOUT, interval * 5), RSSI_THRESHOLD);
+        server.addDiscoveryListener(discoveryListener);
+        flushes = GatewayTimer.scheduleAtFixedRate(() -> GatewayUplink.execute(this::flush), interval);
+        server.scan(parameters, duration, () -> GatewayUplink.execute(this::finish));
+    }
+
+    private void onDiscovered(long address) {
+        if (finished) {
+            return;
+        }
+        if (immediateBudget == 0) {
+//            too many new devices in this interval - they go into the next delta
+            return;
+        }
+        final BTLEDevice device = tracker.report(address);
+        if (device != null) {
+            immediateBudget--;
+            send(NOTIFICATION_DEVICE, device);
+        }
+    }
+
+    private void flush() {
+        if (finished) {
+            return;
+        }
+        immediateBudget = MAX_IMMEDIATE_PER_INTERVAL;
+        final BTLEScanDelta delta = tracker.poll();
+        if (delta.isEmpty()) {
+            return;
+        }
+        for (BTLEScanDelta part : delta.split(MAX_DELTA_ITEMS)) {
+            send(NOTIFICATION_DELTA, part);
+        }
+    }
+
+    private void finish() {
+        server.removeDiscoveryListener(discoveryListener);
+        flushes.cancel(false);
+        flush();
+        finished = true;
+        sink.onFinished(new BTLEScanSummary(tracker.getReportedCount(), notifications, SystemClock.elapsedRealtime() - startedAt));
+    }
+
+    private void send(String name, Object data) {
+        notifications++;
+        try {
+            sink.onNotification(name, gson.toJson(data));
+        } catch (Exception e) {
+//            don't let single failed notification cancel periodic deltas
+            Timber.e("scan stream notification failed: %s", e.toString());
+        }
+    }
+
+    interface Sink {
+        void onNotification(String name, String data);
+
+        void onFinished(BTLEScanSummary summary);
+    }
+}
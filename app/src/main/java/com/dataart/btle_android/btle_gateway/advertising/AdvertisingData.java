@@ -0,0 +1,380 @@
+package com.dataart.btle_android.btle_gateway.advertising;
+
+import com.dataart.btle_android.btle_gateway.gateway_helpers.HexHelper;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.UuidHelper;
+
+import java.nio.charset.Charset;
+import java.util.UUID;
+
+/**
+ * Flyweight parser of advertisement / scan response payload (sequence of AD length-type-value structures).
+ * <p>
+ * {@link #wrap(byte[])} only indexes structure boundaries in place - no copies are made and nothing is allocated
+ * per advert, values are read lazily on request. Same raw bytes come from both BleScannerJ and BleScannerL,
+ * so parsing works the same on all Android versions.
+ * <p>
+ * Not thread-safe: keep one instance per thread and reuse it for every record
+ */
+public class AdvertisingData {
+
+    public static final int TX_POWER_UNKNOWN = Integer.MIN_VALUE;
+    public static final int MANUFACTURER_UNKNOWN = -1;
+
+    //    Assigned numbers, Generic Access Profile
+    private static final int TYPE_SERVICE_UUIDS_16_INCOMPLETE = 0x02;
+    private static final int TYPE_SERVICE_UUIDS_16_COMPLETE = 0x03;
+    private static final int TYPE_SERVICE_UUIDS_32_INCOMPLETE = 0x04;
+    private static final int TYPE_SERVICE_UUIDS_32_COMPLETE = 0x05;
+    private static final int TYPE_SERVICE_UUIDS_128_INCOMPLETE = 0x06;
+    private static final int TYPE_SERVICE_UUIDS_128_COMPLETE = 0x07;
+    private static final int TYPE_LOCAL_NAME_SHORT = 0x08;
+    private static final int TYPE_LOCAL_NAME_COMPLETE = 0x09;
+    private static final int TYPE_TX_POWER_LEVEL = 0x0A;
+    private static final int TYPE_SERVICE_DATA_16 = 0x16;
+    private static final int TYPE_SERVICE_DATA_32 = 0x20;
+    private static final int TYPE_SERVICE_DATA_128 = 0x21;
+    private static final int TYPE_MANUFACTURER_SPECIFIC_DATA = 0xFF;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] record;
+    //    offsets of length byte of each AD structure
+    private int[] structures = new int[16];
+    private int count;
+
+    private int nameOffset;
+    private int txPowerOffset;
+    private int manufacturerOffset;
+
+    /**
+     * Indexes AD structures of the record. Malformed tail (length running past the end) is ignored
+     *
+     * @return this, for chaining
+     */
+    public AdvertisingData wrap(byte[] record) {
+        this.record = record;
+        count = 0;
+        nameOffset = -1;
+        txPowerOffset = -1;
+        manufacturerOffset = -1;
+
+        if (record == null) {
+            return this;
+        }
+
+        int offset = 0;
+        while (offset < record.length) {
+            final int length = record[offset] & 0xFF;
+//            zero length means significant part of record is over, the rest is padding
+            if (length == 0 || offset + length >= record.length) {
+                break;
+            }
+
+            if (count == structures.length) {
+//                happens only for extended advertisements, array is kept for following records
+                final int[] grown = new int[structures.length * 2];
+                System.arraycopy(structures, 0, grown, 0, count);
+                structures = grown;
+            }
+            structures[count++] = offset;
+
+            switch (record[offset + 1] & 0xFF) {
+                case TYPE_LOCAL_NAME_COMPLETE:
+                    nameOffset = offset;
+                    break;
+                case TYPE_LOCAL_NAME_SHORT:
+                    if (nameOffset == -1) {
+                        nameOffset = offset;
+                    }
+                    break;
+                case TYPE_TX_POWER_LEVEL:
+                    txPowerOffset = offset;
+                    break;
+                case TYPE_MANUFACTURER_SPECIFIC_DATA:
+                    if (manufacturerOffset == -1 && length >= 3) {
+                        manufacturerOffset = offset;
+                    }
+                    break;
+            }
+
+            offset += length + 1;
+        }
+        return this;
+    }
+
+    public byte[] getRecord() {
+        return record;
+    }
+
+    public boolean hasLocalName() {
+        return nameOffset != -1;
+    }
+
+    /**
+     * Allocates the string - use {@link #localNameStartsWith(String)} on hot paths
+     *
+     * @return complete (or shortened, if there is no complete) local name, or null
+     */
+    public String getLocalName() {
+        if (nameOffset == -1) {
+            return null;
+        }
+        return new String(record, nameOffset + 2, dataLength(nameOffset), UTF_8);
+    }
+
+    /**
+     * Compares local name with prefix without decoding it. Non-ASCII prefix characters never match
+     */
+    public boolean localNameStartsWith(String prefix) {
+        if (nameOffset == -1) {
+            return false;
+        }
+        final int length = dataLength(nameOffset);
+        if (prefix.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (record[nameOffset + 2 + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return advertised TX power level in dBm or {@link #TX_POWER_UNKNOWN}
+     */
+    public int getTxPowerLevel() {
+        if (txPowerOffset == -1 || dataLength(txPowerOffset) < 1) {
+            return TX_POWER_UNKNOWN;
+        }
+        return record[txPowerOffset + 2];
+    }
+
+    public int getServiceUuidCount() {
+        int uuids = 0;
+        for (int i = 0; i < count; i++) {
+            final int width = serviceUuidWidth(type(structures[i]));
+            if (width != 0) {
+                uuids += dataLength(structures[i]) / width;
+            }
+        }
+        return uuids;
+    }
+
+    public long getServiceUuidMsb(int index) {
+        final int offset = serviceUuidOffset(index);
+        return uuidMsb(offset, serviceUuidWidthAt(offset));
+    }
+
+    public long getServiceUuidLsb(int index) {
+        final int offset = serviceUuidOffset(index);
+        return uuidLsb(offset, serviceUuidWidthAt(offset));
+    }
+
+    public UUID getServiceUuid(int index) {
+        return new UUID(getServiceUuidMsb(index), getServiceUuidLsb(index));
+    }
+
+    public boolean hasServiceUuid(UUID uuid) {
+        final long msb = uuid.getMostSignificantBits();
+        final long lsb = uuid.getLeastSignificantBits();
+        for (int i = 0; i < count; i++) {
+            final int structure = structures[i];
+            final int width = serviceUuidWidth(type(structure));
+            if (width == 0) {
+                continue;
+            }
+            final int end = structure + 2 + dataLength(structure) / width * width;
+            for (int offset = structure + 2; offset < end; offset += width) {
+                if (uuidMsb(offset, width) == msb && uuidLsb(offset, width) == lsb) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    public int getServiceDataCount() {
+        int result = 0;
+        for (int i = 0; i < count; i++) {
+            final int structure = structures[i];
+            final int width = serviceDataUuidWidth(type(structure));
+            if (width != 0 && dataLength(structure) >= width) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    public long getServiceDataUuidMsb(int index) {
+        final int structure = serviceDataStructure(index);
+        return uuidMsb(structure + 2, serviceDataUuidWidth(type(structure)));
+    }
+
+    public long getServiceDataUuidLsb(int index) {
+        final int structure = serviceDataStructure(index);
+        return uuidLsb(structure + 2, serviceDataUuidWidth(type(structure)));
+    }
+
+    public UUID getServiceDataUuid(int index) {
+        return new UUID(getServiceDataUuidMsb(index), getServiceDataUuidLsb(index));
+    }
+
+    /**
+     * @return offset of service data value (after UUID) in {@link #getRecord()}
+     */
+    public int getServiceDataOffset(int index) {
+        final int structure = serviceDataStructure(index);
+        return structure + 2 + serviceDataUuidWidth(type(structure));
+    }
+
+    public int getServiceDataLength(int index) {
+        final int structure = serviceDataStructure(index);
+        return dataLength(structure) - serviceDataUuidWidth(type(structure));
+    }
+
+    public String getServiceDataHex(int index) {
+        return HexHelper.printHexBinary(record, getServiceDataOffset(index), getServiceDataLength(index));
+    }
+
+    /**
+     * @return company identifier of the first manufacturer specific data or {@link #MANUFACTURER_UNKNOWN}
+     */
+    public int getManufacturerId() {
+        if (manufacturerOffset == -1) {
+            return MANUFACTURER_UNKNOWN;
+        }
+        return (record[manufacturerOffset + 2] & 0xFF) | ((record[manufacturerOffset + 3] & 0xFF) << 8);
+    }
+
+    /**
+     * @return offset of manufacturer data (after company identifier) in {@link #getRecord()}
+     */
+    public int getManufacturerDataOffset() {
+        return manufacturerOffset + 4;
+    }
+
+    public int getManufacturerDataLength() {
+        return manufacturerOffset != -1 ? dataLength(manufacturerOffset) - 2 : 0;
+    }
+
+    /**
+     * Same semantics as android.bluetooth.le.ScanFilter: every byte where mask is set must be equal
+     *
+     * @param mask null to compare all bytes of data
+     */
+    public boolean manufacturerDataMatches(byte[] data, byte[] mask) {
+        if (data == null) {
+            return true;
+        }
+        if (getManufacturerDataLength() < data.length) {
+            return false;
+        }
+        final int offset = getManufacturerDataOffset();
+        for (int i = 0; i < data.length; i++) {
+            final int m = mask != null && i < mask.length ? mask[i] : 0xFF;
+            if (((record[offset + i] ^ data[i]) & m) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int type(int structure) {
+        return record[structure + 1] & 0xFF;
+    }
+
+    private int dataLength(int structure) {
+        return (record[structure] & 0xFF) - 1;
+    }
+
+    private static int serviceUuidWidth(int type) {
+        switch (type) {
+            case TYPE_SERVICE_UUIDS_16_INCOMPLETE:
+            case TYPE_SERVICE_UUIDS_16_COMPLETE:
+                return 2;
+            case TYPE_SERVICE_UUIDS_32_INCOMPLETE:
+            case TYPE_SERVICE_UUIDS_32_COMPLETE:
+                return 4;
+            case TYPE_SERVICE_UUIDS_128_INCOMPLETE:
+            case TYPE_SERVICE_UUIDS_128_COMPLETE:
+                return 16;
+            default:
+                return 0;
+        }
+    }
+
+    private static int serviceDataUuidWidth(int type) {
+        switch (type) {
+            case TYPE_SERVICE_DATA_16:
+                return 2;
+            case TYPE_SERVICE_DATA_32:
+                return 4;
+            case TYPE_SERVICE_DATA_128:
+                return 16;
+            default:
+                return 0;
+        }
+    }
+
+    //    returns offset of index-th service uuid, uuid width is resolved by serviceUuidWidthAt
+    private int serviceUuidOffset(int index) {
+        for (int i = 0; i < count; i++) {
+            final int structure = structures[i];
+            final int width = serviceUuidWidth(type(structure));
+            if (width == 0) {
+                continue;
+            }
+            final int uuids = dataLength(structure) / width;
+            if (index < uuids) {
+                return structure + 2 + index * width;
+            }
+            index -= uuids;
+        }
+        throw new IndexOutOfBoundsException("no service uuid at " + index);
+    }
+
+    private int serviceUuidWidthAt(int offset) {
+        int structure = 0;
+        for (int i = 0; i < count && structures[i] < offset; i++) {
+            structure = structures[i];
+        }
+        return serviceUuidWidth(type(structure));
+    }
+
+    private int serviceDataStructure(int index) {
+        for (int i = 0; i < count; i++) {
+            final int structure = structures[i];
+            final int width = serviceDataUuidWidth(type(structure));
+            if (width != 0 && dataLength(structure) >= width && index-- == 0) {
+                return structure;
+            }
+        }
+        throw new IndexOutOfBoundsException("no service data at " + index);
+    }
+
+    //    UUIDs are little-endian in advertisements, short ones are expanded over Bluetooth Base UUID
+    private long uuidMsb(int offset, int width) {
+        switch (width) {
+            case 2:
+                return UuidHelper.BASE_UUID_MSB | ((long) littleEndian(offset, 2) << 32);
+            case 4:
+                return UuidHelper.BASE_UUID_MSB | (littleEndian(offset, 4) << 32);
+            default:
+                return littleEndian(offset + 8, 8);
+        }
+    }
+
+    private long uuidLsb(int offset, int width) {
+        return width == 16 ? littleEndian(offset, 8) : UuidHelper.BASE_UUID_LSB;
+    }
+
+    private long littleEndian(int offset, int bytes) {
+        long value = 0;
+        for (int i = bytes - 1; i >= 0; i--) {
+            value = (value << 8) | (record[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
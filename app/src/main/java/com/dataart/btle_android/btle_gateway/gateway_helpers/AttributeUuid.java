@@ -0,0 +1,56 @@
+package com.dataart.btle_android.btle_gateway.gateway_helpers;
+
+import java.util.UUID;
+
+/**
+ * Service or characteristic UUID as it was written in command. 16-bit "AA01" and 32-bit "0000AA01" aliases are expanded
+ * over Bluetooth Base UUID, but may stand for vendor UUIDs sharing their bits as well (see {@link UuidTable}).
+ * Full 128-bit UUID stands only for itself, even if it's on Bluetooth Base UUID
+ */
+public final class AttributeUuid {
+
+    public final UUID uuid;
+    public final boolean alias;
+
+    private AttributeUuid(UUID uuid, boolean alias) {
+        this.uuid = uuid;
+        this.alias = alias;
+    }
+
+    /**
+     * @return parsed UUID or null if string is neither 16-bit, 32-bit nor 128-bit UUID
+     */
+    public static AttributeUuid parse(String uuid) {
+        final UUID parsed = UuidHelper.parse(uuid);
+        return parsed != null ? new AttributeUuid(parsed, uuid.length() == 4 || uuid.length() == 8) : null;
+    }
+
+    /**
+     * @return UUID which is matched only exactly, for example the discovered one
+     */
+    public static AttributeUuid exact(UUID uuid) {
+        return new AttributeUuid(uuid, false);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AttributeUuid)) {
+            return false;
+        }
+        final AttributeUuid other = (AttributeUuid) o;
+        return alias == other.alias && uuid.equals(other.uuid);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * uuid.hashCode() + (alias ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return alias ? UuidHelper.toAliasString(uuid) : uuid.toString();
+    }
+}
@@ -0,0 +1,101 @@
+package com.dataart.btle_android.btle_gateway.gateway_helpers;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Minimal CBOR (RFC 7049) encoder for gateway envelopes: unsigned integers, byte and text strings,
+ * arrays and maps of known size. Items are appended in order, so map is written as header followed by key-value pairs
+ */
+public class CborWriter {
+
+    private static final int UNSIGNED = 0;
+    private static final int BYTES = 2;
+    private static final int TEXT = 3;
+    private static final int ARRAY = 4;
+    private static final int MAP = 5;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] buffer;
+    private int size = 0;
+
+    public CborWriter(int expectedSize) {
+        buffer = new byte[Math.max(16, expectedSize)];
+    }
+
+    public CborWriter uint(long value) {
+        head(UNSIGNED, value);
+        return this;
+    }
+
+    public CborWriter bytes(byte[] value) {
+        head(BYTES, value.length);
+        append(value);
+        return this;
+    }
+
+    public CborWriter text(String value) {
+        final byte[] utf8 = value.getBytes(UTF_8);
+        head(TEXT, utf8.length);
+        append(utf8);
+        return this;
+    }
+
+    public CborWriter array(int items) {
+        head(ARRAY, items);
+        return this;
+    }
+
+    public CborWriter map(int pairs) {
+        head(MAP, pairs);
+        return this;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    //    Shortest form of initial byte and argument, as canonical CBOR requires
+    private void head(int majorType, long argument) {
+        final int type = majorType << 5;
+        if (argument < 24) {
+            ensure(1);
+            buffer[size++] = (byte) (type | argument);
+        } else if (argument <= 0xFF) {
+            ensure(2);
+            buffer[size++] = (byte) (type | 24);
+            buffer[size++] = (byte) argument;
+        } else if (argument <= 0xFFFF) {
+            ensure(3);
+            buffer[size++] = (byte) (type | 25);
+            putBigEndian(argument, 2);
+        } else if (argument <= 0xFFFFFFFFL) {
+            ensure(5);
+            buffer[size++] = (byte) (type | 26);
+            putBigEndian(argument, 4);
+        } else {
+            ensure(9);
+            buffer[size++] = (byte) (type | 27);
+            putBigEndian(argument, 8);
+        }
+    }
+
+    private void putBigEndian(long value, int length) {
+        for (int i = length - 1; i >= 0; i--) {
+            buffer[size++] = (byte) (value >>> (i * 8));
+        }
+    }
+
+    private void append(byte[] value) {
+        ensure(value.length);
+        System.arraycopy(value, 0, buffer, size, value.length);
+        size += value.length;
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
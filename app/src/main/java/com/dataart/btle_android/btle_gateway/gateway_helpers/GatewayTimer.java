@@ -0,0 +1,137 @@
+package com.dataart.btle_android.btle_gateway.gateway_helpers;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Single timer thread for every timeout, deadline and periodic task of the gateway, so number of threads
+ * doesn't depend on command rate. Tasks run one at a time in order they're due and should be short:
+ * timers only fire deadlines, anything sent to DeviceHive is handed over to {@link GatewayUplink}.
+ * <p>
+ * Cancelled timers are removed from the queue right away - operation which completes in milliseconds
+ * doesn't leave its timeout behind until it would have fired
+ */
+public final class GatewayTimer {
+
+    private static final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+        final Thread thread = new Thread(runnable, "gateway-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    private static final AtomicLong scheduled = new AtomicLong();
+    private static final AtomicLong fired = new AtomicLong();
+
+    private GatewayTimer() {
+    }
+
+    /**
+     * Runs task once after delay. Cancel returned future as soon as the task isn't needed anymore
+     */
+    public static ScheduledFuture<?> schedule(Runnable task, long delay) {
+        scheduled.incrementAndGet();
+        return executor.schedule(() -> run(task), delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs task every period, starting after the first one, until returned future is cancelled
+     */
+    public static ScheduledFuture<?> scheduleAtFixedRate(Runnable task, long period) {
+        scheduled.incrementAndGet();
+        return executor.scheduleAtFixedRate(() -> run(task), period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs task on timer thread as soon as possible, after tasks which are already due
+     */
+    public static void execute(Runnable task) {
+        executor.execute(() -> run(task));
+    }
+
+    /**
+     * @return number of timers waiting to fire, periodic ones included
+     */
+    public static int getPending() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return number of timers scheduled since start
+     */
+    public static long getScheduled() {
+        return scheduled.get();
+    }
+
+    /**
+     * @return number of times timers fired since start, every run of periodic one counts
+     */
+    public static long getFired() {
+        return fired.get();
+    }
+
+    //    Exception in task shouldn't stop periodic one or get lost in its future
+    private static void run(Runnable task) {
+        fired.incrementAndGet();
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            Timber.e(e, "timer task failed");
+        }
+    }
+
+    /**
+     * Timeouts of gateway operations, milliseconds. Defaults may be changed at runtime and apply to operations started afterwards
+     */
+    public enum Timeout {
+        CONNECT("connect", 10 * 1000),
+        SCAN("scan", 10 * 1000),
+        //        waiting for device which isn't discovered yet
+        DEVICE_WAIT("deviceWait", 10 * 1000),
+        READ("read", 10 * 1000),
+        WRITE("write", 10 * 1000),
+        DESCRIPTOR_WRITE("descriptorWrite", 10 * 1000),
+        MTU("mtu", 10 * 1000);
+
+        public static final long MAX = 10 * 60 * 1000;
+
+        private final String name;
+        private volatile long millis;
+
+        Timeout(String name, long millis) {
+            this.name = name;
+            this.millis = millis;
+        }
+
+        /**
+         * @return timeout or null if name is unknown
+         */
+        public static Timeout fromName(final String name) {
+            for (Timeout timeout : values()) {
+                if (timeout.name.equalsIgnoreCase(name)) {
+                    return timeout;
+                }
+            }
+            return null;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long get() {
+            return millis;
+        }
+
+        public void set(long millis) {
+            this.millis = millis;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.dataart.btle_android.btle_gateway.gateway_helpers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import timber.log.Timber;
+
+/**
+ * Single thread for everything sent to DeviceHive - command results and notifications. Sends block on network,
+ * so they never run on {@link GatewayTimer} or Bluetooth callback threads: slow uplink delays only other sends,
+ * not timeouts or GATT operations. Tasks run one at a time in order they're submitted
+ */
+public final class GatewayUplink {
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "gateway-uplink");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private GatewayUplink() {
+    }
+
+    public static void execute(Runnable task) {
+        executor.execute(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Timber.e(e, "uplink task failed");
+            }
+        });
+    }
+}
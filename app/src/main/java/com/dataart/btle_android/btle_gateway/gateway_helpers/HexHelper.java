@@ -36,8 +36,13 @@ public class HexHelper {
     private static final char[] hexCode = "0123456789ABCDEF".toCharArray();
 
     static public String printHexBinary(byte[] data) {
-        StringBuilder r = new StringBuilder(data.length*2);
-        for ( byte b : data) {
+        return printHexBinary(data, 0, data.length);
+    }
+
+    static public String printHexBinary(byte[] data, int offset, int length) {
+        StringBuilder r = new StringBuilder(length*2);
+        for ( int i=offset; i<offset+length; i++) {
+            byte b = data[i];
             r.append(hexCode[(b >> 4) & 0xF]);
             r.append(hexCode[(b & 0xF)]);
         }
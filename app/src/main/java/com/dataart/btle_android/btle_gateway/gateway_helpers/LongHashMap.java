@@ -0,0 +1,194 @@
+package com.dataart.btle_android.btle_gateway.gateway_helpers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Open-addressing hash map with primitive long keys (linear probing, no boxing).
+ * <p>
+ * Writes are serialized on the map itself, reads never lock: a reader always sees either the previous
+ * or the new value of a slot, and a resized table is published as a whole
+ */
+public class LongHashMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final Object REMOVED = new Object();
+
+    private volatile Table table;
+    private volatile int size;
+    private int removed;
+
+    public LongHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LongHashMap(int expectedSize) {
+        table = new Table(capacityFor(expectedSize));
+    }
+
+    public V get(long key) {
+        final Table t = table;
+        final int mask = t.keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+//            value is published after the key, so reading it first makes the key visible
+            final Object value = t.values.get(i);
+            if (value == null) {
+                return null;
+            }
+            if (value != REMOVED && t.keys[i] == key) {
+                //noinspection unchecked
+                return (V) value;
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return previous value or null
+     */
+    public synchronized V put(long key, V value) {
+        return insert(key, value, false);
+    }
+
+    /**
+     * @return existing value, or null if the new value was stored
+     */
+    public synchronized V putIfAbsent(long key, V value) {
+        return insert(key, value, true);
+    }
+
+    public synchronized V remove(long key) {
+        final Table t = table;
+        final int mask = t.keys.length - 1;
+        for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+            final Object value = t.values.get(i);
+            if (value == null) {
+                return null;
+            }
+            if (value != REMOVED && t.keys[i] == key) {
+                t.values.set(i, REMOVED);
+                size--;
+                removed++;
+                //noinspection unchecked
+                return (V) value;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        table = new Table(DEFAULT_CAPACITY);
+        size = 0;
+        removed = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return snapshot of values, taken without locking writers
+     */
+    public List<V> values() {
+        final Table t = table;
+        final List<V> result = new ArrayList<>(size);
+        for (int i = 0; i < t.keys.length; i++) {
+            final Object value = t.values.get(i);
+            if (value != null && value != REMOVED) {
+                //noinspection unchecked
+                result.add((V) value);
+            }
+        }
+        return result;
+    }
+
+    private V insert(long key, V value, boolean onlyIfAbsent) {
+        if (value == null) {
+            throw new IllegalArgumentException("null values are not supported");
+        }
+
+        Table t = table;
+        int mask = t.keys.length - 1;
+        int free;
+        for (free = mix(key) & mask; ; free = (free + 1) & mask) {
+            final Object current = t.values.get(free);
+            if (current == null) {
+                break;
+            }
+            if (current != REMOVED && t.keys[free] == key) {
+                if (!onlyIfAbsent) {
+                    t.values.set(free, value);
+                }
+                //noinspection unchecked
+                return (V) current;
+            }
+        }
+
+//        removed slots are never reused in place: a key, once written, never changes within a table,
+//        so a concurrent reader can't match a stale value against a new key
+        if ((size + removed + 1) * 2 > t.keys.length) {
+//            keep load factor under 0.5 to keep probe sequences short
+            t = rehash(t, capacityFor(size + 1));
+            mask = t.keys.length - 1;
+            free = mix(key) & mask;
+            while (t.values.get(free) != null) {
+                free = (free + 1) & mask;
+            }
+        }
+
+        t.keys[free] = key;
+        t.values.set(free, value);
+        size++;
+        return null;
+    }
+
+    private Table rehash(Table old, int capacity) {
+        final Table t = new Table(capacity);
+        final int mask = capacity - 1;
+        for (int i = 0; i < old.keys.length; i++) {
+            final Object value = old.values.get(i);
+            if (value == null || value == REMOVED) {
+                continue;
+            }
+            int j = mix(old.keys[i]) & mask;
+            while (t.values.get(j) != null) {
+                j = (j + 1) & mask;
+            }
+            t.keys[j] = old.keys[i];
+            t.values.set(j, value);
+        }
+        removed = 0;
+        table = t;
+        return t;
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity < expectedSize * 4) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int mix(long key) {
+        final long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static class Table {
+        final long[] keys;
+        final AtomicReferenceArray<Object> values;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new AtomicReferenceArray<>(capacity);
+        }
+    }
+}
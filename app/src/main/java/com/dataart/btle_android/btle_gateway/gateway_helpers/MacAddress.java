@@ -0,0 +1,57 @@
+package com.dataart.btle_android.btle_gateway.gateway_helpers;
+
+/**
+ * Packs 48-bit MAC addresses into long, so devices and connections can be looked up without
+ * allocating or hashing strings. String form is used only at DeviceHive boundary
+ */
+public class MacAddress {
+
+    public static final long INVALID = -1L;
+
+    private static final char[] hexCode = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * Parses address in "A1:A2:A3:A4:A5:A6" format
+     *
+     * @return packed address or {@link #INVALID} if string is not a MAC address
+     */
+    static public long parse(String address) {
+        if (address == null || address.length() != 17) {
+            return INVALID;
+        }
+
+        long packed = 0;
+        for (int i = 0; i < 17; i += 3) {
+            final int h = hexToBin(address.charAt(i));
+            final int l = hexToBin(address.charAt(i + 1));
+            if (h == -1 || l == -1 || (i < 15 && address.charAt(i + 2) != ':')) {
+                return INVALID;
+            }
+            packed = (packed << 8) | (h << 4) | l;
+        }
+        return packed;
+    }
+
+    /**
+     * @return address in upper case "A1:A2:A3:A4:A5:A6" format, as expected by BluetoothAdapter
+     */
+    static public String toString(long address) {
+        final char[] out = new char[17];
+        for (int i = 0, shift = 40; i < 17; i += 3, shift -= 8) {
+            final int b = (int) (address >> shift) & 0xFF;
+            out[i] = hexCode[b >> 4];
+            out[i + 1] = hexCode[b & 0xF];
+            if (i < 15) {
+                out[i + 2] = ':';
+            }
+        }
+        return new String(out);
+    }
+
+    private static int hexToBin(char ch) {
+        if ('0' <= ch && ch <= '9') return ch - '0';
+        if ('A' <= ch && ch <= 'F') return ch - 'A' + 10;
+        if ('a' <= ch && ch <= 'f') return ch - 'a' + 10;
+        return -1;
+    }
+}
@@ -0,0 +1,29 @@
+package com.dataart.btle_android.btle_gateway.gateway_helpers;
+
+/**
+ * Distance estimation from RSSI with log-distance path loss model
+ */
+public class ProximityHelper {
+
+    //    TX Power Level is output power at antenna, received power at 1 m is about 41 dB less
+    private static final int PATH_LOSS_AT_ONE_METER = 41;
+    //    free space; indoors it's usually 2..4, so estimate is a lower bound there
+    private static final double PATH_LOSS_EXPONENT = 2.0;
+
+    /**
+     * @param rssi    received signal strength, dBm
+     * @param txPower advertised TX Power Level, dBm
+     * @return estimated distance in meters
+     */
+    public static double distance(double rssi, int txPower) {
+        return Math.pow(10, (txPower - PATH_LOSS_AT_ONE_METER - rssi) / (10 * PATH_LOSS_EXPONENT));
+    }
+
+    /**
+     * Rounds value for reporting - more digits than that would be just noise
+     */
+    public static double round(double value, int digits) {
+        final double scale = Math.pow(10, digits);
+        return Math.round(value * scale) / scale;
+    }
+}
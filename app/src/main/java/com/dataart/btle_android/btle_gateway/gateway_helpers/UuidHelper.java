@@ -0,0 +1,90 @@
+package com.dataart.btle_android.btle_gateway.gateway_helpers;
+
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Canonicalizes service and characteristic UUIDs once, at DeviceHive boundary.
+ * Short "AA00" and 32-bit "0000AA00" forms are expanded over Bluetooth Base UUID (XXXXXXXX-0000-1000-8000-00805F9B34FB)
+ */
+public class UuidHelper {
+
+    //    halves of Bluetooth Base UUID, alias goes into upper 32 bits of the most significant half
+    public static final long BASE_UUID_MSB = 0x0000000000001000L;
+    public static final long BASE_UUID_LSB = 0x800000805F9B34FBL;
+
+    /**
+     * @return parsed UUID or null if string is neither 16-bit, 32-bit nor 128-bit UUID
+     */
+    static public UUID parse(String uuid) {
+        if (uuid == null) {
+            return null;
+        }
+        if (uuid.length() == 4 || uuid.length() == 8) {
+            final long alias = parseHex(uuid);
+            return alias != -1 ? fromAlias32((int) alias) : null;
+        }
+        try {
+            return UUID.fromString(uuid);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    static public UUID fromShort(int shortUuid) {
+        return fromAlias32(shortUuid & 0xFFFF);
+    }
+
+    static public UUID fromAlias32(int alias) {
+        return new UUID(BASE_UUID_MSB | ((alias & 0xFFFFFFFFL) << 32), BASE_UUID_LSB);
+    }
+
+    /**
+     * @return true if UUID is 16-bit alias expanded over Bluetooth Base UUID
+     */
+    static public boolean isShort(UUID uuid) {
+        return uuid.getLeastSignificantBits() == BASE_UUID_LSB
+                && (uuid.getMostSignificantBits() & 0xFFFF0000FFFFFFFFL) == BASE_UUID_MSB;
+    }
+
+    /**
+     * @return true if UUID is 16-bit or 32-bit alias expanded over Bluetooth Base UUID
+     */
+    static public boolean isAlias32(UUID uuid) {
+        return uuid.getLeastSignificantBits() == BASE_UUID_LSB
+                && (uuid.getMostSignificantBits() & 0x00000000FFFFFFFFL) == BASE_UUID_MSB;
+    }
+
+    /**
+     * @return bits 0..31 of UUID - "XXXXXXXX" in "XXXXXXXX-0000-1000-8000-00805F9B34FB"
+     */
+    static public int toAlias32(UUID uuid) {
+        return (int) (uuid.getMostSignificantBits() >>> 32);
+    }
+
+    /**
+     * @return alias as it's written in command, "aa01" or "0001aa01". Should be called for aliases only
+     */
+    static public String toAliasString(UUID uuid) {
+        return isShort(uuid) ? String.format(Locale.US, "%04x", toShort(uuid)) : String.format(Locale.US, "%08x", toAlias32(uuid));
+    }
+
+    /**
+     * @return bits 16..31 of UUID - "XXXX" in "0000XXXX-0000-1000-8000-00805F9B34FB" or "F000XXXX-0451-4000-B000-000000000000"
+     */
+    static public int toShort(UUID uuid) {
+        return (int) (uuid.getMostSignificantBits() >>> 32) & 0xFFFF;
+    }
+
+    private static long parseHex(String s) {
+        long value = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final int digit = Character.digit(s.charAt(i), 16);
+            if (digit == -1) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,183 @@
+package com.dataart.btle_android.btle_gateway.gateway_helpers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Immutable set of discovered UUIDs, kept as primitive (msb, lsb) pairs, with O(1) resolution of 16-bit and 32-bit aliases.
+ * <p>
+ * 16-bit alias "XXXX" matches every UUID with XXXX in bits 16..31, so it works for vendor bases too,
+ * e.g. "AA01" matches F000AA01-0451-4000-B000-000000000000. 32-bit alias "XXXXXXXX" matches every UUID starting with it.
+ * UUID equal to the alias expanded over Bluetooth Base UUID always wins; otherwise alias matching
+ * several different UUIDs is ambiguous and isn't resolved at all, instead of picking one of them silently.
+ * Only aliases written in short form are matched this way, full 128-bit UUID is matched exactly.
+ * <p>
+ * Built once per service discovery and never changed, so lookups don't lock
+ */
+public class UuidTable {
+
+    public static final UuidTable EMPTY = new UuidTable(new ArrayList<>());
+
+    private static final int NONE = -1;
+    private static final int AMBIGUOUS = -2;
+
+    private final UUID[] uuids;
+    private final long[] msbs;
+    private final long[] lsbs;
+    private final IntIndex aliases16;
+    private final IntIndex aliases32;
+
+    public UuidTable(Collection<UUID> discovered) {
+        final List<UUID> unique = new ArrayList<>(discovered.size());
+        for (UUID uuid : discovered) {
+            if (!unique.contains(uuid)) {
+                unique.add(uuid);
+            }
+        }
+        final int n = unique.size();
+        uuids = unique.toArray(new UUID[n]);
+        msbs = new long[n];
+        lsbs = new long[n];
+        aliases16 = new IntIndex(n);
+        aliases32 = new IntIndex(n);
+        for (int i = 0; i < n; i++) {
+            msbs[i] = uuids[i].getMostSignificantBits();
+            lsbs[i] = uuids[i].getLeastSignificantBits();
+            aliases16.add(UuidHelper.toShort(uuids[i]), i);
+            aliases32.add(UuidHelper.toAlias32(uuids[i]), i);
+        }
+    }
+
+    /**
+     * @return discovered UUID given alias stands for, UUID itself if it's not an alias, or null if alias is unknown or ambiguous
+     */
+    public UUID resolve(AttributeUuid uuid) {
+        if (uuid == null) {
+            return null;
+        }
+        final int index = indexOf(uuid.uuid, uuid.alias);
+        if (index >= 0) {
+            return uuids[index];
+        }
+        return index == NONE && !uuid.alias ? uuid.uuid : null;
+    }
+
+    /**
+     * @return true if UUID is an alias matching several discovered UUIDs
+     */
+    public boolean isAmbiguous(AttributeUuid uuid) {
+        return uuid != null && uuid.alias && isAmbiguous(uuid.uuid);
+    }
+
+    /**
+     * @return aliases which can't be resolved because they match several discovered UUIDs, as they'd be written in command
+     */
+    public List<String> getAmbiguousAliases() {
+        final List<String> result = new ArrayList<>();
+        for (int key : aliases16.ambiguousKeys()) {
+            addIfAmbiguous(result, UuidHelper.fromShort(key));
+        }
+        for (int key : aliases32.ambiguousKeys()) {
+            addIfAmbiguous(result, UuidHelper.fromAlias32(key));
+        }
+        return result;
+    }
+
+    private void addIfAmbiguous(List<String> result, UUID alias) {
+        if (isAmbiguous(alias)) {
+            result.add(UuidHelper.toAliasString(alias));
+        }
+    }
+
+    public int size() {
+        return uuids.length;
+    }
+
+    private boolean isAmbiguous(UUID alias) {
+        return UuidHelper.isAlias32(alias) && indexOf(alias, true) == AMBIGUOUS;
+    }
+
+    private int indexOf(UUID uuid, boolean matchAlias) {
+        final long msb = uuid.getMostSignificantBits();
+        final long lsb = uuid.getLeastSignificantBits();
+        if (!matchAlias || !UuidHelper.isAlias32(uuid)) {
+            return exact(msb, lsb);
+        }
+
+        final int alias = (int) (msb >>> 32);
+        final int index = UuidHelper.isShort(uuid) ? aliases16.get(alias) : aliases32.get(alias);
+        if (index >= 0) {
+            return index;
+        }
+//        expanded alias itself may be discovered along with vendor UUIDs sharing its bits
+        final int exact = index == AMBIGUOUS ? exact(msb, lsb) : NONE;
+        return exact >= 0 ? exact : index;
+    }
+
+    private int exact(long msb, long lsb) {
+//        32-bit prefix narrows the search to one UUID unless prefixes collide
+        final int index = aliases32.get((int) (msb >>> 32));
+        if (index >= 0) {
+            return msbs[index] == msb && lsbs[index] == lsb ? index : NONE;
+        }
+        if (index == NONE) {
+            return NONE;
+        }
+        for (int i = 0; i < uuids.length; i++) {
+            if (msbs[i] == msb && lsbs[i] == lsb) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    //    Open-addressing map from alias to index of the only UUID with it, or AMBIGUOUS
+    private static class IntIndex {
+        private final int[] keys;
+        private final int[] values;
+
+        private IntIndex(int expectedSize) {
+            int capacity = 4;
+            while (capacity < expectedSize * 2) {
+                capacity <<= 1;
+            }
+            keys = new int[capacity];
+            values = new int[capacity];
+            for (int i = 0; i < capacity; i++) {
+                values[i] = NONE;
+            }
+        }
+
+        private void add(int key, int index) {
+            final int slot = slot(key);
+            keys[slot] = key;
+            values[slot] = values[slot] == NONE ? index : AMBIGUOUS;
+        }
+
+        private int get(int key) {
+            return values[slot(key)];
+        }
+
+        //        slot holding key or empty slot where it would go
+        private int slot(int key) {
+            final int mask = keys.length - 1;
+            int i = (key * 0x9E3779B9) >>> 16 & mask;
+            while (values[i] != NONE && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            return i;
+        }
+
+        private List<Integer> ambiguousKeys() {
+            final List<Integer> result = new ArrayList<>();
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] == AMBIGUOUS) {
+                    result.add(keys[i]);
+                }
+            }
+            return result;
+        }
+    }
+}
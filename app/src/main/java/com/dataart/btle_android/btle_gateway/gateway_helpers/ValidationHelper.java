@@ -3,6 +3,21 @@ package com.dataart.btle_android.btle_gateway.gateway_helpers;
 import android.content.Context;
 
 import com.dataart.btle_android.R;
+import com.dataart.btle_android.btle_gateway.BTLEGateway;
+import com.dataart.btle_android.btle_gateway.gatt_callbacks.ConnectionPriority;
+import com.dataart.btle_android.btle_gateway.gatt_callbacks.ConnectionProfile;
+import com.dataart.btle_android.btle_gateway.gatt_callbacks.DeliveryPolicy;
+import com.dataart.btle_android.btle_gateway.gatt_callbacks.InteractiveGattCallback;
+import com.dataart.btle_android.helpers.ble.base.Phy;
+import com.dataart.btle_android.helpers.ble.base.ScanParameters;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Created by Constantine Mars on 6/14/16.
@@ -13,7 +28,26 @@ import com.dataart.btle_android.R;
 public class ValidationHelper {
     private static final String VALUE_REGEX = "([a-fA-F0-9]{2}){1,}";
     private static final String ADDRESS_REGEX = "(([a-fA-F0-9]{2}:){5})([a-fA-F0-9]{2})";
-    private static final String SERVICE_CHARACTERISTIC_UUID_REGEX = "([a-fA-F0-9]{8}-[a-fA-F0-9]{4}-[a-fA-F0-9]{4}-[a-fA-F0-9]{4}-[a-fA-F0-9]{12})|([a-fA-F0-9]{4})";
+    private static final String SERVICE_CHARACTERISTIC_UUID_REGEX = "([a-fA-F0-9]{8}-[a-fA-F0-9]{4}-[a-fA-F0-9]{4}-[a-fA-F0-9]{4}-[a-fA-F0-9]{12})|([a-fA-F0-9]{8})|([a-fA-F0-9]{4})";
+    private static final String MANUFACTURER_ID_REGEX = "\\d{1,5}";
+    private static final int MAX_MANUFACTURER_ID = 0xFFFF;
+    private static final String REPORT_DELAY_REGEX = "\\d{1,7}";
+    private static final String STREAM_INTERVAL_REGEX = "[1-9]\\d{2,6}";
+    private static final String MTU_REGEX = "\\d{2,3}";
+    private static final String IDLE_TIMEOUT_REGEX = "\\d{1,7}";
+    private static final int MAX_BATCH_OPERATIONS = 64;
+    private static final int MAX_READ_MULTIPLE = 32;
+    private static final String MAX_AGE_REGEX = "\\d{1,8}";
+    private static final String HANDLE_REGEX = "[1-9]\\d{0,4}";
+    private static final String SUBSCRIPTION_REGEX = "[1-9]\\d{0,8}";
+    //    up to 1000 values, 64 KB and one minute per window
+    private static final String WINDOW_ITEMS_REGEX = "[1-9]\\d{0,2}|1000";
+    private static final String WINDOW_BYTES_REGEX = "[1-9]\\d{0,3}|[1-5]\\d{4}|6[0-4]\\d{3}|65[0-4]\\d{2}|655[0-2]\\d|6553[0-6]";
+    private static final String WINDOW_DELAY_REGEX = "[1-9]\\d{0,3}|[1-5]\\d{4}|60000";
+    private static final String RATE_REGEX = "\\d{1,4}(\\.\\d{1,3})?";
+    private static final String OFFSET_REGEX = "\\d{1,3}";
+    private static final String DELTA_REGEX = "\\d{1,9}(\\.\\d{1,6})?";
+    private static final String TIMEOUT_REGEX = "[1-9]\\d{0,6}";
     private final Context context;
 
     public ValidationHelper(Context context) {
@@ -44,6 +78,94 @@ public class ValidationHelper {
         return null;
     }
 
+    public String validateHandle(final String command, final String handle) {
+        return validate(command, R.string.cmd_invalid_handle, handle, HANDLE_REGEX);
+    }
+
+    /**
+     * Window is optional, each of its limits too
+     */
+    public String validateWindow(final String command, final JsonObject params) {
+        final JsonElement window = params != null ? params.get(BTLEGateway.WINDOW) : null;
+        if (window == null) {
+            return null;
+        }
+        if (!window.isJsonObject()) {
+            return context.getString(R.string.cmd_invalid_window, command);
+        }
+        final JsonObject limits = window.getAsJsonObject();
+        if (!matchesIfSet(limits.get(BTLEGateway.MAX_ITEMS), WINDOW_ITEMS_REGEX)
+                || !matchesIfSet(limits.get(BTLEGateway.MAX_BYTES), WINDOW_BYTES_REGEX)
+                || !matchesIfSet(limits.get(BTLEGateway.MAX_DELAY), WINDOW_DELAY_REGEX)) {
+            return context.getString(R.string.cmd_invalid_window, command);
+        }
+        return null;
+    }
+
+    /**
+     * Policy is either mode name or object with mode and its parameters: interval for conflate,
+     * rate per second for rate, number format, offset and delta for onChange
+     */
+    public String validatePolicy(final String command, final JsonObject params) {
+        final JsonElement element = params != null ? params.get(BTLEGateway.POLICY) : null;
+        if (element == null) {
+            return null;
+        }
+        final JsonObject policy = element.isJsonObject() ? element.getAsJsonObject() : new JsonObject();
+        final String mode = element.isJsonObject() ? primitive(policy.get(BTLEGateway.MODE)) : primitive(element);
+        if (mode == null) {
+            return context.getString(R.string.cmd_invalid_policy, command);
+        }
+        final boolean valid;
+        switch (mode) {
+            case DeliveryPolicy.ALL_NAME:
+                valid = true;
+                break;
+            case DeliveryPolicy.CONFLATE_NAME:
+                valid = matchesIfSet(policy.get(BTLEGateway.INTERVAL), WINDOW_DELAY_REGEX);
+                break;
+            case DeliveryPolicy.RATE_NAME:
+                valid = policy.has(BTLEGateway.RATE) && matchesIfSet(policy.get(BTLEGateway.RATE), RATE_REGEX)
+                        && Double.parseDouble(primitive(policy.get(BTLEGateway.RATE))) > 0;
+                break;
+            case DeliveryPolicy.ON_CHANGE_NAME:
+                valid = DeliveryPolicy.Format.fromName(primitive(policy.get(BTLEGateway.FORMAT))) != null
+                        && matchesIfSet(policy.get(BTLEGateway.OFFSET), OFFSET_REGEX)
+                        && matchesIfSet(policy.get(BTLEGateway.DELTA), DELTA_REGEX);
+                break;
+            default:
+                valid = false;
+        }
+        return valid ? null : context.getString(R.string.cmd_invalid_policy, command);
+    }
+
+    private static boolean matchesIfSet(JsonElement element, String regex) {
+        if (element == null) {
+            return true;
+        }
+        final String value = primitive(element);
+        return value != null && value.matches(regex);
+    }
+
+    public String validateEncoding(final String command, final String encoding) {
+        return !WireEncoding.DEFAULT_NAME.equalsIgnoreCase(encoding) && WireEncoding.fromName(encoding) == null
+                ? context.getString(R.string.cmd_invalid_encoding, command) : null;
+    }
+
+    public String validateSubscription(final String command, final String subscription) {
+        if (subscription == null) {
+            return null;
+        }
+        return validate(command, R.string.cmd_invalid_subscription, subscription, SUBSCRIPTION_REGEX);
+    }
+
+    public String validateMaxAge(final String command, final String maxAge) {
+        if (maxAge == null) {
+            return null;
+        }
+        return validate(command, R.string.cmd_invalid_max_age, maxAge, MAX_AGE_REGEX);
+    }
+
     public String validateCharacteristics(final String command, final String address, final String serviceUUID) {
         String v;
         if ((v = validateAddress(command, address)) != null)
@@ -53,12 +175,14 @@ public class ValidationHelper {
         return null;
     }
 
-    public String validateNotifications(final String command, final String address, final String serviceUUID) {
+    public String validateNotifications(final String command, final String address, final String serviceUUID, final String characteristicUUID) {
         String v;
         if ((v = validateAddress(command, address)) != null)
             return v;
         else if ((v = validateServiceUUID(command, serviceUUID)) != null)
             return v;
+        else if ((v = validateCharacteristicUUID(command, characteristicUUID)) != null)
+            return v;
         return null;
     }
 
@@ -74,6 +198,218 @@ public class ValidationHelper {
     }
 
 
+    /**
+     * Scan parameters are all optional: scanMode, reportDelay, stream with streamInterval, serviceUUID, namePrefix, devices,
+     * manufacturerId with manufacturerData and manufacturerDataMask
+     */
+    public String validateScan(final String command, final JsonObject params) {
+        if (params == null) {
+            return null;
+        }
+
+        final JsonElement scanMode = params.get(BTLEGateway.SCAN_MODE);
+        if (scanMode != null && (!scanMode.isJsonPrimitive() || ScanParameters.ScanMode.fromName(scanMode.getAsString()) == null)) {
+            return context.getString(R.string.cmd_invalid_scan_mode, command);
+        }
+
+        final JsonElement reportDelay = params.get(BTLEGateway.REPORT_DELAY);
+        if (reportDelay != null && validate(command, R.string.cmd_invalid_report_delay, primitive(reportDelay), REPORT_DELAY_REGEX) != null) {
+            return context.getString(R.string.cmd_invalid_report_delay, command);
+        }
+
+        final JsonElement streamInterval = params.get(BTLEGateway.STREAM_INTERVAL);
+        if (streamInterval != null && validate(command, R.string.cmd_invalid_stream_interval, primitive(streamInterval), STREAM_INTERVAL_REGEX) != null) {
+            return context.getString(R.string.cmd_invalid_stream_interval, command);
+        }
+
+        String v;
+        final JsonElement serviceUUID = params.get(BTLEGateway.SERVICE_UUID);
+        if (serviceUUID != null && (v = validateServiceUUID(command, primitive(serviceUUID))) != null) {
+            return v;
+        }
+
+        final JsonElement devices = params.get(BTLEGateway.DEVICES);
+        if (devices != null) {
+            if (!devices.isJsonArray()) {
+                return context.getString(R.string.cmd_requires_devices, command);
+            }
+            for (JsonElement device : devices.getAsJsonArray()) {
+                if (validate(command, R.string.cmd_requires_devices, primitive(device), ADDRESS_REGEX) != null) {
+                    return context.getString(R.string.cmd_requires_devices, command);
+                }
+            }
+        }
+
+        final JsonElement manufacturerId = params.get(BTLEGateway.MANUFACTURER_ID);
+        final JsonElement manufacturerData = params.get(BTLEGateway.MANUFACTURER_DATA);
+        final JsonElement manufacturerDataMask = params.get(BTLEGateway.MANUFACTURER_DATA_MASK);
+        if (manufacturerId != null || manufacturerData != null || manufacturerDataMask != null) {
+            final String id = primitive(manufacturerId);
+            if (validate(command, R.string.cmd_requires_manufacturer_id, id, MANUFACTURER_ID_REGEX) != null
+                    || Integer.parseInt(id) > MAX_MANUFACTURER_ID) {
+                return context.getString(R.string.cmd_requires_manufacturer_id, command);
+            }
+            if (manufacturerData != null && (v = validateValue(command, primitive(manufacturerData))) != null) {
+                return v;
+            }
+            if (manufacturerDataMask != null && (v = validateValue(command, primitive(manufacturerDataMask))) != null) {
+                return v;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Connection parameters are all optional: mtu, priority and idleTimeout
+     */
+    public String validateConnection(final String command, final JsonObject params) {
+        if (params == null) {
+            return null;
+        }
+
+        final JsonElement mtu = params.get(BTLEGateway.MTU);
+        if (mtu != null) {
+            final String value = primitive(mtu);
+            if (validate(command, R.string.cmd_invalid_mtu, value, MTU_REGEX) != null
+                    || Integer.parseInt(value) < InteractiveGattCallback.DEFAULT_MTU || Integer.parseInt(value) > ConnectionProfile.MAX_MTU) {
+                return context.getString(R.string.cmd_invalid_mtu, command);
+            }
+        }
+
+        final JsonElement priority = params.get(BTLEGateway.PRIORITY);
+        if (priority != null && ConnectionPriority.fromName(primitive(priority)) == null) {
+            return context.getString(R.string.cmd_invalid_priority, command);
+        }
+
+        final JsonElement idleTimeout = params.get(BTLEGateway.IDLE_TIMEOUT);
+        if (idleTimeout != null && validate(command, R.string.cmd_invalid_idle_timeout, primitive(idleTimeout), IDLE_TIMEOUT_REGEX) != null) {
+            return context.getString(R.string.cmd_invalid_idle_timeout, command);
+        }
+
+//        PHY the adapter doesn't support is accepted and ignored: connection falls back to 1M
+        final JsonElement phy = params.get(BTLEGateway.PHY);
+        if (phy != null && Phy.fromName(primitive(phy)) == null) {
+            return context.getString(R.string.cmd_invalid_phy, command);
+        }
+        return null;
+    }
+
+    /**
+     * Each item needs characteristic UUID and service UUID, which may be set once for all of them
+     */
+    public String validateReadMultiple(final String command, final JsonObject params) {
+        String v;
+        if ((v = validateAddress(command, primitive(params != null ? params.get(BTLEGateway.DEVICE) : null))) != null) {
+            return v;
+        }
+
+        final JsonElement characteristics = params.get(BTLEGateway.CHARACTERISTICS);
+        if (characteristics == null || !characteristics.isJsonArray() || characteristics.getAsJsonArray().size() == 0
+                || characteristics.getAsJsonArray().size() > MAX_READ_MULTIPLE) {
+            return context.getString(R.string.cmd_requires_characteristics, command, MAX_READ_MULTIPLE);
+        }
+
+        final String serviceUUID = primitive(params.get(BTLEGateway.SERVICE_UUID));
+        final Set<String> keys = new HashSet<>();
+        for (JsonElement item : characteristics.getAsJsonArray()) {
+            if (!item.isJsonObject()) {
+                return context.getString(R.string.cmd_requires_characteristics, command, MAX_READ_MULTIPLE);
+            }
+            final JsonObject characteristic = item.getAsJsonObject();
+            final String characteristicUUID = primitive(characteristic.get(BTLEGateway.CHARACTERISTIC_UUID));
+            if ((v = validateServiceUUID(command, characteristic.has(BTLEGateway.SERVICE_UUID)
+                    ? primitive(characteristic.get(BTLEGateway.SERVICE_UUID)) : serviceUUID)) != null
+                    || (v = validateCharacteristicUUID(command, characteristicUUID)) != null) {
+                return v;
+            }
+//            results are keyed by characteristic UUID
+            if (!keys.add(characteristicUUID)) {
+                return context.getString(R.string.cmd_duplicate_characteristic, command, characteristicUUID);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Timeouts are optional, each one should be known operation type with positive value not above {@link GatewayTimer.Timeout#MAX}
+     */
+    public String validateTimers(final String command, final JsonObject params) {
+        final JsonElement timeouts = params != null ? params.get(BTLEGateway.TIMEOUTS) : null;
+        if (timeouts == null) {
+            return null;
+        }
+        if (!timeouts.isJsonObject()) {
+            return context.getString(R.string.cmd_invalid_timeout, command, GatewayTimer.Timeout.MAX);
+        }
+        for (Map.Entry<String, JsonElement> entry : timeouts.getAsJsonObject().entrySet()) {
+            final String value = primitive(entry.getValue());
+            if (GatewayTimer.Timeout.fromName(entry.getKey()) == null || value == null || !value.matches(TIMEOUT_REGEX)
+                    || Long.parseLong(value) > GatewayTimer.Timeout.MAX) {
+                return context.getString(R.string.cmd_invalid_timeout, command, GatewayTimer.Timeout.MAX);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Every operation of batch is validated as standalone command, with batch device used where operation has none
+     */
+    public String validateBatch(final String command, final JsonObject params) {
+        final JsonElement operations = params != null ? params.get(BTLEGateway.OPERATIONS) : null;
+        if (operations == null || !operations.isJsonArray() || operations.getAsJsonArray().size() == 0
+                || operations.getAsJsonArray().size() > MAX_BATCH_OPERATIONS) {
+            return context.getString(R.string.cmd_requires_operations, command, MAX_BATCH_OPERATIONS);
+        }
+
+        String v;
+        if ((v = validateOnError(command, primitive(params.get(BTLEGateway.ON_ERROR)))) != null) {
+            return v;
+        }
+
+        final String batchDevice = primitive(params.get(BTLEGateway.DEVICE));
+        final JsonArray array = operations.getAsJsonArray();
+        for (int i = 0; i < array.size(); i++) {
+            final String name = String.format(Locale.US, "%s[%d]", command, i);
+            if (!array.get(i).isJsonObject()) {
+                return context.getString(R.string.cmd_requires_operations, command, MAX_BATCH_OPERATIONS);
+            }
+            final JsonObject operation = array.get(i).getAsJsonObject();
+            final String device = operation.has(BTLEGateway.DEVICE) ? primitive(operation.get(BTLEGateway.DEVICE)) : batchDevice;
+            final String serviceUUID = primitive(operation.get(BTLEGateway.SERVICE_UUID));
+            final String characteristicUUID = primitive(operation.get(BTLEGateway.CHARACTERISTIC_UUID));
+            switch (BTLEGateway.LeCommand.fromName(primitive(operation.get(BTLEGateway.COMMAND)))) {
+                case GATT_READ:
+                    v = validateRead(name, device, serviceUUID, characteristicUUID);
+                    break;
+                case GATT_WRITE:
+                case GATT_WRITE_STREAM:
+                    v = validateWrite(name, device, serviceUUID, characteristicUUID, primitive(operation.get(BTLEGateway.VALUE)));
+                    break;
+                case GATT_NOTIFICATION:
+                case GATT_NOTIFICATION_STOP:
+                    v = validateNotifications(name, device, serviceUUID, characteristicUUID);
+                    break;
+                default:
+                    v = context.getString(R.string.cmd_invalid_batch_command, name);
+            }
+            if (v != null || (v = validateOnError(name, primitive(operation.get(BTLEGateway.ON_ERROR)))) != null) {
+                return v;
+            }
+        }
+        return null;
+    }
+
+    private String validateOnError(final String command, final String onError) {
+        if (onError != null && !BTLEGateway.ON_ERROR_STOP.equals(onError) && !BTLEGateway.ON_ERROR_CONTINUE.equals(onError)) {
+            return context.getString(R.string.cmd_invalid_on_error, command);
+        }
+        return null;
+    }
+
+    private static String primitive(JsonElement element) {
+        return element != null && element.isJsonPrimitive() ? element.getAsString() : null;
+    }
+
     public String validateWrite(String command, String address, String serviceUUID, String characteristicUUID, String value) {
         String v;
         if ((v = validateAddress(command, address)) != null)
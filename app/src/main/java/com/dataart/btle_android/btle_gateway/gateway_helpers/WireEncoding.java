@@ -0,0 +1,97 @@
+package com.dataart.btle_android.btle_gateway.gateway_helpers;
+
+import android.util.Base64;
+
+/**
+ * How binary values leave the gateway. Hex is the compatible default; base64 takes 4 characters per 3 bytes
+ * instead of 2 per byte; CBOR packs samples with their timestamps into single binary envelope, which travels as base64 text:
+ * map of "t" - array of timestamps in milliseconds since epoch, "v" - array of byte strings, and for batches
+ * "d" - device address and "c" - characteristic UUID
+ */
+public enum WireEncoding {
+    HEX("hex"),
+    BASE64("base64"),
+    CBOR("cbor");
+
+    //    not an encoding but a choice of none: every command keeps its original format
+    public static final String DEFAULT_NAME = "default";
+
+    private static volatile WireEncoding preferred;
+
+    private final String name;
+
+    WireEncoding(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return encoding or null if name is unknown or {@link #DEFAULT_NAME}
+     */
+    public static WireEncoding fromName(final String name) {
+        for (WireEncoding encoding : values()) {
+            if (encoding.name.equalsIgnoreCase(name)) {
+                return encoding;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return encoding chosen for all commands which don't set their own, or null if none was chosen
+     * and commands keep their original formats
+     */
+    public static WireEncoding getPreferred() {
+        return preferred;
+    }
+
+    public static void setPreferred(WireEncoding encoding) {
+        preferred = encoding;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param timestamp when value was received, milliseconds since epoch. Only CBOR envelope carries it
+     */
+    public String encode(byte[] value, long timestamp) {
+        switch (this) {
+            case BASE64:
+                return Base64.encodeToString(value, Base64.NO_WRAP);
+            case CBOR:
+                return Base64.encodeToString(new CborWriter(value.length + 16)
+                        .map(2)
+                        .text("t").array(1).uint(timestamp)
+                        .text("v").array(1).bytes(value)
+                        .toByteArray(), Base64.NO_WRAP);
+            default:
+                return HexHelper.printHexBinary(value);
+        }
+    }
+
+    /**
+     * Encodes samples of one characteristic as single CBOR envelope
+     *
+     * @param count number of samples taken from the beginning of arrays
+     */
+    public static String encodeBatch(String device, String characteristicUUID, long[] timestamps, byte[][] values, int count) {
+        int size = 64;
+        for (int i = 0; i < count; i++) {
+            size += values[i].length + 12;
+        }
+        final CborWriter writer = new CborWriter(size)
+                .map(4)
+                .text("d").text(device)
+                .text("c").text(characteristicUUID)
+                .text("t").array(count);
+        for (int i = 0; i < count; i++) {
+            writer.uint(timestamps[i]);
+        }
+        writer.text("v").array(count);
+        for (int i = 0; i < count; i++) {
+            writer.bytes(values[i]);
+        }
+        return Base64.encodeToString(writer.toByteArray(), Base64.NO_WRAP);
+    }
+}
@@ -0,0 +1,95 @@
+package com.dataart.btle_android.btle_gateway.gatt_callbacks;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Characteristics and their notification descriptors of single connection, resolved once after discovery,
+ * so operations don't walk services and characteristics on every request. Replaced as a whole by the next discovery.
+ * <p>
+ * Handle is 1-based position of characteristic in discovery order - the same as gatt/characteristics lists it,
+ * and stable as long as device doesn't change its services
+ */
+class AttributeTable {
+
+    static final UUID CCC_UUID = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+
+    static final AttributeTable EMPTY = new AttributeTable();
+
+    private final Entry[] byHandle;
+    //    by characteristic uuid, entries of the same uuid in different services are chained
+    private final Map<UUID, Entry> byUuid = new HashMap<>();
+
+    private AttributeTable() {
+        byHandle = new Entry[0];
+    }
+
+    AttributeTable(List<BluetoothGattService> services) {
+        int count = 0;
+        for (BluetoothGattService service : services) {
+            count += service.getCharacteristics().size();
+        }
+        byHandle = new Entry[count];
+        int handle = 0;
+        for (BluetoothGattService service : services) {
+            for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                final Entry entry = new Entry(handle + 1, service.getUuid(), characteristic, characteristic.getDescriptor(CCC_UUID));
+                byHandle[handle++] = entry;
+                final Entry first = byUuid.get(characteristic.getUuid());
+                if (first == null) {
+                    byUuid.put(characteristic.getUuid(), entry);
+                } else {
+                    Entry last = first;
+                    while (last.next != null) {
+                        last = last.next;
+                    }
+                    last.next = entry;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param serviceUuid        full service uuid
+     * @param characteristicUuid full characteristic uuid
+     * @return the first characteristic with these uuids or null
+     */
+    Entry get(UUID serviceUuid, UUID characteristicUuid) {
+        for (Entry entry = byUuid.get(characteristicUuid); entry != null; entry = entry.next) {
+            if (entry.serviceUuid.equals(serviceUuid)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    Entry get(int handle) {
+        return handle > 0 && handle <= byHandle.length ? byHandle[handle - 1] : null;
+    }
+
+    int size() {
+        return byHandle.length;
+    }
+
+    static class Entry {
+        final int handle;
+        final UUID serviceUuid;
+        final BluetoothGattCharacteristic characteristic;
+        //    null if characteristic can't notify
+        final BluetoothGattDescriptor ccc;
+        private Entry next;
+
+        private Entry(int handle, UUID serviceUuid, BluetoothGattCharacteristic characteristic, BluetoothGattDescriptor ccc) {
+            this.handle = handle;
+            this.serviceUuid = serviceUuid;
+            this.characteristic = characteristic;
+            this.ccc = ccc;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.dataart.btle_android.btle_gateway.gatt_callbacks;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.os.SystemClock;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Last known values of characteristics of single connection, filled by reads and notifications and dropped by writes.
+ * Keyed by characteristic instance, which identifies attribute exactly even if uuid repeats across services;
+ * instances are recreated by service discovery, so the cache is cleared then
+ */
+class CharacteristicValueCache {
+
+    private final Map<BluetoothGattCharacteristic, Entry> entries = new HashMap<>();
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @return copy of value received not more than maxAge milliseconds ago, or null
+     */
+    synchronized byte[] get(BluetoothGattCharacteristic characteristic, long maxAge) {
+        final Entry entry = entries.get(characteristic);
+        if (entry != null && SystemClock.elapsedRealtime() - entry.timestamp <= maxAge) {
+            hits++;
+            return entry.value.clone();
+        }
+        misses++;
+        return null;
+    }
+
+    //    Lookup which couldn't even resolve characteristic, e.g. before services are discovered
+    synchronized void miss() {
+        misses++;
+    }
+
+    //    Platform reuses characteristic's buffer, so value is always copied
+    synchronized void put(BluetoothGattCharacteristic characteristic, byte[] value) {
+        if (value == null) {
+            return;
+        }
+        final Entry entry = entries.get(characteristic);
+        if (entry != null && entry.value.length == value.length) {
+//            notifications of fixed size update entry in place
+            System.arraycopy(value, 0, entry.value, 0, value.length);
+            entry.timestamp = SystemClock.elapsedRealtime();
+        } else {
+            entries.put(characteristic, new Entry(value.clone(), SystemClock.elapsedRealtime()));
+        }
+    }
+
+    synchronized void invalidate(BluetoothGattCharacteristic characteristic) {
+        entries.remove(characteristic);
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    private static class Entry {
+        private final byte[] value;
+        private long timestamp;
+
+        private Entry(byte[] value, long timestamp) {
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -2,18 +2,20 @@ package com.dataart.btle_android.btle_gateway.gatt_callbacks;
 
 import android.content.Context;
 
+import com.dataart.btle_android.btle_gateway.gateway_helpers.AttributeUuid;
+
 /**
  * Created by Constantine Mars on 4/8/15.
  *
  * Formatter for json command results
  */
 public class CmdResult {
-    protected String serviceUUID;
-    protected String characteristicUUID;
-    protected final String device;
+    protected AttributeUuid serviceUUID;
+    protected AttributeUuid characteristicUUID;
+    protected final long device;
     protected final Context context;
 
-    public CmdResult(String serviceUUID, String characteristicUUID, String device, Context context) {
+    public CmdResult(AttributeUuid serviceUUID, AttributeUuid characteristicUUID, long device, Context context) {
         this.serviceUUID = serviceUUID;
         this.characteristicUUID = characteristicUUID;
         this.device = device;
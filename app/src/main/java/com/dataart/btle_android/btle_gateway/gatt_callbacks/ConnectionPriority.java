@@ -0,0 +1,38 @@
+package com.dataart.btle_android.btle_gateway.gatt_callbacks;
+
+/**
+ * Connection interval preference, values are the same as android.bluetooth.BluetoothGatt.CONNECTION_PRIORITY_*
+ */
+public enum ConnectionPriority {
+    BALANCED("balanced", 0),
+    HIGH("high", 1),
+    LOW_POWER("lowPower", 2);
+
+    private final String name;
+    private final int value;
+
+    ConnectionPriority(String name, int value) {
+        this.name = name;
+        this.value = value;
+    }
+
+    /**
+     * @return priority or null if name is unknown
+     */
+    public static ConnectionPriority fromName(final String name) {
+        for (ConnectionPriority priority : values()) {
+            if (priority.name.equalsIgnoreCase(name)) {
+                return priority;
+            }
+        }
+        return null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getValue() {
+        return value;
+    }
+}
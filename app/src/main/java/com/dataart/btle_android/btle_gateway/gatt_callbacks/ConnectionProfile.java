@@ -0,0 +1,54 @@
+package com.dataart.btle_android.btle_gateway.gatt_callbacks;
+
+import com.dataart.btle_android.helpers.ble.base.Phy;
+
+/**
+ * Link parameters requested for device right after connection: MTU, connection priority and PHY.
+ * Priority other than balanced drops back to balanced after connection is idle for idleTimeout
+ * and is restored with the next operation
+ */
+public class ConnectionProfile {
+
+    //    largest ATT_MTU Android supports
+    public static final int MAX_MTU = 517;
+    public static final long DEFAULT_IDLE_TIMEOUT = 5000;
+
+    public static final ConnectionProfile DEFAULT = new ConnectionProfile(MAX_MTU, ConnectionPriority.BALANCED, DEFAULT_IDLE_TIMEOUT, null);
+
+    private final int mtu;
+    private final ConnectionPriority priority;
+    private final long idleTimeout;
+    private final Phy phy;
+
+    /**
+     * @param mtu         ATT_MTU to negotiate, {@link InteractiveGattCallback#DEFAULT_MTU} to keep default
+     * @param idleTimeout milliseconds without operations before priority drops to balanced, 0 to keep priority
+     * @param phy         preferred PHY, null to leave it to the platform
+     */
+    public ConnectionProfile(int mtu, ConnectionPriority priority, long idleTimeout, Phy phy) {
+        this.mtu = Math.max(InteractiveGattCallback.DEFAULT_MTU, Math.min(MAX_MTU, mtu));
+        this.priority = priority != null ? priority : ConnectionPriority.BALANCED;
+        this.idleTimeout = Math.max(0, idleTimeout);
+        this.phy = phy;
+    }
+
+    public ConnectionProfile withPriority(ConnectionPriority priority) {
+        return new ConnectionProfile(mtu, priority, idleTimeout, phy);
+    }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    public ConnectionPriority getPriority() {
+        return priority;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public Phy getPhy() {
+        return phy;
+    }
+}
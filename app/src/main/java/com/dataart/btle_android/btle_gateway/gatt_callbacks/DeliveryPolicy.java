@@ -0,0 +1,240 @@
+package com.dataart.btle_android.btle_gateway.gatt_callbacks;
+
+import android.os.SystemClock;
+
+import com.dataart.btle_android.btle_gateway.gateway_helpers.GatewayTimer;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.GatewayUplink;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which notified values of subscription reach its consumer. Applied to raw bytes right in Bluetooth callback,
+ * so values held back are never encoded or sent - cost of subscription follows consumer's needs, not sensor's rate.
+ * <p>
+ * Every policy but {@link #ALL} keeps state and serves single subscription
+ */
+public abstract class DeliveryPolicy {
+
+    public static final String ALL_NAME = "all";
+    public static final String CONFLATE_NAME = "conflate";
+    public static final String RATE_NAME = "rate";
+    public static final String ON_CHANGE_NAME = "onChange";
+
+    //    defaults of parameters consumer may omit
+    public static final long DEFAULT_CONFLATE_INTERVAL = 1000;
+    public static final int DEFAULT_OFFSET = 0;
+    public static final double DEFAULT_DELTA = 1;
+
+    public static final DeliveryPolicy ALL = new DeliveryPolicy(ALL_NAME) {
+        @Override
+        void offer(byte[] value, Target target) {
+            target.deliver(value);
+        }
+    };
+
+    private final String name;
+    private final AtomicLong suppressed = new AtomicLong();
+
+    private DeliveryPolicy(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Latest value per interval: the first value opens interval, at its end the latest value received within it is delivered
+     */
+    public static DeliveryPolicy conflate(long interval) {
+        return new Conflate(interval);
+    }
+
+    /**
+     * At most given number of values per second, values coming faster are dropped
+     */
+    public static DeliveryPolicy rate(double perSecond) {
+        return new Rate(perSecond);
+    }
+
+    /**
+     * Value is delivered if number decoded from it differs from the last delivered one at least by delta.
+     * Value too short to decode is always delivered
+     */
+    public static DeliveryPolicy onChange(Format format, int offset, double delta) {
+        return new OnChange(format, offset, delta);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    //    values which didn't reach consumer because of the policy
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    final void suppress() {
+        suppressed.incrementAndGet();
+    }
+
+    /**
+     * Called on Bluetooth callback thread for every value. Value buffer is reused by platform and should be copied if kept
+     */
+    abstract void offer(byte[] value, Target target);
+
+    interface Target {
+        void deliver(byte[] value);
+    }
+
+    private static class Conflate extends DeliveryPolicy {
+        private final long interval;
+        private byte[] latest;
+        private Target target;
+        private ScheduledFuture<?> flush;
+
+        private Conflate(long interval) {
+            super(CONFLATE_NAME);
+            this.interval = interval;
+        }
+
+        @Override
+        synchronized void offer(byte[] value, Target target) {
+            if (latest != null) {
+                suppress();
+            }
+            latest = value.clone();
+            this.target = target;
+            if (flush == null) {
+                flush = GatewayTimer.schedule(() -> GatewayUplink.execute(this::flush), interval);
+            }
+        }
+
+        private void flush() {
+            final byte[] value;
+            final Target target;
+            synchronized (this) {
+                value = latest;
+                target = this.target;
+                latest = null;
+                flush = null;
+            }
+            if (value != null) {
+                target.deliver(value);
+            }
+        }
+    }
+
+    private static class Rate extends DeliveryPolicy {
+        //    milliseconds between values, fractional for rates above 1000 per second
+        private final double gap;
+        private double next = 0;
+
+        private Rate(double perSecond) {
+            super(RATE_NAME);
+            this.gap = 1000 / perSecond;
+        }
+
+        @Override
+        void offer(byte[] value, Target target) {
+            final long now = SystemClock.elapsedRealtime();
+            synchronized (this) {
+                if (now < next) {
+                    suppress();
+                    return;
+                }
+//                steady stream keeps its cadence, after a pause it starts over - pause doesn't earn credit for a burst
+                next = (now - next < gap ? next : now) + gap;
+            }
+            target.deliver(value);
+        }
+    }
+
+    private static class OnChange extends DeliveryPolicy {
+        private final Format format;
+        private final int offset;
+        private final double delta;
+        private boolean hasLast = false;
+        private double last;
+
+        private OnChange(Format format, int offset, double delta) {
+            super(ON_CHANGE_NAME);
+            this.format = format;
+            this.offset = offset;
+            this.delta = delta;
+        }
+
+        @Override
+        void offer(byte[] value, Target target) {
+            if (value.length >= offset + format.getSize()) {
+                final double current = format.decode(value, offset);
+                synchronized (this) {
+                    if (hasLast && Math.abs(current - last) < delta) {
+                        suppress();
+                        return;
+                    }
+                    hasLast = true;
+                    last = current;
+                }
+            }
+            target.deliver(value);
+        }
+    }
+
+    /**
+     * Little-endian number formats of characteristic values, named after GATT characteristic presentation formats
+     */
+    public enum Format {
+        UINT8("uint8", 1),
+        SINT8("sint8", 1),
+        UINT16("uint16", 2),
+        SINT16("sint16", 2),
+        UINT32("uint32", 4),
+        SINT32("sint32", 4),
+        FLOAT32("float32", 4);
+
+        private final String name;
+        private final int size;
+
+        Format(String name, int size) {
+            this.name = name;
+            this.size = size;
+        }
+
+        /**
+         * @return format or null if name is unknown
+         */
+        public static Format fromName(final String name) {
+            for (Format format : values()) {
+                if (format.name.equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        double decode(byte[] value, int offset) {
+            long bits = 0;
+            for (int i = size - 1; i >= 0; i--) {
+                bits = (bits << 8) | (value[offset + i] & 0xFF);
+            }
+            switch (this) {
+                case SINT8:
+                    return (byte) bits;
+                case SINT16:
+                    return (short) bits;
+                case SINT32:
+                    return (int) bits;
+                case FLOAT32:
+                    return Float.intBitsToFloat((int) bits);
+                default:
+                    return bits;
+            }
+        }
+    }
+}
@@ -0,0 +1,314 @@
+package com.dataart.btle_android.btle_gateway.gatt_callbacks;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Build;
+import android.os.SystemClock;
+
+import com.dataart.btle_android.btle_gateway.gateway_helpers.AttributeUuid;
+import com.dataart.btle_android.btle_gateway.model.BTLEWriteStreamResult;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.apache.commons.codec.binary.Hex;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Single request to remote GATT server, executed by {@link GattOperationQueue} when all previous ones are complete.
+ * Uuids are resolved only at that moment, since services may be not discovered when operation is created
+ */
+public abstract class GattOperation<T> {
+
+    //    MTU exchange has no attribute to correlate with
+    static final Object MTU_TARGET = new Object();
+
+    final SettableFuture<T> future = SettableFuture.create();
+    final long timeout;
+    //    characteristic, descriptor or MTU_TARGET - platform callback must refer to the same object
+    volatile Object target;
+    ScheduledFuture<?> deadline;
+
+    GattOperation(long timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Issues request to the platform
+     *
+     * @throws GattOperationException if attribute is not found or request is not accepted
+     */
+    abstract void start(BluetoothGatt gatt, Link link) throws GattOperationException;
+
+    /**
+     * Called on platform callback before {@link #onResult(int, Object)}. Operation made of several requests
+     * issues the next one here and stays at the head of the queue
+     *
+     * @param gatt null if link is paused or gone, no more requests may be issued then
+     * @return true if next request is issued
+     */
+    boolean proceed(BluetoothGatt gatt, int status) {
+        return false;
+    }
+
+    /**
+     * Completes future with result of platform callback
+     */
+    abstract void onResult(int status, Object value);
+
+    void fail(String message) {
+        future.setException(new GattOperationException(message));
+    }
+
+    static String statusWithValue(int status, byte[] value) {
+        return "{\"status\":\"" + String.valueOf(status) + "\",\"value\"=\"0x" + (value != null ? String.valueOf(Hex.encodeHex(value)) : "") + "\"}";
+    }
+
+    /**
+     * Connection as operations see it
+     */
+    interface Link {
+        /**
+         * Finds characteristic on connected device, translating short uuids into discovered ones
+         */
+        BluetoothGattCharacteristic findCharacteristic(BluetoothGatt gatt, AttributeUuid serviceUuid, AttributeUuid characteristicUuid) throws GattOperationException;
+
+        BluetoothGattDescriptor findDescriptor(BluetoothGatt gatt, AttributeUuid serviceUuid, AttributeUuid characteristicUuid, UUID descriptorUuid) throws GattOperationException;
+
+        int getMtu();
+
+        /**
+         * Drops the link whose stack stopped answering
+         */
+        void onStalled();
+    }
+
+    public static class Read extends GattOperation<byte[]> {
+        private final AttributeUuid serviceUuid;
+        private final AttributeUuid characteristicUuid;
+
+        public Read(AttributeUuid serviceUuid, AttributeUuid characteristicUuid, long timeout) {
+            super(timeout);
+            this.serviceUuid = serviceUuid;
+            this.characteristicUuid = characteristicUuid;
+        }
+
+        @Override
+        void start(BluetoothGatt gatt, Link link) throws GattOperationException {
+            final BluetoothGattCharacteristic characteristic = link.findCharacteristic(gatt, serviceUuid, characteristicUuid);
+            target = characteristic;
+            if (!gatt.readCharacteristic(characteristic)) {
+                throw new GattOperationException("read request is not accepted");
+            }
+        }
+
+        @Override
+        void onResult(int status, Object value) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                future.set((byte[]) value);
+            } else {
+                future.setException(new GattOperationException(status, statusWithValue(status, (byte[]) value)));
+            }
+        }
+    }
+
+    public static class Write extends GattOperation<Integer> {
+        private final AttributeUuid serviceUuid;
+        private final AttributeUuid characteristicUuid;
+        private final byte[] value;
+
+        public Write(AttributeUuid serviceUuid, AttributeUuid characteristicUuid, byte[] value, long timeout) {
+            super(timeout);
+            this.serviceUuid = serviceUuid;
+            this.characteristicUuid = characteristicUuid;
+            this.value = value;
+        }
+
+        @Override
+        void start(BluetoothGatt gatt, Link link) throws GattOperationException {
+            final BluetoothGattCharacteristic characteristic = link.findCharacteristic(gatt, serviceUuid, characteristicUuid);
+            target = characteristic;
+//            write type is a property of shared characteristic object, streams change it
+            characteristic.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            characteristic.setValue(value);
+            if (!gatt.writeCharacteristic(characteristic)) {
+                throw new GattOperationException("write request is not accepted");
+            }
+        }
+
+        @Override
+        void onResult(int status, Object ignored) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                future.set(status);
+            } else {
+                future.setException(new GattOperationException(status, statusWithValue(status, value)));
+            }
+        }
+    }
+
+    public static class WriteDescriptor extends GattOperation<Integer> {
+        private final AttributeUuid serviceUuid;
+        private final AttributeUuid characteristicUuid;
+        private final UUID descriptorUuid;
+        private final byte[] value;
+
+        public WriteDescriptor(AttributeUuid serviceUuid, AttributeUuid characteristicUuid, UUID descriptorUuid, byte[] value, long timeout) {
+            super(timeout);
+            this.serviceUuid = serviceUuid;
+            this.characteristicUuid = characteristicUuid;
+            this.descriptorUuid = descriptorUuid;
+            this.value = value;
+        }
+
+        @Override
+        void start(BluetoothGatt gatt, Link link) throws GattOperationException {
+            final BluetoothGattDescriptor descriptor = link.findDescriptor(gatt, serviceUuid, characteristicUuid, descriptorUuid);
+            target = descriptor;
+            if (!descriptor.setValue(value)) {
+                throw new GattOperationException("failed set descriptor value");
+            }
+            if (!gatt.writeDescriptor(descriptor)) {
+                throw new GattOperationException("descriptor write request is not accepted");
+            }
+        }
+
+        @Override
+        void onResult(int status, Object ignored) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                future.set(status);
+            } else {
+                future.setException(new GattOperationException(status, statusWithValue(status, value)));
+            }
+        }
+    }
+
+    /**
+     * Writes value of any length as sequence of chunks which fit into single ATT packet, without response where
+     * characteristic allows it. Next chunk is sent only on onCharacteristicWrite of the previous one - for writes
+     * without response it comes when the stack has buffer for another packet, so it's used as flow control credit
+     */
+    public static class WriteStream extends GattOperation<BTLEWriteStreamResult> {
+        //    ATT header of Write Command
+        private static final int ATT_WRITE_HEADER = 3;
+        //    longest attribute value allowed by Core Specification
+        private static final int MAX_CHUNK = 512;
+
+        private final AttributeUuid serviceUuid;
+        private final AttributeUuid characteristicUuid;
+        private final byte[] value;
+        private int chunkSize;
+        private BluetoothGattCharacteristic characteristic;
+        private boolean withoutResponse;
+        private int offset = 0;
+        private int chunks = 0;
+        private long startedAt;
+        private String failure;
+
+        public WriteStream(AttributeUuid serviceUuid, AttributeUuid characteristicUuid, byte[] value, long timeout) {
+            super(timeout);
+            this.serviceUuid = serviceUuid;
+            this.characteristicUuid = characteristicUuid;
+            this.value = value;
+        }
+
+        public static int chunkSize(int mtu) {
+            return Math.min(MAX_CHUNK, mtu - ATT_WRITE_HEADER);
+        }
+
+        public static int chunkCount(int length, int mtu) {
+            return (length + chunkSize(mtu) - 1) / chunkSize(mtu);
+        }
+
+        @Override
+        void start(BluetoothGatt gatt, Link link) throws GattOperationException {
+            characteristic = link.findCharacteristic(gatt, serviceUuid, characteristicUuid);
+            target = characteristic;
+//            MTU is taken when stream starts - exchange queued earlier is complete by then
+            chunkSize = chunkSize(link.getMtu());
+            withoutResponse = (characteristic.getProperties() & BluetoothGattCharacteristic.PROPERTY_WRITE_NO_RESPONSE) != 0;
+            characteristic.setWriteType(withoutResponse
+                    ? BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE : BluetoothGattCharacteristic.WRITE_TYPE_DEFAULT);
+            startedAt = SystemClock.elapsedRealtime();
+            if (!writeChunk(gatt)) {
+                throw new GattOperationException("write request is not accepted");
+            }
+        }
+
+        @Override
+        boolean proceed(BluetoothGatt gatt, int status) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                return false;
+            }
+            offset += Math.min(chunkSize, value.length - offset);
+            chunks++;
+            if (offset >= value.length) {
+                return false;
+            }
+            if (gatt == null) {
+                failure = "stream is interrupted after " + offset + " bytes";
+                return false;
+            }
+            if (!writeChunk(gatt)) {
+                failure = "write request is not accepted after " + offset + " bytes";
+                return false;
+            }
+            return true;
+        }
+
+        private boolean writeChunk(BluetoothGatt gatt) {
+            characteristic.setValue(Arrays.copyOfRange(value, offset, Math.min(value.length, offset + chunkSize)));
+            return gatt.writeCharacteristic(characteristic);
+        }
+
+        @Override
+        void onResult(int status, Object ignored) {
+            if (status != BluetoothGatt.GATT_SUCCESS) {
+                future.setException(new GattOperationException(status, "write failed with status=" + status + " after " + offset + " bytes"));
+                return;
+            }
+            if (failure != null) {
+                future.setException(new GattOperationException(failure));
+                return;
+            }
+            final long duration = Math.max(1, SystemClock.elapsedRealtime() - startedAt);
+            future.set(new BTLEWriteStreamResult(value.length, chunks, chunkSize, withoutResponse, duration, value.length * 1000.0 / duration));
+        }
+    }
+
+    /**
+     * Completes with MTU agreed by both sides
+     */
+    public static class RequestMtu extends GattOperation<Integer> {
+        private final int mtu;
+
+        public RequestMtu(int mtu, long timeout) {
+            super(timeout);
+            this.mtu = mtu;
+        }
+
+        @Override
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+        void start(BluetoothGatt gatt, Link link) throws GattOperationException {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+                throw new GattOperationException("MTU exchange requires Android 5.0");
+            }
+            target = MTU_TARGET;
+            if (!gatt.requestMtu(mtu)) {
+                throw new GattOperationException("MTU request is not accepted");
+            }
+        }
+
+        @Override
+        void onResult(int status, Object value) {
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                future.set((Integer) value);
+            } else {
+                future.setException(new GattOperationException(status, "MTU exchange failed with status=" + status));
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.dataart.btle_android.btle_gateway.gatt_callbacks;
+
+import android.bluetooth.BluetoothGatt;
+
+/**
+ * Failure of queued GATT operation. Message is ready to be sent as command result
+ */
+public class GattOperationException extends Exception {
+
+    private final int status;
+
+    public GattOperationException(String message) {
+        this(BluetoothGatt.GATT_FAILURE, message);
+    }
+
+    public GattOperationException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
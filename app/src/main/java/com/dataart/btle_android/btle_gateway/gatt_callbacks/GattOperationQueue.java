@@ -0,0 +1,239 @@
+package com.dataart.btle_android.btle_gateway.gatt_callbacks;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+
+import com.dataart.btle_android.btle_gateway.gateway_helpers.GatewayTimer;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledFuture;
+
+import timber.log.Timber;
+
+/**
+ * Serializes GATT operations of single connection - Android GATT client rejects new request while one is in flight.
+ * Operations wait until services are discovered and then run back to back; each platform callback completes
+ * the operation at the head of the queue if it refers to the same attribute. Operation that is not complete
+ * within its timeout, counted from its start, is evicted and fails.
+ * Request of evicted operation may still be pending in the stack, which rejects anything else meanwhile - so the queue
+ * stays blocked until its late callback arrives or the link is gone. If neither happens within another timeout,
+ * the link is considered stuck: everything queued fails and link is dropped
+ */
+public class GattOperationQueue {
+
+    private final GattOperation.Link link;
+    private final String timeoutMessage;
+    private final ArrayDeque<GattOperation<?>> pending = new ArrayDeque<>();
+    private GattOperation<?> current;
+    //    current operation has already failed on timeout and waits only for its late callback
+    private boolean evicted;
+    //    deadline of that late callback
+    private ScheduledFuture<?> stall;
+    //    set when services are discovered, null while connecting or after disconnect
+    private BluetoothGatt gatt;
+    //    why link is gone, null while it's alive - new operations fail right away instead of waiting for services
+    private String closedMessage;
+
+    GattOperationQueue(GattOperation.Link link, String timeoutMessage) {
+        this.link = link;
+        this.timeoutMessage = timeoutMessage;
+    }
+
+    public <T> ListenableFuture<T> submit(GattOperation<T> operation) {
+        return enqueue(operation, false);
+    }
+
+    /**
+     * Queues operation ahead of all waiting ones, for link setup which should precede everything else
+     */
+    <T> ListenableFuture<T> submitFirst(GattOperation<T> operation) {
+        return enqueue(operation, true);
+    }
+
+    private <T> ListenableFuture<T> enqueue(GattOperation<T> operation, boolean first) {
+        final String closedMessage;
+        synchronized (this) {
+            closedMessage = this.closedMessage;
+            if (closedMessage == null) {
+                if (first) {
+                    pending.addFirst(operation);
+                } else {
+                    pending.add(operation);
+                }
+            }
+        }
+        if (closedMessage != null) {
+            operation.fail(closedMessage);
+        } else {
+            next();
+        }
+        return operation.future;
+    }
+
+    public synchronized int size() {
+        return pending.size() + (current != null ? 1 : 0);
+    }
+
+    //    Called when services are discovered - queued operations may start
+    void onReady(BluetoothGatt gatt) {
+        synchronized (this) {
+            this.gatt = gatt;
+        }
+        next();
+    }
+
+    //    Called on connect - operations wait for services again instead of failing right away
+    void onConnected() {
+        synchronized (this) {
+            closedMessage = null;
+        }
+    }
+
+    //    Called when services are discovered again - operations wait for onReady, the one in flight completes as usual
+    void pause() {
+        synchronized (this) {
+            gatt = null;
+        }
+    }
+
+    //    Called on disconnect - nothing queued can succeed anymore
+    void failAll(String message) {
+        final ArrayDeque<GattOperation<?>> failed;
+        synchronized (this) {
+            gatt = null;
+            closedMessage = message;
+            failed = new ArrayDeque<>(pending);
+            if (current != null && !evicted) {
+                failed.addFirst(current);
+            }
+            current = null;
+            evicted = false;
+            cancel(stall);
+            stall = null;
+            pending.clear();
+        }
+        for (GattOperation<?> operation : failed) {
+            cancel(operation.deadline);
+            operation.fail(message);
+        }
+    }
+
+    void onCharacteristicRead(BluetoothGattCharacteristic characteristic, int status) {
+        complete(characteristic, status, characteristic.getValue());
+    }
+
+    void onCharacteristicWrite(BluetoothGattCharacteristic characteristic, int status) {
+        complete(characteristic, status, null);
+    }
+
+    void onDescriptorWrite(BluetoothGattDescriptor descriptor, int status) {
+        complete(descriptor, status, null);
+    }
+
+    void onMtuChanged(int mtu, int status) {
+        complete(GattOperation.MTU_TARGET, status, mtu);
+    }
+
+    private void complete(Object target, int status, Object value) {
+        final GattOperation<?> operation;
+        final BluetoothGatt gatt;
+        synchronized (this) {
+            if (current == null || current.target != target) {
+//                request issued outside of queue
+                Timber.d("unexpected gatt callback, status=%d", status);
+                return;
+            }
+            operation = current;
+//            evicted stream shouldn't go on writing
+            gatt = evicted ? null : this.gatt;
+        }
+        if (operation.proceed(gatt, status)) {
+            return;
+        }
+        final boolean late;
+        synchronized (this) {
+            if (current != operation) {
+//                failed on disconnect meanwhile
+                return;
+            }
+            late = evicted;
+            current = null;
+            evicted = false;
+            cancel(stall);
+            stall = null;
+        }
+        if (late) {
+//            stack is free again, the operation has already failed
+            Timber.d("late gatt callback of evicted operation, status=%d", status);
+        } else {
+            operation.deadline.cancel(false);
+            operation.onResult(status, value);
+        }
+        next();
+    }
+
+    private void expire(GattOperation<?> operation) {
+        synchronized (this) {
+            if (operation != current || evicted) {
+                return;
+            }
+            evicted = true;
+            stall = GatewayTimer.schedule(() -> onStalled(operation), operation.timeout);
+        }
+        Timber.d("gatt operation evicted on timeout");
+        operation.fail(timeoutMessage);
+    }
+
+    //    Evicted request got no answer in another timeout - stack is stuck, and only dropping the link frees it
+    private void onStalled(GattOperation<?> operation) {
+        synchronized (this) {
+            if (operation != current || !evicted) {
+                return;
+            }
+        }
+        Timber.w("no callback for evicted gatt operation, dropping link");
+        failAll(timeoutMessage);
+        link.onStalled();
+    }
+
+    private void next() {
+        while (true) {
+            final GattOperation<?> operation;
+            final BluetoothGatt gatt;
+            synchronized (this) {
+                if (current != null || this.gatt == null || pending.isEmpty()) {
+                    return;
+                }
+                operation = pending.poll();
+                current = operation;
+                gatt = this.gatt;
+//                time spent waiting in queue doesn't count
+                operation.deadline = GatewayTimer.schedule(() -> expire(operation), operation.timeout);
+            }
+            try {
+                operation.start(gatt, link);
+                return;
+            } catch (Exception e) {
+//                unexpected exception shouldn't leave the operation at the head of the queue forever
+                if (!(e instanceof GattOperationException)) {
+                    Timber.e(e, "gatt operation failed to start");
+                }
+                synchronized (this) {
+                    if (current == operation) {
+                        current = null;
+                    }
+                }
+                operation.deadline.cancel(false);
+                operation.future.setException(e instanceof GattOperationException ? e : new GattOperationException(e.toString()));
+            }
+        }
+    }
+
+    private static void cancel(ScheduledFuture<?> timer) {
+        if (timer != null) {
+            timer.cancel(false);
+        }
+    }
+}
@@ -6,18 +6,31 @@ import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothProfile;
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.os.Build;
+import android.os.SystemClock;
 
 import com.dataart.btle_android.R;
 import com.dataart.btle_android.btle_gateway.GattCharacteristicCallBack;
-import com.dataart.btle_android.btle_gateway.server.BluetoothServer;
-
-import org.apache.commons.codec.binary.Hex;
-
-import java.util.HashMap;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.AttributeUuid;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.GatewayTimer;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.UuidTable;
+import com.dataart.btle_android.btle_gateway.model.BTLEWriteStreamResult;
+import com.dataart.btle_android.btle_gateway.model.DeviceConnection;
+import com.dataart.btle_android.helpers.ble.base.BleConnector;
+import com.dataart.btle_android.helpers.ble.base.Phy;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 import timber.log.Timber;
 
@@ -26,71 +39,237 @@ import timber.log.Timber;
  * Provides single callback for gatt with configurable actions
  */
 public class InteractiveGattCallback extends BluetoothGattCallback {
+    //    streams get extra time for every chunk on top of write timeout
+    private static final long STREAM_CHUNK_TIMEOUT = 100;
+    //    ATT_MTU before exchange, Core Specification minimum for LE
+    public static final int DEFAULT_MTU = 23;
     private boolean servicesDiscovered = false;
-    private final String address;
+    private final long address;
     private BluetoothGatt gatt;
-    private ReadCharacteristicOperation readOperation;
-    private WriteCharacteristicOperation writeOperation;
-    private NotificationSubscription notificationSubscription;
+    private final GattOperationQueue operations;
+    private volatile ConnectionProfile profile;
+    private final BleConnector connector;
+    //    negotiated MTU and priority are recorded here
+    private volatile DeviceConnection connection;
+    private final CharacteristicValueCache valueCache = new CharacteristicValueCache();
+    private boolean linkConfigured = false;
+    private volatile long lastActivity;
+    private ScheduledFuture<?> idleCheck;
+    private final NotificationTable notifications = new NotificationTable();
     private ServicesDiscoveredCallback servicesDiscoveredCallback;
+    private LayoutListener layoutListener;
+    //    milestones of this connection for time-to-first-read, 0 until reached
+    private final long connectStartedAt = SystemClock.elapsedRealtime();
+    private volatile long connectedAt;
+    private volatile long discoveredAt;
+    private volatile long firstReadAt;
     private CharacteristicsDiscoveringCallback characteristicsDiscoveringCallback;
     private final InteractiveGattCallback.StatusListener statusListener;
     private final Context context;
     private final DisconnectListener disconnectListener;
     private final OnConnectedListener connectedListener;
-    private boolean connectionStateChanged = false;
-//    Mapping from short to long service naming
-    private final Map<String, String> services = new HashMap<>();
-    private final Map<String, String> characteristics = new HashMap<>();
-
-    public InteractiveGattCallback(String address, InteractiveGattCallback.StatusListener statusListener, Context context, DisconnectListener disconnectListener, OnConnectedListener connectedListener) {
+    private volatile boolean connectionStateChanged = false;
+    private ScheduledFuture<?> connectDeadline;
+//    Discovered uuids, replaced as a whole by every discovery
+    private volatile UuidTable services = UuidTable.EMPTY;
+    private volatile UuidTable characteristics = UuidTable.EMPTY;
+    private volatile AttributeTable attributes = AttributeTable.EMPTY;
+
+    public InteractiveGattCallback(long address, ConnectionProfile profile, BleConnector connector, InteractiveGattCallback.StatusListener statusListener, Context context, DisconnectListener disconnectListener, OnConnectedListener connectedListener) {
         this.address = address;
+        this.profile = profile;
+        this.connector = connector;
         this.statusListener = statusListener;
         this.context = context;
         this.disconnectListener = disconnectListener;
         this.connectedListener = connectedListener;
+        this.operations = new GattOperationQueue(new GattOperation.Link() {
+            @Override
+            public BluetoothGattCharacteristic findCharacteristic(BluetoothGatt gatt, AttributeUuid serviceUuid, AttributeUuid characteristicUuid) throws GattOperationException {
+                return InteractiveGattCallback.this.findCharacteristic(gatt, serviceUuid, characteristicUuid);
+            }
+
+            @Override
+            public BluetoothGattDescriptor findDescriptor(BluetoothGatt gatt, AttributeUuid serviceUuid, AttributeUuid characteristicUuid, UUID descriptorUuid) throws GattOperationException {
+                return InteractiveGattCallback.this.findDescriptor(gatt, serviceUuid, characteristicUuid, descriptorUuid);
+            }
+
+            @Override
+            public int getMtu() {
+                return InteractiveGattCallback.this.getMtu();
+            }
+
+            @Override
+            public void onStalled() {
+                final BluetoothGatt gatt = InteractiveGattCallback.this.gatt;
+                if (gatt != null) {
+                    gatt.disconnect();
+                }
+            }
+        }, context.getString(R.string.status_timeout));
+    }
+
+    public void setConnection(DeviceConnection connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Applies new priority, idle timeout and PHY right away if connected. New MTU applies to the next connection
+     */
+    public void setProfile(ConnectionProfile profile) {
+        final Phy previousPhy = this.profile.getPhy();
+        this.profile = profile;
+        if (gatt != null && linkConfigured && profile.getPhy() != null && profile.getPhy() != previousPhy) {
+            connector.setPreferredPhy(gatt, profile.getPhy());
+        }
+        onActivity();
+    }
+
+    public GattOperationQueue getOperations() {
+        return operations;
     }
 
     public boolean isConnectionStateNotChanged() {
         return !connectionStateChanged;
     }
 
+    /**
+     * Reports failure to status listener if connection state doesn't change within timeout
+     */
+    public synchronized void expectConnection(long timeout) {
+        if (connectionStateChanged) {
+            return;
+        }
+        connectDeadline = GatewayTimer.schedule(() -> {
+            if (isConnectionStateNotChanged() && statusListener != null) {
+                statusListener.onStatus(false, context.getString(R.string.status_timeout));
+            }
+        }, timeout);
+    }
+
+    public void setLayoutListener(LayoutListener layoutListener) {
+        this.layoutListener = layoutListener;
+    }
+
+    //    Both callbacks are one-shot: called right away if services are already discovered, otherwise after discovery
     public void setServicesDiscoveredCallback(ServicesDiscoveredCallback servicesDiscoveredCallback) {
-        this.servicesDiscoveredCallback = servicesDiscoveredCallback;
-//        call callback is services are already discovered
-        if(servicesDiscovered){
+        if (servicesDiscovered) {
             servicesDiscoveredCallback.call(gatt);
+            return;
         }
+        this.servicesDiscoveredCallback = servicesDiscoveredCallback;
     }
 
     public void setCharacteristicsDiscoveringCallback(CharacteristicsDiscoveringCallback characteristicsDiscoveringCallback) {
-        this.characteristicsDiscoveringCallback = characteristicsDiscoveringCallback;
-//        call callback is services are already discovered
-        if(servicesDiscovered){
+        if (servicesDiscovered) {
             characteristicsDiscoveringCallback.call(gatt);
-        }else {
-            gatt.discoverServices();
+            return;
         }
+        this.characteristicsDiscoveringCallback = characteristicsDiscoveringCallback;
+        gatt.discoverServices();
     }
 
-    public void setNotificationSubscription(NotificationSubscription notificationSubscription) {
-        this.notificationSubscription = notificationSubscription;
-        if (servicesDiscovered) {
-            this.notificationSubscription.subscribe(gatt);
+    /**
+     * Forgets discovered services and discovers them again. Queued operations wait until it's done
+     *
+     * @return false if not connected or discovery is not started
+     */
+    public boolean refreshServices() {
+        final BluetoothGatt gatt = this.gatt;
+        if (gatt == null) {
+            return false;
+        }
+        servicesDiscovered = false;
+        attributes = AttributeTable.EMPTY;
+        operations.pause();
+        valueCache.clear();
+        if (layoutListener != null) {
+            layoutListener.onInvalidated();
+        }
+        if (!gatt.discoverServices()) {
+            Timber.w("service discovery is not started");
+            operations.onReady(gatt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Service Changed indication from device, delivered by Android 12 and above. Older versions handle it
+     * inside Bluetooth stack and rediscover on their own, so the next discovery updates stored layout.
+     * Overrides BluetoothGattCallback.onServiceChanged of API 31, not annotated since compileSdk 27 doesn't have it
+     */
+    @SuppressWarnings("unused")
+    public void onServiceChanged(BluetoothGatt gatt) {
+        Timber.d("onServiceChanged");
+        refreshServices();
+    }
+
+    /**
+     * Adds subscriber to notifications of characteristic. Subscribers of the same characteristic share
+     * its descriptor write, subscription made before services are discovered waits for them
+     */
+    public void subscribe(NotificationSubscription subscription) {
+        if (!servicesDiscovered) {
+            notifications.addPending(subscription);
+            return;
+        }
+        attach(subscription);
+    }
+
+    /**
+     * Removes subscriber, notifications are disabled on device when the last subscriber of characteristic is gone
+     *
+     * @param id subscription id from connection status, or 0 for the latest subscription to characteristic
+     */
+    public void unsubscribe(AttributeUuid serviceUuid, AttributeUuid characteristicUuid, int id, StatusListener statusListener) {
+        if (!servicesDiscovered) {
+            if (notifications.removePending(serviceUuid, characteristicUuid, id)) {
+                statusListener.onStatus(true, "");
+            } else {
+                statusListener.onStatus(false, context.getString(R.string.status_not_subscribed));
+            }
             return;
         }
 
-        gatt.discoverServices();
+        final AttributeTable.Entry entry;
+        try {
+            entry = findEntry(serviceUuid, characteristicUuid);
+        } catch (GattOperationException e) {
+            statusListener.onStatus(false, e.getMessage());
+            return;
+        }
+        final NotificationTable.Topic topic = notifications.remove(entry.serviceUuid, entry.characteristic.getUuid(), id);
+        if (topic == null) {
+            statusListener.onStatus(false, context.getString(R.string.status_not_subscribed));
+        } else if (!topic.subscribers.isEmpty()) {
+            statusListener.onStatus(true, "");
+        } else {
+            report(writeCcc(entry.serviceUuid, entry.characteristic, false), statusListener);
+        }
+    }
+
+    public List<NotificationSubscription> getSubscriptions() {
+        return notifications.getSubscriptions();
     }
 
     @Override
     public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
         super.onConnectionStateChange(gatt, status, newState);
-        connectionStateChanged = true;
+        synchronized (this) {
+            connectionStateChanged = true;
+            if (connectDeadline != null) {
+                connectDeadline.cancel(false);
+                connectDeadline = null;
+            }
+        }
 
         if (newState == BluetoothProfile.STATE_CONNECTED) {
             Timber.d("isConnectionStateChanged. discovering services...");
+            connectedAt = SystemClock.elapsedRealtime();
             this.gatt = gatt;
+            operations.onConnected();
+//            even with stored layout: BluetoothGatt hands out characteristics only after its own discovery
             this.gatt.discoverServices();
 
             if (statusListener != null /*&& !callableFuture.isGetDone()*/) {
@@ -102,6 +281,9 @@ public class InteractiveGattCallback extends BluetoothGattCallback {
         } else {
             String m = String.format(context.getString(R.string.connection_failed_result), status, newState);
             Timber.d(m);
+            operations.failAll(m);
+            valueCache.clear();
+            attributes = AttributeTable.EMPTY;
             if (statusListener != null/* && !callableFuture.isGetDone()*/) {
                 statusListener.onStatus(false, m);
             }
@@ -117,339 +299,555 @@ public class InteractiveGattCallback extends BluetoothGattCallback {
 
         if (status == BluetoothGatt.GATT_SUCCESS) {
             servicesDiscovered = true;
+            if (discoveredAt == 0) {
+                discoveredAt = SystemClock.elapsedRealtime();
+            }
+//            values are keyed by characteristic instances, which discovery replaces
+            valueCache.clear();
 
-//        Put each service to mapping
+//        Tables of discovered uuids, to resolve short aliases used in commands
             List<BluetoothGattService> bluetoothGattServices = gatt.getServices();
-            Timber.d("uuids map: {");
+            final List<UUID> serviceUuids = new ArrayList<>(bluetoothGattServices.size());
+            final List<UUID> characteristicUuids = new ArrayList<>();
             for (BluetoothGattService bluetoothGattService : bluetoothGattServices) {
-                String uuid = bluetoothGattService.getUuid().toString().toLowerCase();
-//            F000XXXX-0451-4000-B000-000000000000
-                String shortUuid = uuid.substring(4, 8).toLowerCase();
-                Timber.d("srvUuid: " + shortUuid + "=" + uuid);
-                services.put(shortUuid, uuid);
-
-                List<BluetoothGattCharacteristic> bluetoothGattCharacteristics = bluetoothGattService.getCharacteristics();
-                for (BluetoothGattCharacteristic bluetoothGattCharacteristic : bluetoothGattCharacteristics) {
-                    String cUuid = bluetoothGattCharacteristic.getUuid().toString().toLowerCase();
-//                F000AA12-0451-4000-B000-000000000000
-                    String cShortUuid = cUuid.substring(4, 8).toLowerCase();
-                    Timber.d("chUuid: " + shortUuid + "=" + cUuid);
-                    characteristics.put(cShortUuid, cUuid);
+                serviceUuids.add(bluetoothGattService.getUuid());
+                for (BluetoothGattCharacteristic bluetoothGattCharacteristic : bluetoothGattService.getCharacteristics()) {
+                    characteristicUuids.add(bluetoothGattCharacteristic.getUuid());
                 }
             }
-            Timber.d("}");
+            services = new UuidTable(serviceUuids);
+            characteristics = new UuidTable(characteristicUuids);
+            attributes = new AttributeTable(bluetoothGattServices);
+            Timber.d("discovered %d services, %d characteristics", services.size(), attributes.size());
+            if (!services.getAmbiguousAliases().isEmpty() || !characteristics.getAmbiguousAliases().isEmpty()) {
+                Timber.w("ambiguous aliases, full uuids needed for them. services: %s, characteristics: %s",
+                        services.getAmbiguousAliases(), characteristics.getAmbiguousAliases());
+            }
 
-            if (readOperation != null) {
-                readOperation.call(gatt);
+            if (!linkConfigured) {
+                linkConfigured = true;
+                configureLink();
             }
-            if (writeOperation != null) {
-                writeOperation.call(gatt);
+            if (layoutListener != null) {
+                layoutListener.onDiscovered(bluetoothGattServices);
             }
+            operations.onReady(gatt);
             if (servicesDiscoveredCallback != null) {
                 servicesDiscoveredCallback.call(gatt);
+                servicesDiscoveredCallback = null;
             }
             if (characteristicsDiscoveringCallback != null) {
                 characteristicsDiscoveringCallback.call(gatt);
                 characteristicsDiscoveringCallback = null;
             }
-            if (notificationSubscription != null) {
-                notificationSubscription.subscribe(gatt);
-//                unsubscribe and don't listen for future notifications
-                if (!notificationSubscription.isOn()) {
-                    notificationSubscription = null;
-                }
+//            characteristics are new instances now, and device may have forgotten its descriptors
+            for (NotificationTable.Topic topic : notifications.bind(attributes)) {
+                enable(topic);
             }
+            for (NotificationSubscription subscription : notifications.takePending()) {
+                attach(subscription);
+            }
+        } else {
+            Timber.w("service discovery failed, status=%d", status);
+//            queue was paused by refresh - waiting operations fail on unresolved uuids instead of their timeouts,
+//            link stays usable and may be refreshed again
+            operations.onReady(gatt);
         }
     }
 
     @Override
     public void onCharacteristicRead(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-        Timber.d("onCharacteristicRead. notificationSubscription=%d", (notificationSubscription != null) ? 1 : 0);
-        if (readOperation != null) {
-            readOperation.onResult(characteristic, status);
-//            Reset readOperation for future calls
-            readOperation = null;
+        Timber.d("onCharacteristicRead");
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            valueCache.put(characteristic, characteristic.getValue());
+            if (firstReadAt == 0) {
+                firstReadAt = SystemClock.elapsedRealtime();
+            }
         }
-        if (notificationSubscription != null) {
-            notificationSubscription.onNotification(characteristic.getValue());
+        operations.onCharacteristicRead(characteristic, status);
+        final NotificationTable.Topic topic = notifications.route(characteristic);
+        if (topic != null && status == BluetoothGatt.GATT_SUCCESS) {
+            topic.deliver(characteristic.getValue());
         }
     }
 
     @Override
     public void onCharacteristicChanged(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-        Timber.d("onCharacteristicChanged. notificationSubscription=%d", (notificationSubscription != null) ? 1 : 0);
-        if (notificationSubscription !=null){
-            notificationSubscription.onNotification(characteristic.getValue());
+        valueCache.put(characteristic, characteristic.getValue());
+        final NotificationTable.Topic topic = notifications.route(characteristic);
+        if (topic != null) {
+            topic.deliver(characteristic.getValue());
         }
     }
 
     @Override
     public void onCharacteristicWrite(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic, int status) {
-        if (writeOperation!=null) {
-            writeOperation.onResult(characteristic, status);
-            writeOperation = null;
-        }
+//        device may store written value differently, next read goes to device
+        valueCache.invalidate(characteristic);
+        operations.onCharacteristicWrite(characteristic, status);
     }
 
-    public void readCharacteristic(String serviceUUID, String characteristicUUID, GattCharacteristicCallBack callBack, final InteractiveGattCallback.StatusListener statusListener) {
-        readOperation = new ReadCharacteristicOperation(address, serviceUUID, characteristicUUID, callBack, statusListener, context);
-        if (gatt != null) {
-            if (servicesDiscovered) {
-//                read right now
-                readOperation.call(gatt);
-            } else {
-//                discoverServices should be called before r/w operations - so we postpone call to readOperation
-                gatt.discoverServices();
-            }
-            return;
+    @Override
+    public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor, int status) {
+        operations.onDescriptorWrite(descriptor, status);
+    }
+
+    @Override
+    public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+        Timber.d("onMtuChanged: mtu=%d, status=%d", mtu, status);
+        final DeviceConnection connection = this.connection;
+        if (status == BluetoothGatt.GATT_SUCCESS && connection != null) {
+            connection.setMtu(mtu);
         }
+        operations.onMtuChanged(mtu, status);
+    }
 
-        Timber.d("gatt is null - probably not isConnectionStateChanged");
+    @Override
+    public void onPhyUpdate(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+        Timber.d("onPhyUpdate: tx=%d, rx=%d, status=%d", txPhy, rxPhy, status);
+        onPhy(txPhy, rxPhy, status);
     }
 
-    public void writeCharacteristic(String serviceUUID, String characteristicUUID, GattCharacteristicCallBack callBack, byte[] value, final InteractiveGattCallback.StatusListener statusListener) {
-        writeOperation = new WriteCharacteristicOperation(address, serviceUUID, characteristicUUID, callBack, value, statusListener, context);
-        if (gatt != null) {
-            if (servicesDiscovered) {
-//                read right now
-                writeOperation.call(gatt);
-            } else {
-//                discoverServices should be called before r/w operations - so we postpone call to readOperation
-                gatt.discoverServices();
-            }
-            return;
+    @Override
+    public void onPhyRead(BluetoothGatt gatt, int txPhy, int rxPhy, int status) {
+        Timber.d("onPhyRead: tx=%d, rx=%d, status=%d", txPhy, rxPhy, status);
+        onPhy(txPhy, rxPhy, status);
+    }
+
+    private void onPhy(int txPhy, int rxPhy, int status) {
+        final DeviceConnection connection = this.connection;
+        if (status == BluetoothGatt.GATT_SUCCESS && connection != null) {
+            connection.setPhy(Phy.fromValue(txPhy), Phy.fromValue(rxPhy));
         }
+    }
+
+    /**
+     * Returns value received from device not more than maxAge milliseconds ago, by read or notification, right away.
+     * Otherwise queues read, which starts when all previous operations on this connection are complete
+     *
+     * @param maxAge 0 to always read from device
+     * @param statusListener gets null result on success, value goes to callBack
+     */
+    public ListenableFuture<byte[]> readCharacteristic(AttributeUuid serviceUUID, AttributeUuid characteristicUUID, long maxAge, GattCharacteristicCallBack callBack, final InteractiveGattCallback.StatusListener statusListener) {
+        final ListenableFuture<byte[]> future = read(serviceUUID, characteristicUUID, maxAge);
+        Futures.addCallback(future, new FutureCallback<byte[]>() {
+            @Override
+            public void onSuccess(byte[] value) {
+                callBack.onRead(value);
+                if (statusListener != null) {
+                    statusListener.onStatus(true, null);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (statusListener != null) {
+                    statusListener.onStatus(false, t.getMessage());
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
 
-        String m = context.getString(R.string.gatt_null);
-        Timber.d(m);
+    /**
+     * Queues reads of all given characteristics at once, so they run back to back without waiting for caller
+     * between them. Android has no public API for ATT Read Multiple, this is the closest to it
+     *
+     * @return futures in the same order as characteristics, each completes on its own
+     */
+    public List<ListenableFuture<byte[]>> readCharacteristics(List<AttributeUuid> serviceUUIDs, List<AttributeUuid> characteristicUUIDs, long maxAge) {
+        final List<ListenableFuture<byte[]>> futures = new ArrayList<>(characteristicUUIDs.size());
+        for (int i = 0; i < characteristicUUIDs.size(); i++) {
+            futures.add(read(serviceUUIDs.get(i), characteristicUUIDs.get(i), maxAge));
+        }
+        return futures;
+    }
 
-        if (statusListener != null) {
-            statusListener.onStatus(false, m);
+    private ListenableFuture<byte[]> read(AttributeUuid serviceUUID, AttributeUuid characteristicUUID, long maxAge) {
+        if (maxAge > 0) {
+            final byte[] cached = cachedValue(serviceUUID, characteristicUUID, maxAge);
+            if (cached != null) {
+                return Futures.immediateFuture(cached);
+            }
         }
+        return submit(new GattOperation.Read(serviceUUID, characteristicUUID, GatewayTimer.Timeout.READ.get()));
     }
 
-    public String getFullServiceUuid(String shortUuid){
-        if (shortUuid==null){
+    //    Unknown characteristic is a miss - queued read reports the error then
+    private byte[] cachedValue(AttributeUuid serviceUUID, AttributeUuid characteristicUUID, long maxAge) {
+        final BluetoothGattCharacteristic characteristic = resolve(serviceUUID, characteristicUUID);
+        if (characteristic == null) {
+            valueCache.miss();
             return null;
         }
-        if (shortUuid.length()!=4){
-            return shortUuid;
+        return valueCache.get(characteristic, maxAge);
+    }
+
+    //    Write queued behind other operations shouldn't let reads return value it's going to replace
+    private void invalidate(AttributeUuid serviceUUID, AttributeUuid characteristicUUID) {
+        final BluetoothGattCharacteristic characteristic = resolve(serviceUUID, characteristicUUID);
+        if (characteristic != null) {
+            valueCache.invalidate(characteristic);
         }
-        return services.get(shortUuid.toLowerCase());
     }
 
-    public String getFullCharacteristicUuid(String shortUuid){
-        if (shortUuid==null){
+    private BluetoothGattCharacteristic resolve(AttributeUuid serviceUUID, AttributeUuid characteristicUUID) {
+        final BluetoothGatt gatt = this.gatt;
+        if (!servicesDiscovered || gatt == null) {
             return null;
         }
-        if (shortUuid.length()!=4){
-            return shortUuid;
+        try {
+            return findCharacteristic(gatt, serviceUUID, characteristicUUID);
+        } catch (GattOperationException e) {
+            return null;
         }
-        return characteristics.get(shortUuid.toLowerCase());
     }
 
-    public interface OnConnectedListener {
-        void call();
+    /**
+     * @return milliseconds from connection request to connected state, null if not reached
+     */
+    public Long getConnectTime() {
+        return since(connectedAt);
     }
 
-    public interface ServicesDiscoveredCallback {
-        void call(BluetoothGatt gatt);
+    public Long getDiscoveryTime() {
+        return since(discoveredAt);
     }
 
-    public interface CharacteristicsDiscoveringCallback {
-        void call(BluetoothGatt gatt);
+    /**
+     * @return milliseconds from connection request to the first value read from device, null if nothing is read yet
+     */
+    public Long getTimeToFirstRead() {
+        return since(firstReadAt);
     }
 
-    public interface DisconnectListener {
-        void onDisconnect();
+    private Long since(long milestone) {
+        return milestone != 0 ? milestone - connectStartedAt : null;
     }
 
-    public interface StatusListener {
-        void onStatus(boolean ok, String result);
+    public long getCacheHits() {
+        return valueCache.getHits();
     }
 
-    abstract public static class NotificationSubscription extends CmdResult {
-        private static final String DESCRIPTOR_UUID = "00002902-0000-1000-8000-00805f9b34fb";
-        private final InteractiveGattCallback.StatusListener statusListener;
-        private final boolean isOn;
+    public long getCacheMisses() {
+        return valueCache.getMisses();
+    }
 
-        protected NotificationSubscription(String serviceUUID, String characteristicUUID, String device, Context context,
-                                           boolean isOn, InteractiveGattCallback.StatusListener statusListener) {
-            super(serviceUUID, characteristicUUID, device, context);
-            this.isOn = isOn;
-            this.statusListener = statusListener;
-        }
+    public int getCachedValues() {
+        return valueCache.size();
+    }
 
-        public boolean isOn() {
-            return isOn;
-        }
+    /**
+     * Queues write, which starts when all previous operations on this connection are complete
+     */
+    public ListenableFuture<Integer> writeCharacteristic(AttributeUuid serviceUUID, AttributeUuid characteristicUUID, GattCharacteristicCallBack callBack, byte[] value, final InteractiveGattCallback.StatusListener statusListener) {
+        invalidate(serviceUUID, characteristicUUID);
+        final ListenableFuture<Integer> future = submit(new GattOperation.Write(serviceUUID, characteristicUUID, value, GatewayTimer.Timeout.WRITE.get()));
+        Futures.addCallback(future, new FutureCallback<Integer>() {
+            @Override
+            public void onSuccess(Integer status) {
+                callBack.onWrite(status);
+                if (statusListener != null) {
+                    statusListener.onStatus(true, context.getString(R.string.status_json_success));
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                if (t instanceof GattOperationException) {
+                    callBack.onWrite(((GattOperationException) t).getStatus());
+                }
+                if (statusListener != null) {
+                    statusListener.onStatus(false, t.getMessage());
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+
+    /**
+     * Queues streaming write of value of any length, chunked to current MTU
+     */
+    public ListenableFuture<BTLEWriteStreamResult> writeCharacteristicStream(AttributeUuid serviceUUID, AttributeUuid characteristicUUID, GattCharacteristicCallBack callBack, byte[] value, final InteractiveGattCallback.StatusListener statusListener) {
+        final long timeout = GatewayTimer.Timeout.WRITE.get() + STREAM_CHUNK_TIMEOUT * GattOperation.WriteStream.chunkCount(value.length, getMtu());
+        invalidate(serviceUUID, characteristicUUID);
+        final ListenableFuture<BTLEWriteStreamResult> future = submit(new GattOperation.WriteStream(serviceUUID, characteristicUUID, value, timeout));
+        Futures.addCallback(future, new FutureCallback<BTLEWriteStreamResult>() {
+            @Override
+            public void onSuccess(BTLEWriteStreamResult result) {
+                callBack.onWriteStream(result);
+            }
 
-        //        should succeed only if service/characteristic found and all return results are true
-        public void subscribe(BluetoothGatt gatt) {
-            final BluetoothGattService service = gatt.getService(UUID.fromString(serviceUUID));
-            if (service != null) {
-                BluetoothGattCharacteristic characteristic = service.getCharacteristic(UUID.fromString(characteristicUUID));
+            @Override
+            public void onFailure(Throwable t) {
+                if (statusListener != null) {
+                    statusListener.onStatus(false, t.getMessage());
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
 
-                if (characteristic != null) {
+    public int getMtu() {
+        final DeviceConnection connection = this.connection;
+        return connection != null ? connection.getMtu() : DEFAULT_MTU;
+    }
 
-                    if (gatt.setCharacteristicNotification(characteristic, isOn)) {
-                        BluetoothGattDescriptor descriptor = characteristic.getDescriptor(UUID.fromString(DESCRIPTOR_UUID));
+    //    Every operation goes through here to keep connection priority up while link is busy
+    private <T> ListenableFuture<T> submit(GattOperation<T> operation) {
+        onActivity();
+        return operations.submit(operation);
+    }
 
-                        if (descriptor != null) {
-                            if (!descriptor.setValue(isOn ?
-                                    BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE :
-                                    BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE)) {
-                                statusListener.onStatus(false, "failed set descriptor value");
-                                return;
-                            }
+    //    Right after connection: MTU exchange goes ahead of everything queued, priority and PHY are requested from the profile.
+    //    PHY update is link layer procedure, it doesn't occupy ATT queue. Without preference current PHY is just read for status
+    private void configureLink() {
+        final ConnectionProfile profile = this.profile;
+        if (profile.getMtu() > DEFAULT_MTU) {
+            operations.submitFirst(new GattOperation.RequestMtu(profile.getMtu(), GatewayTimer.Timeout.MTU.get()));
+        }
+        if (profile.getPhy() == null || !connector.setPreferredPhy(gatt, profile.getPhy())) {
+            connector.readPhy(gatt);
+        }
+        onActivity();
+    }
 
-                            if (gatt.writeDescriptor(descriptor)) {
-                                statusListener.onStatus(true, "");
-                                return;
-                            }
-                        }
-                        statusListener.onStatus(false, "failed set characteristic notification");
-                    }
-                }
+    private void onActivity() {
+        lastActivity = SystemClock.elapsedRealtime();
+        final ConnectionProfile profile = this.profile;
+        final DeviceConnection connection = this.connection;
+        if (gatt == null || connection == null) {
+            return;
+        }
+        if (connection.getPriority() != profile.getPriority()) {
+            requestPriority(connection, profile.getPriority());
+        }
+        synchronized (this) {
+            if (idleCheck == null && profile.getPriority() != ConnectionPriority.BALANCED && profile.getIdleTimeout() > 0) {
+                idleCheck = GatewayTimer.schedule(this::checkIdle, profile.getIdleTimeout());
             }
+        }
+    }
 
-            statusListener.onStatus(false, context.getString(R.string.status_json_not_found));
+    //    Drops priority to balanced if nothing has happened on connection for idle timeout
+    private void checkIdle() {
+        final ConnectionProfile profile = this.profile;
+        final DeviceConnection connection = this.connection;
+        synchronized (this) {
+            idleCheck = null;
+            if (gatt == null || connection == null || connection.getPriority() == ConnectionPriority.BALANCED || profile.getIdleTimeout() == 0) {
+                return;
+            }
+            final long idleFor = operations.size() > 0 ? 0 : SystemClock.elapsedRealtime() - lastActivity;
+            if (idleFor < profile.getIdleTimeout()) {
+                idleCheck = GatewayTimer.schedule(this::checkIdle, profile.getIdleTimeout() - idleFor);
+                return;
+            }
         }
+        Timber.d("connection is idle - back to balanced priority");
+        requestPriority(connection, ConnectionPriority.BALANCED);
+    }
 
-        abstract public void onNotification(byte[] value);
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    private void requestPriority(DeviceConnection connection, ConnectionPriority priority) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        if (gatt.requestConnectionPriority(priority.getValue())) {
+            connection.setPriority(priority);
+            Timber.d("connection priority: %s", priority.getName());
+        }
     }
 
-    public class ReadCharacteristicOperation extends CharacteristicOperation {
+    //    Before request uuids are converted to long format because Android BLE Api understands only it.
+    //    Conversion can't be done earlier because services might be not discovered at that moment
+    private BluetoothGattCharacteristic findCharacteristic(BluetoothGatt gatt, AttributeUuid serviceUuid, AttributeUuid characteristicUuid) throws GattOperationException {
+        return findEntry(serviceUuid, characteristicUuid).characteristic;
+    }
 
-        public ReadCharacteristicOperation(String device, String serviceUUID, String characteristicUUID, GattCharacteristicCallBack callBack, InteractiveGattCallback.StatusListener statusListener, Context context) {
-            super(device, serviceUUID, characteristicUUID, callBack, statusListener, context);
+    //    Notification descriptor comes resolved with characteristic, others are rare and looked up
+    private BluetoothGattDescriptor findDescriptor(BluetoothGatt gatt, AttributeUuid serviceUuid, AttributeUuid characteristicUuid, UUID descriptorUuid) throws GattOperationException {
+        final AttributeTable.Entry entry = findEntry(serviceUuid, characteristicUuid);
+        final BluetoothGattDescriptor descriptor = AttributeTable.CCC_UUID.equals(descriptorUuid) ? entry.ccc : entry.characteristic.getDescriptor(descriptorUuid);
+        if (descriptor == null) {
+            throw new GattOperationException("descriptor " + descriptorUuid + " not found");
         }
+        return descriptor;
+    }
 
-        @Override
-        protected void request(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            if (!gatt.readCharacteristic(characteristic) && statusListener != null) {
-                statusListener.onStatus(false, context.getString(R.string.status_json_fail));
-            }
+    private AttributeTable.Entry findEntry(AttributeUuid serviceUuid, AttributeUuid characteristicUuid) throws GattOperationException {
+        final UUID fullServiceUuid = resolve(services, serviceUuid, R.string.status_service_uuid_nf);
+        final UUID fullCharacteristicUuid = resolve(characteristics, characteristicUuid, R.string.status_char_uuid_nf);
+        final AttributeTable.Entry entry = attributes.get(fullServiceUuid, fullCharacteristicUuid);
+        if (entry == null) {
+            throw new GattOperationException(context.getString(R.string.status_json_not_found));
         }
+        return entry;
+    }
 
-        @Override
-        public void onResult(BluetoothGattCharacteristic characteristic, int status) {
-            byte[] value = characteristic.getValue();
+    private UUID resolve(UuidTable table, AttributeUuid uuid, int notFoundMessage) throws GattOperationException {
+        final UUID resolved = table.resolve(uuid);
+        if (resolved != null) {
+            return resolved;
+        }
+        if (table.isAmbiguous(uuid)) {
+            throw new GattOperationException(context.getString(R.string.status_uuid_ambiguous, uuid));
+        }
+        throw new GattOperationException(context.getString(notFoundMessage));
+    }
 
-            if (status == BluetoothGatt.GATT_SUCCESS) {
-                callBack.onRead(value);
-                if (statusListener != null) {
-                    statusListener.onStatus(true, StatusJson.bytes2String(value));
-//                            "0x" + String.valueOf(Hex.encodeHex(value))));
-                }
-                return;
-            }
+    public UUID getFullServiceUuid(AttributeUuid uuid) {
+        return services.resolve(uuid);
+    }
+
+    public UUID getFullCharacteristicUuid(AttributeUuid uuid) {
+        return characteristics.resolve(uuid);
+    }
+
+    //    Should succeed only if characteristic is found and its descriptor is written
+    private void attach(NotificationSubscription subscription) {
+        final AttributeTable.Entry entry;
+        try {
+            entry = findEntry(subscription.serviceUUID, subscription.characteristicUUID);
+        } catch (GattOperationException e) {
+            subscription.statusListener.onStatus(false, e.getMessage());
+            return;
+        }
+        final NotificationTable.Topic topic = notifications.add(entry, subscription);
+        report(enableOnce(topic), subscription.statusListener);
+    }
 
-//          TODO: handle BluetoothGatt.GATT_WRITE_NOT_PERMITTED and others
-            if (statusListener != null) {
-                statusListener.onStatus(false, statusWithValue(status, value));
+    //    Descriptor is written by the first subscriber, the others share its result
+    private ListenableFuture<Integer> enableOnce(NotificationTable.Topic topic) {
+        synchronized (topic) {
+            if (topic.ccc == null) {
+                topic.ccc = writeCcc(topic.serviceUuid, topic.characteristic, true);
             }
+            return topic.ccc;
         }
     }
 
-    public class WriteCharacteristicOperation extends CharacteristicOperation {
-        private final byte[] value;
+    private void enable(NotificationTable.Topic topic) {
+        synchronized (topic) {
+            topic.ccc = writeCcc(topic.serviceUuid, topic.characteristic, true);
+        }
+    }
 
-        public WriteCharacteristicOperation(String device, String serviceUUID, String characteristicUUID, GattCharacteristicCallBack callBack, byte[] value, final InteractiveGattCallback.StatusListener statusListener, Context context) {
-            super(device, serviceUUID, characteristicUUID, callBack, statusListener, context);
-            this.value = value;
+    private ListenableFuture<Integer> writeCcc(UUID serviceUuid, BluetoothGattCharacteristic characteristic, boolean enable) {
+        if (characteristic == null) {
+            return Futures.immediateFailedFuture(new GattOperationException(context.getString(R.string.status_json_not_found)));
         }
+        if (!gatt.setCharacteristicNotification(characteristic, enable)) {
+            return Futures.immediateFailedFuture(new GattOperationException("failed set characteristic notification"));
+        }
+//        descriptor write goes through the queue like any other request
+        final byte[] value = enable ? BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE : BluetoothGattDescriptor.DISABLE_NOTIFICATION_VALUE;
+        return operations.submit(new GattOperation.WriteDescriptor(AttributeUuid.exact(serviceUuid), AttributeUuid.exact(characteristic.getUuid()), AttributeTable.CCC_UUID, value,
+                GatewayTimer.Timeout.DESCRIPTOR_WRITE.get()));
+    }
 
-        @Override
-        protected void request(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic) {
-            characteristic.setValue(value);
-            if (!gatt.writeCharacteristic(characteristic) && statusListener != null) {
-                statusListener.onStatus(false, context.getString(R.string.status_json_fail));
+    private static void report(ListenableFuture<Integer> future, StatusListener statusListener) {
+        Futures.addCallback(future, new FutureCallback<Integer>() {
+            @Override
+            public void onSuccess(Integer status) {
+                statusListener.onStatus(true, "");
             }
-        }
 
-        @Override
-        public void onResult(BluetoothGattCharacteristic characteristic, int status) {
-            callBack.onWrite(status);
-            if (statusListener != null) {
-                if (status == BluetoothGatt.GATT_SUCCESS) {
-                    statusListener.onStatus(true, context.getString(R.string.status_json_success));
-                } else {
-                    switch (status) {
-                        case BluetoothGatt.GATT_WRITE_NOT_PERMITTED:
-                            break;
-//                TODO: handle other BluetoothGatt error codes
-                    }
-                    statusListener.onStatus(false, StatusJson.bytes2String(value));
-                }
+            @Override
+            public void onFailure(Throwable t) {
+                statusListener.onStatus(false, t.getMessage());
             }
-        }
+        }, MoreExecutors.directExecutor());
+    }
+
+    public interface OnConnectedListener {
+        void call();
+    }
+
+    public interface ServicesDiscoveredCallback {
+        void call(BluetoothGatt gatt);
+    }
+
+    public interface CharacteristicsDiscoveringCallback {
+        void call(BluetoothGatt gatt);
+    }
+
+    /**
+     * Receives every discovered layout of device, to keep it across connections
+     */
+    public interface LayoutListener {
+        void onDiscovered(List<BluetoothGattService> services);
+
+        //    Device has changed its services, stored layout is wrong
+        void onInvalidated();
+    }
+
+    public interface DisconnectListener {
+        void onDisconnect();
     }
 
-    public abstract class CharacteristicOperation extends CmdResult {
-        protected final GattCharacteristicCallBack callBack;
-        protected final InteractiveGattCallback.StatusListener statusListener;
+    public interface StatusListener {
+        void onStatus(boolean ok, String result);
+    }
 
-        public CharacteristicOperation(String device, String serviceUUID, String characteristicUUID, GattCharacteristicCallBack callBack, InteractiveGattCallback.StatusListener statusListener, Context context) {
-//            first time we init operation with short or long uuid - no matter which format
+    /**
+     * Single consumer of characteristic's notifications with its own delivery counters
+     */
+    abstract public static class NotificationSubscription extends CmdResult {
+        private final InteractiveGattCallback.StatusListener statusListener;
+        //    unique within connection, assigned when subscription is added
+        int id;
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final DeliveryPolicy policy;
+
+        protected NotificationSubscription(AttributeUuid serviceUUID, AttributeUuid characteristicUUID, long device, Context context,
+                                           DeliveryPolicy policy, InteractiveGattCallback.StatusListener statusListener) {
             super(serviceUUID, characteristicUUID, device, context);
-            this.callBack = callBack;
+            this.policy = policy;
             this.statusListener = statusListener;
         }
 
-        public void call(BluetoothGatt gatt) {
-//            before execute call, we need convert uuids to long format because Android BLE Api understands only last
-//            converstion can't be done in constructor because at that moment services might be not discovered
-            if ((serviceUUID = getFullServiceUuid(serviceUUID)) == null) {
-                statusListener.onStatus(false, context.getString(R.string.status_service_uuid_nf));
-                return;
-            }
-            if ((characteristicUUID = getFullCharacteristicUuid(characteristicUUID)) == null) {
-                statusListener.onStatus(false,context.getString(R.string.status_char_uuid_nf));
-                return;
-            }
-//            call
-            BluetoothGattService service;
-            try {
-                service = gatt.getService(UUID.fromString(serviceUUID));
-            } catch (Exception e) {
-                statusListener.onStatus(false,"gatt.getService(uuid) crashed: " + e.getMessage());
-                return;
-            }
+        public DeliveryPolicy getPolicy() {
+            return policy;
+        }
 
-            if (service != null) {
-                BluetoothGattCharacteristic characteristic = service.getCharacteristic(UUID.fromString(characteristicUUID));
-                if (characteristic != null) {
-                    request(gatt, characteristic);
-//                    post delayed handler for operations without response
-                    new Thread() {
-                        @Override
-                        public void run() {
-                            try {
-                                sleep(BluetoothServer.COMMAND_SCAN_DELAY);
-                                //if (!future.isGetDone()) {
-                                statusListener.onStatus(true,context.getString(R.string.status_timeout));
-                                //}
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                    }.start();
-                    return;
-                }
-            }
+        public int getId() {
+            return id;
+        }
+
+        public UUID getServiceUuid() {
+            return serviceUUID.uuid;
+        }
+
+        public UUID getCharacteristicUuid() {
+            return characteristicUUID.uuid;
+        }
 
-            //if (future != null) {
-                statusListener.onStatus(false, context.getString(R.string.status_json_not_found));
-            //}
+        public long getDelivered() {
+            return delivered.get();
         }
 
-        protected String statusWithValue(int status, byte[] value) {
-            return "{\"status\":\"" + String.valueOf(status) + "\",\"value\"=\"0x" + String.valueOf(Hex.encodeHex(value)) + "\"}";
+        //    values consumer failed to take, so one broken subscriber doesn't stop the others
+        public long getDropped() {
+            return dropped.get();
         }
 
-        abstract protected void request(BluetoothGatt gatt, BluetoothGattCharacteristic characteristic);
+        void deliver(byte[] value) {
+            policy.offer(value, this::consume);
+        }
 
-        abstract public void onResult(BluetoothGattCharacteristic characteristic, int status);
+        //    Value passed by delivery policy, on Bluetooth callback thread or on timer thread for delayed ones
+        private void consume(byte[] value) {
+            try {
+                onNotification(value);
+                delivered.incrementAndGet();
+            } catch (RuntimeException e) {
+                dropped.incrementAndGet();
+                Timber.e("notification subscriber %d failed: %s", id, e.toString());
+            }
+        }
+
+        abstract public void onNotification(byte[] value);
     }
 }
@@ -0,0 +1,177 @@
+package com.dataart.btle_android.btle_gateway.gatt_callbacks;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+
+import com.dataart.btle_android.btle_gateway.gateway_helpers.AttributeUuid;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Notification subscriptions of single connection, grouped into topics by characteristic. Changed value is routed
+ * to its topic by characteristic instance with single lookup and without locking; route map is replaced as a whole
+ * when topics or characteristic instances change, which is rare.
+ * <p>
+ * Subscribers of one characteristic share its CCC descriptor: the first one enables it and the last one disables it
+ */
+class NotificationTable {
+
+    private final List<Topic> topics = new ArrayList<>();
+    //    subscriptions made before services are discovered, their uuids can't be resolved yet
+    private final List<InteractiveGattCallback.NotificationSubscription> pending = new ArrayList<>();
+    private volatile Map<BluetoothGattCharacteristic, Topic> routes = new IdentityHashMap<>();
+    private int nextId = 1;
+
+    /**
+     * @return topic of changed characteristic or null if nobody is subscribed to it
+     */
+    Topic route(BluetoothGattCharacteristic characteristic) {
+        return routes.get(characteristic);
+    }
+
+    synchronized void addPending(InteractiveGattCallback.NotificationSubscription subscription) {
+        subscription.id = nextId++;
+        pending.add(subscription);
+    }
+
+    synchronized List<InteractiveGattCallback.NotificationSubscription> takePending() {
+        final List<InteractiveGattCallback.NotificationSubscription> taken = new ArrayList<>(pending);
+        pending.clear();
+        return taken;
+    }
+
+    /**
+     * Drops subscription which is still waiting for discovery
+     *
+     * @param id subscription id, or 0 for the latest subscription to given uuids
+     * @return false if there is no such subscription
+     */
+    synchronized boolean removePending(AttributeUuid serviceUuid, AttributeUuid characteristicUuid, int id) {
+        for (int i = pending.size() - 1; i >= 0; i--) {
+            final InteractiveGattCallback.NotificationSubscription subscription = pending.get(i);
+            if (id == 0 ? serviceUuid.equals(subscription.serviceUUID) && characteristicUuid.equals(subscription.characteristicUUID)
+                    : subscription.id == id) {
+                pending.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds subscriber to topic of discovered characteristic, creating the topic if it's the first one
+     */
+    synchronized Topic add(AttributeTable.Entry entry, InteractiveGattCallback.NotificationSubscription subscription) {
+        if (subscription.id == 0) {
+            subscription.id = nextId++;
+        }
+        Topic topic = find(entry.serviceUuid, entry.characteristic.getUuid());
+        if (topic == null) {
+            topic = new Topic(entry.serviceUuid, entry.characteristic.getUuid());
+            topic.characteristic = entry.characteristic;
+            topics.add(topic);
+            updateRoutes();
+        }
+        topic.subscribers.add(subscription);
+        return topic;
+    }
+
+    /**
+     * Removes subscriber, and the topic with it if that was the last one
+     *
+     * @param id subscription id, or 0 for the latest subscription to the characteristic
+     * @return topic the subscriber was removed from, or null if there was no such subscriber
+     */
+    synchronized Topic remove(UUID serviceUuid, UUID characteristicUuid, int id) {
+        final Topic topic = find(serviceUuid, characteristicUuid);
+        if (topic == null) {
+            return null;
+        }
+        InteractiveGattCallback.NotificationSubscription removed = null;
+        for (int i = topic.subscribers.size() - 1; i >= 0 && removed == null; i--) {
+            final InteractiveGattCallback.NotificationSubscription subscription = topic.subscribers.get(i);
+            if (id == 0 || subscription.id == id) {
+                removed = subscription;
+            }
+        }
+        if (removed == null) {
+            return null;
+        }
+        topic.subscribers.remove(removed);
+        if (topic.subscribers.isEmpty()) {
+            topics.remove(topic);
+            updateRoutes();
+        }
+        return topic;
+    }
+
+    /**
+     * Binds topics to characteristic instances of new discovery
+     *
+     * @return topics to enable again
+     */
+    synchronized List<Topic> bind(AttributeTable attributes) {
+        for (Topic topic : topics) {
+            final AttributeTable.Entry entry = attributes.get(topic.serviceUuid, topic.characteristicUuid);
+            topic.characteristic = entry != null ? entry.characteristic : null;
+        }
+        updateRoutes();
+        return new ArrayList<>(topics);
+    }
+
+    synchronized List<InteractiveGattCallback.NotificationSubscription> getSubscriptions() {
+        final List<InteractiveGattCallback.NotificationSubscription> subscriptions = new ArrayList<>(pending);
+        for (Topic topic : topics) {
+            subscriptions.addAll(topic.subscribers);
+        }
+        return subscriptions;
+    }
+
+    private Topic find(UUID serviceUuid, UUID characteristicUuid) {
+//        a few topics per connection, linear search is the fastest
+        for (Topic topic : topics) {
+            if (topic.characteristicUuid.equals(characteristicUuid) && topic.serviceUuid.equals(serviceUuid)) {
+                return topic;
+            }
+        }
+        return null;
+    }
+
+    //    Should be called under lock
+    private void updateRoutes() {
+        final Map<BluetoothGattCharacteristic, Topic> updated = new IdentityHashMap<>();
+        for (Topic topic : topics) {
+            if (topic.characteristic != null) {
+                updated.put(topic.characteristic, topic);
+            }
+        }
+        routes = updated;
+    }
+
+    static class Topic {
+        final UUID serviceUuid;
+        final UUID characteristicUuid;
+        final List<InteractiveGattCallback.NotificationSubscription> subscribers = new CopyOnWriteArrayList<>();
+        //    instance of the current discovery, null if device doesn't have it anymore
+        volatile BluetoothGattCharacteristic characteristic;
+        //    enabling descriptor write shared by subscribers, null until started. Guarded by the topic
+        ListenableFuture<Integer> ccc;
+
+        private Topic(UUID serviceUuid, UUID characteristicUuid) {
+            this.serviceUuid = serviceUuid;
+            this.characteristicUuid = characteristicUuid;
+        }
+
+        void deliver(byte[] value) {
+            for (InteractiveGattCallback.NotificationSubscription subscription : subscribers) {
+                subscription.deliver(value);
+            }
+        }
+    }
+}
@@ -5,15 +5,27 @@ package com.dataart.btle_android.btle_gateway.gatt_callbacks;
  *
  * Wraps data for json conversion
  */
-abstract class StatusJson {
-    static String bytes2String(byte[] value) {
-        StringBuilder s = new StringBuilder();
+public abstract class StatusJson {
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    //    "0x01, 0xAB" - 6 characters per byte, so formatted by hand into buffer of exact size
+    public static String bytes2String(byte[] value) {
+        if (value.length == 0) {
+            return "";
+        }
+        final char[] chars = new char[value.length * 6 - 2];
+        int i = 0;
         for (byte b : value) {
-            if (s.length() > 0) {
-                s.append(", ");
+            if (i > 0) {
+                chars[i++] = ',';
+                chars[i++] = ' ';
             }
-            s.append(String.format("0x%02X", b));
+            chars[i++] = '0';
+            chars[i++] = 'x';
+            chars[i++] = HEX[(b >> 4) & 0xF];
+            chars[i++] = HEX[b & 0xF];
         }
-        return s.toString();
+        return new String(chars);
     }
 }
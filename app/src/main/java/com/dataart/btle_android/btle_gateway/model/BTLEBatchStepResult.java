@@ -0,0 +1,32 @@
+package com.dataart.btle_android.btle_gateway.model;
+
+/**
+ * Outcome of single operation of gatt/batch
+ */
+public class BTLEBatchStepResult {
+
+    public static final String COMPLETED = "completed";
+    public static final String FAILED = "failed";
+    //    not run because earlier operation failed with "stop" policy
+    public static final String SKIPPED = "skipped";
+
+    public final String command;
+    public final String device;
+    public final String serviceUUID;
+    public final String characteristicUUID;
+    public final String status;
+    //    hex value for reads, null otherwise
+    public final String value;
+    public final String reason;
+
+    public BTLEBatchStepResult(String command, String device, String serviceUUID, String characteristicUUID,
+                               String status, String value, String reason) {
+        this.command = command;
+        this.device = device;
+        this.serviceUUID = serviceUUID;
+        this.characteristicUUID = characteristicUUID;
+        this.status = status;
+        this.value = value;
+        this.reason = reason;
+    }
+}
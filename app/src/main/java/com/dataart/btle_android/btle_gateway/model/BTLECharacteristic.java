@@ -1,5 +1,7 @@
 package com.dataart.btle_android.btle_gateway.model;
 
+import java.util.List;
+
 /**
  * Created by alrybakov
  */
@@ -8,10 +10,18 @@ public class BTLECharacteristic {
     public final String device;
     public final String characteristicUUID;
     public final String serviceUUID;
+    //    position in discovery order from 1, may be used in commands instead of uuids
+    public final int handle;
+    //    BluetoothGattCharacteristic.PROPERTY_* bits
+    public final int properties;
+    public final List<String> descriptors;
 
-    public BTLECharacteristic(String deviceUUID, String serviceUUID, String characteristicUUID) {
+    public BTLECharacteristic(String deviceUUID, String serviceUUID, String characteristicUUID, int handle, int properties, List<String> descriptors) {
         this.serviceUUID = serviceUUID;
+        this.handle = handle;
         this.device = deviceUUID;
         this.characteristicUUID = characteristicUUID;
+        this.properties = properties;
+        this.descriptors = descriptors;
     }
 }
@@ -0,0 +1,52 @@
+package com.dataart.btle_android.btle_gateway.model;
+
+import java.util.List;
+
+/**
+ * Link parameters of established connection
+ */
+public class BTLEConnectionStatus {
+
+    public final String device;
+    public final int mtu;
+    public final String priority;
+    //    priority requested by device profile, current one may be balanced while connection is idle
+    public final String profilePriority;
+    public final long idleTimeout;
+    public final int pendingOperations;
+    //    PHY in use, null if platform doesn't report it
+    public final String txPhy;
+    public final String rxPhy;
+    //    PHY requested by device profile, null for platform default
+    public final String profilePhy;
+    //    values cached from reads and notifications, and reads with maxAge served from cache or sent to device
+    public final int cachedValues;
+    public final long cacheHits;
+    public final long cacheMisses;
+    //    milliseconds from connection request to connected state, discovered services and the first read, null until reached
+    public final Long connectMs;
+    public final Long discoveryMs;
+    public final Long firstReadMs;
+    public final List<BTLESubscriptionStatus> subscriptions;
+
+    public BTLEConnectionStatus(String device, int mtu, String priority, String profilePriority, long idleTimeout, int pendingOperations,
+                                String txPhy, String rxPhy, String profilePhy, int cachedValues, long cacheHits, long cacheMisses,
+                                Long connectMs, Long discoveryMs, Long firstReadMs, List<BTLESubscriptionStatus> subscriptions) {
+        this.device = device;
+        this.mtu = mtu;
+        this.priority = priority;
+        this.profilePriority = profilePriority;
+        this.idleTimeout = idleTimeout;
+        this.pendingOperations = pendingOperations;
+        this.txPhy = txPhy;
+        this.rxPhy = rxPhy;
+        this.profilePhy = profilePhy;
+        this.cachedValues = cachedValues;
+        this.cacheHits = cacheHits;
+        this.cacheMisses = cacheMisses;
+        this.connectMs = connectMs;
+        this.discoveryMs = discoveryMs;
+        this.firstReadMs = firstReadMs;
+        this.subscriptions = subscriptions;
+    }
+}
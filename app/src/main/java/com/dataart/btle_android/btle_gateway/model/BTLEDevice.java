@@ -3,6 +3,9 @@ package com.dataart.btle_android.btle_gateway.model;
 import android.os.Parcel;
 import android.os.Parcelable;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Created by alrybakov
  */
@@ -10,10 +13,24 @@ public class BTLEDevice implements Parcelable {
 
     private final String name;
     private final String address;
+    private final int rssi;
+    //    Kalman-smoothed RSSI and distance estimate in meters, null if device doesn't advertise TX power
+    private final Double smoothedRssi;
+    private final Double distance;
+    //    Service data from advertisement: service uuid to hex value
+    private final Map<String, String> serviceData;
 
     public BTLEDevice(String name, String address) {
+        this(name, address, 0, null, null, null);
+    }
+
+    public BTLEDevice(String name, String address, int rssi, Double smoothedRssi, Double distance, Map<String, String> serviceData) {
         this.name = name;
         this.address = address;
+        this.rssi = rssi;
+        this.smoothedRssi = smoothedRssi;
+        this.distance = distance;
+        this.serviceData = serviceData;
     }
 
     public String getAddress() {
@@ -24,6 +41,22 @@ public class BTLEDevice implements Parcelable {
         return name;
     }
 
+    public int getRssi() {
+        return rssi;
+    }
+
+    public Double getSmoothedRssi() {
+        return smoothedRssi;
+    }
+
+    public Double getDistance() {
+        return distance;
+    }
+
+    public Map<String, String> getServiceData() {
+        return serviceData;
+    }
+
     @Override
     public int describeContents() {
         return 0;
@@ -33,12 +66,23 @@ public class BTLEDevice implements Parcelable {
     public void writeToParcel(Parcel dest, int flags) {
         dest.writeString(name);
         dest.writeString(address);
+        dest.writeInt(rssi);
+        dest.writeValue(smoothedRssi);
+        dest.writeValue(distance);
+        dest.writeMap(serviceData);
     }
 
     public static final Parcelable.Creator<BTLEDevice> CREATOR
             = new Parcelable.Creator<BTLEDevice>() {
         public BTLEDevice createFromParcel(Parcel in) {
-            return new BTLEDevice(in.readString(), in.readString());
+            final String name = in.readString();
+            final String address = in.readString();
+            final int rssi = in.readInt();
+            final Double smoothedRssi = (Double) in.readValue(Double.class.getClassLoader());
+            final Double distance = (Double) in.readValue(Double.class.getClassLoader());
+            final HashMap<String, String> serviceData = new HashMap<>();
+            in.readMap(serviceData, String.class.getClassLoader());
+            return new BTLEDevice(name, address, rssi, smoothedRssi, distance, serviceData.isEmpty() ? null : serviceData);
         }
 
         public BTLEDevice[] newArray(int size) {
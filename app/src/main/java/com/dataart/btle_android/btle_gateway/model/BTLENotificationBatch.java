@@ -0,0 +1,22 @@
+package com.dataart.btle_android.btle_gateway.model;
+
+/**
+ * Values of one characteristic collected within window, oldest first, each one with its arrival time
+ */
+public class BTLENotificationBatch {
+
+    public final String device;
+    public final String characteristicUUID;
+    public final int count;
+    //    milliseconds since epoch
+    public final long[] timestamps;
+    public final String[] values;
+
+    public BTLENotificationBatch(String device, String characteristicUUID, long[] timestamps, String[] values) {
+        this.device = device;
+        this.characteristicUUID = characteristicUUID;
+        this.count = values.length;
+        this.timestamps = timestamps;
+        this.values = values;
+    }
+}
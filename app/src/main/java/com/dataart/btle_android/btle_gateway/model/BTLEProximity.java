@@ -0,0 +1,30 @@
+package com.dataart.btle_android.btle_gateway.model;
+
+/**
+ * Smoothed RSSI and distance estimate of discovered device, with recent raw samples.
+ * Times are wall-clock milliseconds
+ */
+public class BTLEProximity {
+
+    public final String address;
+    public final int rssi;
+    public final double smoothedRssi;
+    //    null if device doesn't advertise TX power
+    public final Integer txPower;
+    public final Double distance;
+    public final long lastSeen;
+    public final long[] sampleTimes;
+    public final int[] sampleRssi;
+
+    public BTLEProximity(String address, int rssi, double smoothedRssi, Integer txPower, Double distance,
+                         long lastSeen, long[] sampleTimes, int[] sampleRssi) {
+        this.address = address;
+        this.rssi = rssi;
+        this.smoothedRssi = smoothedRssi;
+        this.txPower = txPower;
+        this.distance = distance;
+        this.lastSeen = lastSeen;
+        this.sampleTimes = sampleTimes;
+        this.sampleRssi = sampleRssi;
+    }
+}
@@ -0,0 +1,22 @@
+package com.dataart.btle_android.btle_gateway.model;
+
+/**
+ * Value or failure of single characteristic of gatt/read/multiple
+ */
+public class BTLEReadResult {
+
+    public final String status;
+    //    hex value, null if read failed
+    public final String value;
+    public final String reason;
+
+    public BTLEReadResult(String status, String value, String reason) {
+        this.status = status;
+        this.value = value;
+        this.reason = reason;
+    }
+
+    public boolean isCompleted() {
+        return BTLEBatchStepResult.COMPLETED.equals(status);
+    }
+}
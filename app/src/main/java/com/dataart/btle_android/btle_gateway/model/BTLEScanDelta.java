@@ -0,0 +1,45 @@
+package com.dataart.btle_android.btle_gateway.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Coalesced changes of discovered devices since previous delta
+ */
+public class BTLEScanDelta {
+
+    public final List<BTLEDevice> added;
+    public final List<BTLEDevice> changed;
+    public final List<String> lost;
+
+    public BTLEScanDelta(List<BTLEDevice> added, List<BTLEDevice> changed, List<String> lost) {
+        this.added = added;
+        this.changed = changed;
+        this.lost = lost;
+    }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() && lost.isEmpty();
+    }
+
+    /**
+     * Splits delta into parts of at most maxItems entries each, to keep notification payload bounded
+     */
+    public List<BTLEScanDelta> split(int maxItems) {
+        final List<BTLEScanDelta> parts = new ArrayList<>();
+        int a = 0, c = 0, l = 0;
+        while (a < added.size() || c < changed.size() || l < lost.size() || parts.isEmpty()) {
+            int room = maxItems;
+            final int aEnd = Math.min(added.size(), a + room);
+            room -= aEnd - a;
+            final int cEnd = Math.min(changed.size(), c + room);
+            room -= cEnd - c;
+            final int lEnd = Math.min(lost.size(), l + room);
+            parts.add(new BTLEScanDelta(added.subList(a, aEnd), changed.subList(c, cEnd), lost.subList(l, lEnd)));
+            a = aEnd;
+            c = cEnd;
+            l = lEnd;
+        }
+        return parts;
+    }
+}
@@ -0,0 +1,32 @@
+package com.dataart.btle_android.btle_gateway.model;
+
+/**
+ * Scan delivery statistics since last scan start
+ */
+public class BTLEScanStatistics {
+
+    public final long durationMs;
+    public final long reportDelay;
+    public final long callbacks;
+    public final long results;
+    public final double callbacksPerSecond;
+    public final double resultsPerSecond;
+    public final double cpuTimeMs;
+    //    results dropped as repeats of previous advertisement, and their share of all results
+    public final long repeats;
+    public final double dedupRatio;
+
+    public BTLEScanStatistics(long durationMs, long reportDelay, long callbacks, long results,
+                              double callbacksPerSecond, double resultsPerSecond, double cpuTimeMs,
+                              long repeats, double dedupRatio) {
+        this.durationMs = durationMs;
+        this.reportDelay = reportDelay;
+        this.callbacks = callbacks;
+        this.results = results;
+        this.callbacksPerSecond = callbacksPerSecond;
+        this.resultsPerSecond = resultsPerSecond;
+        this.cpuTimeMs = cpuTimeMs;
+        this.repeats = repeats;
+        this.dedupRatio = dedupRatio;
+    }
+}
@@ -0,0 +1,17 @@
+package com.dataart.btle_android.btle_gateway.model;
+
+/**
+ * Final result of streaming scan - devices themselves were already sent as notifications
+ */
+public class BTLEScanSummary {
+
+    public final int devices;
+    public final int notifications;
+    public final long durationMs;
+
+    public BTLEScanSummary(int devices, int notifications, long durationMs) {
+        this.devices = devices;
+        this.notifications = notifications;
+        this.durationMs = durationMs;
+    }
+}
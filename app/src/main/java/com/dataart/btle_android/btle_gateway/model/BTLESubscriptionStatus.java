@@ -0,0 +1,28 @@
+package com.dataart.btle_android.btle_gateway.model;
+
+/**
+ * Notification subscription of connection with its delivery counters
+ */
+public class BTLESubscriptionStatus {
+
+    //    identifies subscription for gatt/notifications/stop
+    public final int subscription;
+    public final String serviceUUID;
+    public final String characteristicUUID;
+    public final String policy;
+    //    values passed to consumer, values consumer failed to take, and values held back by delivery policy
+    public final long delivered;
+    public final long dropped;
+    public final long suppressed;
+
+    public BTLESubscriptionStatus(int subscription, String serviceUUID, String characteristicUUID, String policy,
+                                  long delivered, long dropped, long suppressed) {
+        this.subscription = subscription;
+        this.serviceUUID = serviceUUID;
+        this.characteristicUUID = characteristicUUID;
+        this.policy = policy;
+        this.delivered = delivered;
+        this.dropped = dropped;
+        this.suppressed = suppressed;
+    }
+}
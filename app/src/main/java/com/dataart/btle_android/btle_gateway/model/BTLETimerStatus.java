@@ -0,0 +1,26 @@
+package com.dataart.btle_android.btle_gateway.model;
+
+import java.util.Map;
+
+/**
+ * Gateway timer gauges and current operation timeouts
+ */
+public class BTLETimerStatus {
+
+    //    timers waiting to fire, and counts since start
+    public final int pending;
+    public final long scheduled;
+    public final long fired;
+    //    live threads of the app, shouldn't grow with command rate
+    public final int threads;
+    //    milliseconds by operation type
+    public final Map<String, Long> timeouts;
+
+    public BTLETimerStatus(int pending, long scheduled, long fired, int threads, Map<String, Long> timeouts) {
+        this.pending = pending;
+        this.scheduled = scheduled;
+        this.fired = fired;
+        this.threads = threads;
+        this.timeouts = timeouts;
+    }
+}
@@ -0,0 +1,23 @@
+package com.dataart.btle_android.btle_gateway.model;
+
+/**
+ * Result of streaming write: how the value was split and achieved throughput
+ */
+public class BTLEWriteStreamResult {
+
+    public final int bytes;
+    public final int chunks;
+    public final int chunkSize;
+    public final boolean withoutResponse;
+    public final long durationMs;
+    public final double bytesPerSecond;
+
+    public BTLEWriteStreamResult(int bytes, int chunks, int chunkSize, boolean withoutResponse, long durationMs, double bytesPerSecond) {
+        this.bytes = bytes;
+        this.chunks = chunks;
+        this.chunkSize = chunkSize;
+        this.withoutResponse = withoutResponse;
+        this.durationMs = durationMs;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+}
@@ -2,24 +2,32 @@ package com.dataart.btle_android.btle_gateway.model;
 
 import android.bluetooth.BluetoothGatt;
 
+import com.dataart.btle_android.btle_gateway.gatt_callbacks.ConnectionPriority;
 import com.dataart.btle_android.btle_gateway.gatt_callbacks.InteractiveGattCallback;
+import com.dataart.btle_android.helpers.ble.base.Phy;
 
 /**
  * Created by Constantine Mars on 3/27/15.
  * Structure to store single gatt connection callback in one place
  */
 public class DeviceConnection {
-    private final String address;
+    private final long address;
     private final BluetoothGatt gatt;
     private final InteractiveGattCallback callback;
+    //    Negotiated link parameters, updated from gatt callback thread
+    private volatile int mtu = InteractiveGattCallback.DEFAULT_MTU;
+    private volatile ConnectionPriority priority = ConnectionPriority.BALANCED;
+    //    null until platform reports PHY, which happens only on Android O and above
+    private volatile Phy txPhy;
+    private volatile Phy rxPhy;
 
-    public DeviceConnection(String address, BluetoothGatt gatt, InteractiveGattCallback callback) {
+    public DeviceConnection(long address, BluetoothGatt gatt, InteractiveGattCallback callback) {
         this.address = address;
         this.gatt = gatt;
         this.callback = callback;
     }
 
-    public String getAddress() {
+    public long getAddress() {
         return address;
     }
 
@@ -30,4 +38,33 @@ public class DeviceConnection {
     public InteractiveGattCallback getCallback() {
         return callback;
     }
+
+    public int getMtu() {
+        return mtu;
+    }
+
+    public void setMtu(int mtu) {
+        this.mtu = mtu;
+    }
+
+    public ConnectionPriority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(ConnectionPriority priority) {
+        this.priority = priority;
+    }
+
+    public Phy getTxPhy() {
+        return txPhy;
+    }
+
+    public Phy getRxPhy() {
+        return rxPhy;
+    }
+
+    public void setPhy(Phy txPhy, Phy rxPhy) {
+        this.txPhy = txPhy;
+        this.rxPhy = rxPhy;
+    }
 }
@@ -0,0 +1,140 @@
+package com.dataart.btle_android.btle_gateway.server;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.dataart.btle_android.BTLEApplication;
+import com.dataart.btle_android.R;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.GatewayTimer;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.LongHashMap;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.MacAddress;
+import com.dataart.btle_android.helpers.ble.base.BleScanFilter;
+import com.dataart.btle_android.helpers.ble.base.ScanParameters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+import timber.log.Timber;
+
+/**
+ * Operations waiting for devices which are neither connected nor discovered yet.
+ * All of them are served by single scan session: every advert costs one lookup by packed address,
+ * however many operations are pending. Operations for the same address are coalesced into one connection,
+ * each one still times out on its own
+ */
+class AddressWaitTable implements ScanSessionManager.Listener {
+
+    private static final ScanParameters SCAN_PARAMETERS = new ScanParameters(BleScanFilter.ANY, ScanParameters.ScanMode.LOW_LATENCY);
+
+    private final BluetoothServer server;
+    private final LongHashMap<List<Waiter>> waiters = new LongHashMap<>();
+    private ScanSessionManager.Session session;
+
+    AddressWaitTable(BluetoothServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Scans for device, connects to it as soon as it's found and calls operation on connection.
+     * Fails operation if device is not found within timeout
+     */
+    void await(long address, ConnectionOperation operation) {
+        final Waiter waiter = new Waiter(address, operation);
+        final long timeout = GatewayTimer.Timeout.DEVICE_WAIT.get();
+        synchronized (this) {
+            List<Waiter> list = waiters.get(address);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                waiters.put(address, list);
+            }
+            list.add(waiter);
+            waiter.deadline = GatewayTimer.schedule(() -> expire(waiter), timeout);
+            if (session == null) {
+                session = server.getScanSessions().attach(SCAN_PARAMETERS, timeout, this);
+            }
+        }
+        Timber.d("waiting for %s, awaited devices: %d", MacAddress.toString(address), waiters.size());
+    }
+
+    @Override
+    public void onDeviceFound(ScanSessionManager.Session session, BluetoothDevice device, int rssi, byte[] scanRecord) {
+        final long address = MacAddress.parse(device.getAddress());
+//        lock-free miss for the vast majority of adverts
+        if (!waiters.containsKey(address)) {
+            return;
+        }
+
+        final List<Waiter> found;
+        synchronized (this) {
+            found = waiters.remove(address);
+            if (found == null) {
+                return;
+            }
+            for (Waiter waiter : found) {
+                waiter.deadline.cancel(false);
+            }
+            detachIfIdle();
+        }
+
+        Timber.d("awaited device %s found, pending operations: %d", device.getAddress(), found.size());
+//        another command may have connected meanwhile - second gatt client for the same device would break both
+        if (server.isConnected(address)) {
+            for (Waiter waiter : found) {
+                server.applyForConnection(address, waiter.operation);
+            }
+            return;
+        }
+        server.connectAndSave(address, device, () -> {
+            Timber.d("on connected - calling operations");
+            for (Waiter waiter : found) {
+                server.applyForConnection(address, waiter.operation);
+            }
+        });
+    }
+
+    @Override
+    public void onTimeout(ScanSessionManager.Session expired) {
+//        session lives as long as anybody waits, while each waiter has its own deadline
+        synchronized (this) {
+            if (session != expired) {
+                return;
+            }
+            session = waiters.isEmpty() ? null : server.getScanSessions().attach(SCAN_PARAMETERS, GatewayTimer.Timeout.DEVICE_WAIT.get(), this);
+        }
+    }
+
+    private void expire(Waiter waiter) {
+        synchronized (this) {
+            final List<Waiter> list = waiters.get(waiter.address);
+            if (list == null || !list.remove(waiter)) {
+                return;
+            }
+            if (list.isEmpty()) {
+                waiters.remove(waiter.address);
+            }
+            detachIfIdle();
+        }
+        //              "Never startScan on a loop, and set a time limit on your startScan. " - https://developer.android.com/guide/topics/connectivity/bluetooth-le.html#find
+        Timber.d("on timeout waiting for %s", MacAddress.toString(waiter.address));
+        waiter.operation.fail(BTLEApplication.getApplication().getString(R.string.status_notfound_timeout));
+    }
+
+    //    Should be called under lock
+    private void detachIfIdle() {
+        if (waiters.isEmpty() && session != null) {
+            server.getScanSessions().detach(session);
+            session = null;
+        }
+    }
+
+    private static class Waiter {
+        private final long address;
+        private final ConnectionOperation operation;
+        private ScheduledFuture<?> deadline;
+
+        private Waiter(long address, ConnectionOperation operation) {
+            this.address = address;
+            this.operation = operation;
+        }
+    }
+}
@@ -4,21 +4,43 @@ import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCallback;
-import android.bluetooth.BluetoothGattCharacteristic;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.BluetoothManager;
 import android.content.Context;
-import android.os.ParcelUuid;
+import android.os.SystemClock;
 import android.text.TextUtils;
 
 import com.dataart.btle_android.R;
 import com.dataart.btle_android.btle_gateway.GattCharacteristicCallBack;
+import com.dataart.btle_android.btle_gateway.advertising.AdvertisingData;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.AttributeUuid;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.GatewayTimer;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.LongHashMap;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.MacAddress;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.ProximityHelper;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.WireEncoding;
+import com.dataart.btle_android.btle_gateway.gatt_callbacks.ConnectionPriority;
+import com.dataart.btle_android.btle_gateway.gatt_callbacks.ConnectionProfile;
+import com.dataart.btle_android.btle_gateway.gatt_callbacks.DeliveryPolicy;
 import com.dataart.btle_android.btle_gateway.gatt_callbacks.InteractiveGattCallback;
+import com.dataart.btle_android.btle_gateway.model.BTLEBatchStepResult;
 import com.dataart.btle_android.btle_gateway.model.BTLECharacteristic;
+import com.dataart.btle_android.btle_gateway.model.BTLEConnectionStatus;
 import com.dataart.btle_android.btle_gateway.model.BTLEDevice;
+import com.dataart.btle_android.btle_gateway.model.BTLEProximity;
+import com.dataart.btle_android.btle_gateway.model.BTLEReadResult;
+import com.dataart.btle_android.btle_gateway.model.BTLEScanStatistics;
+import com.dataart.btle_android.btle_gateway.model.BTLESubscriptionStatus;
 import com.dataart.btle_android.btle_gateway.model.DeviceConnection;
 import com.dataart.btle_android.helpers.BleHelpersFactory;
-import com.dataart.btle_android.helpers.ble.base.BleScanner;
+import com.dataart.btle_android.helpers.ble.base.BleConnector;
+import com.dataart.btle_android.helpers.ble.base.BleScanFilter;
+import com.dataart.btle_android.helpers.ble.base.Phy;
+import com.dataart.btle_android.helpers.ble.base.ScanParameters;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import org.apache.commons.codec.binary.Hex;
 
@@ -27,7 +49,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 
 import timber.log.Timber;
 
@@ -36,20 +59,28 @@ import timber.log.Timber;
  */
 public class BluetoothServer extends BluetoothGattCallback {
 
-    public static final int COMMAND_SCAN_DELAY = 10 * 1000; // 10 sec
-
     private final Context context;
     private BluetoothAdapter bluetoothAdapter = null;
-    //    Stores list of currently connected devices with adress, gatt and callback
-    private final Map<String, DeviceConnection> activeConnections = new HashMap<>();
+    private BleConnector connector;
+    //    Stores list of currently connected devices with packed adress, gatt and callback
+    private final LongHashMap<DeviceConnection> activeConnections = new LongHashMap<>();
 
-    private final ArrayList<LeScanResult> deviceList = new ArrayList<>();
+    private final DeviceRegistry deviceRegistry = new DeviceRegistry(this::addDevice);
+    //    Link parameters requested per device, applied on every connection to it
+    private final LongHashMap<ConnectionProfile> connectionProfiles = new LongHashMap<>();
+    private final GattLayoutStore layoutStore;
 
-    private BleScanner scanner;
-    private final BleScanner.ScanCallback scanCallback = this::onDeviceFound;
+    private final ScanStatistics scanStatistics = new ScanStatistics();
+    private final List<DiscoveryListener> discoveryListeners = new CopyOnWriteArrayList<>();
+
+    private ScanSessionManager scanSessions;
+    private final AddressWaitTable addressWaits = new AddressWaitTable(this);
+    //    session of scan/start command, replaced by the next one and detached by scan/stop
+    private ScanSessionManager.Session manualSession;
 
     public BluetoothServer(Context context) {
         this.context = context;
+        this.layoutStore = new GattLayoutStore(context);
     }
 
     BluetoothAdapter getBluetoothAdapter() {
@@ -62,108 +93,195 @@ public class BluetoothServer extends BluetoothGattCallback {
     }
 
     public ArrayList<BTLEDevice> getDiscoveredDevices() {
-        final ArrayList<BTLEDevice> devices = new ArrayList<>(deviceList.size());
-        for (LeScanResult result : deviceList) {
-            String name = "Unknown name";
-            String address = "Unknown address";
-            if (!TextUtils.isEmpty(result.getDevice().getName())) {
-                name = result.getDevice().getName();
-            }
-            if (!TextUtils.isEmpty(result.getDevice().getAddress())) {
-                address = result.getDevice().getAddress();
+        return getDiscoveredDevices(BleScanFilter.ANY);
+    }
+
+    /**
+     * Registry is shared by all scan sessions, so results of filtered scan are filtered once more here
+     */
+    public ArrayList<BTLEDevice> getDiscoveredDevices(BleScanFilter filter) {
+        final ArrayList<BTLEDevice> devices = new ArrayList<>(deviceRegistry.size());
+        final AdvertisingData advertisingData = new AdvertisingData();
+        for (LeScanResult result : deviceRegistry.values()) {
+            if (filter.isEmpty() || filter.matches(result.getAddress(), advertisingData.wrap(result.getScanRecord()))) {
+                devices.add(toBTLEDevice(result, advertisingData));
             }
-            final BTLEDevice device = new BTLEDevice(name, address);
-            devices.add(device);
         }
         return devices;
     }
 
-    private LeScanResult onDeviceFound(BluetoothDevice device, int rssi, byte[] scanRecord) {
-//            Skip if already found
-        //noinspection SuspiciousMethodCalls
-        for (LeScanResult leScanResult : deviceList) {
-            if (Objects.equals(leScanResult.getDevice().getAddress(), device.getAddress())) {
-                return leScanResult;
-            }
+    static BTLEDevice toBTLEDevice(LeScanResult result, AdvertisingData advertisingData) {
+        advertisingData.wrap(result.getScanRecord());
+        String name = "Unknown name";
+        String address = "Unknown address";
+        if (!TextUtils.isEmpty(result.getDevice().getName())) {
+            name = result.getDevice().getName();
+        } else if (advertisingData.hasLocalName()) {
+            name = advertisingData.getLocalName();
+        }
+        if (!TextUtils.isEmpty(result.getDevice().getAddress())) {
+            address = result.getDevice().getAddress();
+        }
+        final double smoothedRssi = result.getSmoothedRssi();
+        final int txPower = advertisingData.getTxPowerLevel();
+        final Double distance = txPower != AdvertisingData.TX_POWER_UNKNOWN
+                ? ProximityHelper.round(ProximityHelper.distance(smoothedRssi, txPower), 2) : null;
+        return new BTLEDevice(name, address, result.getRssi(), ProximityHelper.round(smoothedRssi, 1), distance,
+                getServiceData(advertisingData));
+    }
+
+    /**
+     * @return proximity of discovered device or null if it's not discovered
+     */
+    public BTLEProximity getProximity(long address) {
+        final LeScanResult result = deviceRegistry.get(address);
+        if (result == null) {
+            return null;
+        }
+
+        final RssiHistory history = result.getRssiHistory();
+        final long[] times = new long[RssiHistory.CAPACITY];
+        final int[] values = new int[RssiHistory.CAPACITY];
+        final int count = history.copyTo(times, values);
+//        samples are stamped with elapsed realtime, cloud needs wall clock
+        final long offset = System.currentTimeMillis() - SystemClock.elapsedRealtime();
+        for (int i = 0; i < count; i++) {
+            times[i] += offset;
+        }
+
+        final double smoothedRssi = history.getEstimate();
+        final int txPower = new AdvertisingData().wrap(result.getScanRecord()).getTxPowerLevel();
+        final boolean hasTxPower = txPower != AdvertisingData.TX_POWER_UNKNOWN;
+        return new BTLEProximity(MacAddress.toString(address), result.getRssi(), ProximityHelper.round(smoothedRssi, 1),
+                hasTxPower ? txPower : null,
+                hasTxPower ? ProximityHelper.round(ProximityHelper.distance(smoothedRssi, txPower), 2) : null,
+                result.getLastSeen() + offset, Arrays.copyOf(times, count), Arrays.copyOf(values, count));
+    }
+
+    private static Map<String, String> getServiceData(AdvertisingData advertisingData) {
+        final int count = advertisingData.getServiceDataCount();
+        if (count == 0) {
+            return null;
+        }
+        final Map<String, String> serviceData = new HashMap<>(count);
+        for (int i = 0; i < count; i++) {
+            serviceData.put(advertisingData.getServiceDataUuid(i).toString(), advertisingData.getServiceDataHex(i));
         }
+        return serviceData;
+    }
+
+    public void addDiscoveryListener(DiscoveryListener listener) {
+        discoveryListeners.add(listener);
+    }
+
+    public void removeDiscoveryListener(DiscoveryListener listener) {
+        discoveryListeners.remove(listener);
+    }
 
-        LeScanResult leScanResult = new LeScanResult(device, rssi, scanRecord);
-        addDevice(leScanResult);
+    /**
+     * Tracks changes of discovered devices between polls, see {@link ScanDeltaTracker}
+     */
+    public ScanDeltaTracker createDeltaTracker(long lostTimeout, int rssiThreshold) {
+        return new ScanDeltaTracker(deviceRegistry, lostTimeout, rssiThreshold);
+    }
 
-        return leScanResult;
+    public BTLEScanStatistics getScanStatistics() {
+        return scanStatistics.getSnapshot();
     }
 
     public void scanStart() {
+        scanStart(ScanParameters.DEFAULT);
+    }
+
+    public void scanStart(ScanParameters parameters) {
         Timber.d("BLE startScan started...");
 
-        if (scanner == null) {
-            scanner = getScanner();
+        final ScanSessionManager sessions = getScanSessions();
+        synchronized (this) {
+            if (manualSession != null) {
+                sessions.detach(manualSession);
+            }
+            prepareScan(parameters);
+            //  https://developer.android.com/guide/topics/connectivity/bluetooth-le.html#find
+            //  "Never startScan on a loop, and set a time limit on your startScan. "
+            final long timeout = GatewayTimer.Timeout.SCAN.get();
+            manualSession = sessions.attach(parameters, timeout, new ScanSessionManager.Listener() {
+                @Override
+                public void onTimeout(ScanSessionManager.Session session) {
+                    Timber.d("BLE startScan stopped on timeout " + timeout / 1000 + " sec");
+                }
+            });
         }
+    }
 
-        deviceList.clear();
-        scanner.startScan();
-
-        new Thread() {
-            @Override
-            public void run() {
-                try {
-                    sleep(BluetoothServer.COMMAND_SCAN_DELAY);
-                    //  https://developer.android.com/guide/topics/connectivity/bluetooth-le.html#find
-                    //  "Never startScan on a loop, and set a time limit on your startScan. "
-                    scanner.stopScan();
-                    Timber.d("BLE startScan stopped on timeout " + BluetoothServer.COMMAND_SCAN_DELAY / 1000 + " sec");
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
+    /**
+     * Scans for given time, sharing radio with other scans
+     *
+     * @param onFinished called on timer thread when duration is over
+     */
+    public void scan(ScanParameters parameters, long duration, Runnable onFinished) {
+        final ScanSessionManager sessions = getScanSessions();
+        synchronized (this) {
+            prepareScan(parameters);
+            sessions.attach(parameters, duration, new ScanSessionManager.Listener() {
+                @Override
+                public void onTimeout(ScanSessionManager.Session session) {
+                    onFinished.run();
                 }
-            }
-        }.start();
+            });
+        }
+    }
 
+    //    Registry and statistics describe the current shared scan, so they're reset only when it's a new one
+    private void prepareScan(ScanParameters parameters) {
+        if (!scanSessions.isActive()) {
+            deviceRegistry.clear();
+            scanStatistics.reset(parameters.getReportDelay());
+        }
     }
 
-    private BleScanner getScanner() {
-        if (scanner == null) {
-            scanner = BleHelpersFactory.getScanner(scanCallback, getBluetoothAdapter());
+    synchronized ScanSessionManager getScanSessions() {
+        if (scanSessions == null) {
+            scanSessions = new ScanSessionManager(getBluetoothAdapter(), deviceRegistry, scanStatistics);
         }
 
-        return scanner;
+        return scanSessions;
     }
 
-    public void scanStop() {
+    public synchronized void scanStop() {
         Timber.d("Stop BLE Scan");
-        scanner.stopScan();
+        if (manualSession != null) {
+            scanSessions.detach(manualSession);
+            manualSession = null;
+        }
     }
 
     protected void addDevice(final LeScanResult device) {
-        deviceList.add(device);
         Timber.d("BTdeviceName %s", device.getDevice().getName());
         Timber.d("BTdeviceAdress %s", device.getDevice().getAddress());
         Timber.d("scanRecord %s", Arrays.toString(device.getScanRecord()));
+        for (DiscoveryListener listener : discoveryListeners) {
+            listener.onDeviceDiscovered(device.getAddress());
+        }
     }
 
-    private LeScanResult getResultByUDID(final String mac) {
-        LeScanResult result = null;
-        for (LeScanResult device : deviceList) {
-            if (device.getDevice().getAddress().equals(mac)) {
-                result = device;
-                break;
-            }
-        }
-        return result;
+    private LeScanResult getResultByUDID(final long mac) {
+        return deviceRegistry.get(mac);
     }
 
     //    Will seek among discovered but not connected devices
-    private void applyForDevice(String address, DeviceOperation operation) {
+    private void applyForDevice(long address, DeviceOperation operation) {
         LeScanResult result = getResultByUDID(address);
         if (result != null) {
             operation.call(result.getDevice());
         } else {
-            String message = String.format(context.getString(R.string.device_not_found), address);
+            String message = String.format(context.getString(R.string.device_not_found), MacAddress.toString(address));
             Timber.d(message);
             operation.fail(message);
         }
     }
 
-    private void applyForConnectionOrScan(final String address, final ConnectionOperation operation) {
+    private void applyForConnectionOrScan(final long address, final ConnectionOperation operation) {
         applyForConnection(address, new ConnectionOperation() {
             @Override
             public void call(DeviceConnection connection) {
@@ -173,24 +291,29 @@ public class BluetoothServer extends BluetoothGattCallback {
             @Override
             public void fail(String message) {
                 Timber.d("fail - scanning for device");
-                new ScanCallbacks(BluetoothServer.this, address, operation).start();
+                addressWaits.await(address, operation);
             }
         }, true);
     }
 
+    //    Connection may be still establishing
+    boolean isConnected(long address) {
+        return activeConnections.get(address) != null;
+    }
+
     //    Will seek among connected devices
-    void applyForConnection(String address, ConnectionOperation operation) {
+    void applyForConnection(long address, ConnectionOperation operation) {
         DeviceConnection connection = activeConnections.get(address);
         if (connection != null) {
             operation.call(connection);
         } else {
-            String m = String.format(context.getString(R.string.connection_not_established), address);
+            String m = String.format(context.getString(R.string.connection_not_established), MacAddress.toString(address));
             Timber.d(m);
             operation.fail(m);
         }
     }
 
-    private void applyForConnection(final String address, final ConnectionOperation operation, final boolean autoconnect) {
+    private void applyForConnection(final long address, final ConnectionOperation operation, final boolean autoconnect) {
         applyForConnection(address, new ConnectionOperation() {
             @Override
             public void call(DeviceConnection connection) {
@@ -214,7 +337,7 @@ public class BluetoothServer extends BluetoothGattCallback {
 
                         @Override
                         public void fail(String message) {
-                            Timber.d("device " + address + " not found - try to startScan once more");
+                            Timber.d("device %s not found - try to startScan once more", MacAddress.toString(address));
                             operation.fail(message);
                         }
                     });
@@ -226,50 +349,104 @@ public class BluetoothServer extends BluetoothGattCallback {
         });
     }
 
-    DeviceConnection connectAndSave(String address, BluetoothDevice device) {
+    DeviceConnection connectAndSave(long address, BluetoothDevice device) {
         return connectAndSave(address, device, null, null);
     }
 
     @SuppressWarnings("UnusedReturnValue")
-    DeviceConnection connectAndSave(String address, BluetoothDevice device, InteractiveGattCallback.OnConnectedListener connectedListener) {
+    DeviceConnection connectAndSave(long address, BluetoothDevice device, InteractiveGattCallback.OnConnectedListener connectedListener) {
         return connectAndSave(address, device, null, null, connectedListener);
     }
 
-    DeviceConnection connectAndSave(String address, BluetoothDevice device, InteractiveGattCallback.DisconnectListener disconnectListener, InteractiveGattCallback.StatusListener statusListener) {
+    DeviceConnection connectAndSave(long address, BluetoothDevice device, InteractiveGattCallback.DisconnectListener disconnectListener, InteractiveGattCallback.StatusListener statusListener) {
         return connectAndSave(address, device, disconnectListener, statusListener, null);
     }
 
-    private DeviceConnection connectAndSave(String address, BluetoothDevice device, InteractiveGattCallback.DisconnectListener disconnectListener, InteractiveGattCallback.StatusListener statusListener, InteractiveGattCallback.OnConnectedListener connectedListener) {
-        final InteractiveGattCallback callback = new InteractiveGattCallback(address, statusListener, context, disconnectListener, connectedListener);
-        BluetoothGatt gatt = device.connectGatt(context, false, callback);
+    private DeviceConnection connectAndSave(long address, BluetoothDevice device, InteractiveGattCallback.DisconnectListener disconnectListener, InteractiveGattCallback.StatusListener statusListener, InteractiveGattCallback.OnConnectedListener connectedListener) {
+        final ConnectionProfile profile = getConnectionProfile(address);
+        final InteractiveGattCallback callback = new InteractiveGattCallback(address, profile, getConnector(), statusListener, context, disconnectListener, connectedListener);
+        callback.setLayoutListener(new InteractiveGattCallback.LayoutListener() {
+            @Override
+            public void onDiscovered(List<BluetoothGattService> services) {
+                layoutStore.put(address, GattLayout.from(services));
+            }
+
+            @Override
+            public void onInvalidated() {
+                layoutStore.remove(address);
+            }
+        });
+        BluetoothGatt gatt = getConnector().connect(context, device, callback, profile.getPhy());
         DeviceConnection connection = new DeviceConnection(address, gatt, callback);
+        callback.setConnection(connection);
         activeConnections.put(address, connection);
         return connection;
     }
 
-    public void gattConnect(final String address, final InteractiveGattCallback.DisconnectListener disconnectListener, final InteractiveGattCallback.StatusListener statusListener) {
+    public ConnectionProfile getConnectionProfile(long address) {
+        final ConnectionProfile profile = connectionProfiles.get(address);
+        return profile != null ? profile : ConnectionProfile.DEFAULT;
+    }
+
+    /**
+     * Stores link parameters for device. If it's connected, new priority and idle timeout apply right away
+     */
+    public void setConnectionProfile(long address, ConnectionProfile profile) {
+        connectionProfiles.put(address, profile);
+        final DeviceConnection connection = activeConnections.get(address);
+        if (connection != null) {
+            connection.getCallback().setProfile(profile);
+        }
+    }
+
+    public void setConnectionPriority(long address, ConnectionPriority priority) {
+        setConnectionProfile(address, getConnectionProfile(address).withPriority(priority));
+    }
+
+    /**
+     * @return link parameters of established connection or null if device is not connected
+     */
+    public BTLEConnectionStatus getConnectionStatus(long address) {
+        final DeviceConnection connection = activeConnections.get(address);
+        if (connection == null) {
+            return null;
+        }
+        final ConnectionProfile profile = getConnectionProfile(address);
+        final List<BTLESubscriptionStatus> subscriptions = new ArrayList<>();
+        for (InteractiveGattCallback.NotificationSubscription subscription : connection.getCallback().getSubscriptions()) {
+            subscriptions.add(new BTLESubscriptionStatus(subscription.getId(), subscription.getServiceUuid().toString(),
+                    subscription.getCharacteristicUuid().toString(), subscription.getPolicy().getName(),
+                    subscription.getDelivered(), subscription.getDropped(), subscription.getPolicy().getSuppressed()));
+        }
+        return new BTLEConnectionStatus(MacAddress.toString(address), connection.getMtu(), connection.getPriority().getName(),
+                profile.getPriority().getName(), profile.getIdleTimeout(), connection.getCallback().getOperations().size(),
+                phyName(connection.getTxPhy()), phyName(connection.getRxPhy()), phyName(profile.getPhy()),
+                connection.getCallback().getCachedValues(), connection.getCallback().getCacheHits(), connection.getCallback().getCacheMisses(),
+                connection.getCallback().getConnectTime(), connection.getCallback().getDiscoveryTime(), connection.getCallback().getTimeToFirstRead(), subscriptions);
+    }
+
+    private synchronized BleConnector getConnector() {
+        if (connector == null) {
+            connector = BleHelpersFactory.getConnector(getBluetoothAdapter());
+        }
+        return connector;
+    }
+
+    private static String phyName(Phy phy) {
+        return phy != null ? phy.getName() : null;
+    }
+
+    public void gattConnect(final long address, final InteractiveGattCallback.DisconnectListener disconnectListener, final InteractiveGattCallback.StatusListener statusListener) {
         applyForDevice(address, new DeviceOperation() {
             @Override
             public void call(BluetoothDevice device) {
-                Timber.d("connecting to %s", address);
+                Timber.d("connecting to %s", device.getAddress());
 
 //              We can store mutliple connections - and each should have it's own callback
                 final InteractiveGattCallback callback = connectAndSave(address, device, disconnectListener, statusListener).getCallback();
 
 //              Send connection failed result after timeout
-                new Thread() {
-                    @Override
-                    public void run() {
-                        try {
-                            sleep(BluetoothServer.COMMAND_SCAN_DELAY);
-                            if (callback.isConnectionStateNotChanged()) {
-                                statusListener.onStatus(false, context.getString(R.string.status_timeout));
-                            }
-                        } catch (InterruptedException e) {
-                            e.printStackTrace();
-                        }
-                    }
-                }.start();
+                callback.expectConnection(GatewayTimer.Timeout.CONNECT.get());
 
                 Timber.d("connection added. connections now: %s", activeConnections.size());
             }
@@ -281,11 +458,11 @@ public class BluetoothServer extends BluetoothGattCallback {
         });
     }
 
-    public void gattDisconnect(final String address, final InteractiveGattCallback.StatusListener statusListener) {
+    public void gattDisconnect(final long address, final InteractiveGattCallback.StatusListener statusListener) {
         applyForConnection(address, new ConnectionOperation() {
             @Override
             public void call(DeviceConnection connection) {
-                Timber.d("disconnecting from %s", address);
+                Timber.d("disconnecting from %s", MacAddress.toString(address));
                 connection.getGatt().disconnect();
                 activeConnections.remove(address);
                 Timber.d("disconnected. connections left: %s", activeConnections.size());
@@ -299,25 +476,22 @@ public class BluetoothServer extends BluetoothGattCallback {
         });
     }
 
-    public void gattCharacteristics(final String address, final GattCharacteristicCallBack gattCharacteristicCallBack, final InteractiveGattCallback.StatusListener statusListener) {
-        final ArrayList<BTLECharacteristic> allCharacteristics = new ArrayList<>();
+    /**
+     * Answered from stored layout without connecting if device was discovered before
+     */
+    public void gattCharacteristics(final long address, final GattCharacteristicCallBack gattCharacteristicCallBack, final InteractiveGattCallback.StatusListener statusListener) {
+        final GattLayout layout = layoutStore.get(address);
+        if (layout != null) {
+            gattCharacteristicCallBack.onCharacteristics(layout.getCharacteristics(MacAddress.toString(address)));
+            return;
+        }
 
         applyForConnectionOrScan(address, new ConnectionOperation() {
             @Override
             public void call(final DeviceConnection connection) {
                 connection.getCallback().setCharacteristicsDiscoveringCallback(gatt -> {
-                    synchronized (connection) {
-                        Timber.d("CharacteristicsDiscoveredCallback.call()");
-
-                        for (BluetoothGattService service : gatt.getServices()) {
-                            final List<BluetoothGattCharacteristic> characteristics = service.getCharacteristics();
-                            for (BluetoothGattCharacteristic characteristic : characteristics) {
-                                BTLECharacteristic btleCharacteristic = new BTLECharacteristic(address, service.getUuid().toString(), characteristic.getUuid().toString());
-                                allCharacteristics.add(btleCharacteristic);
-                            }
-                        }
-                        gattCharacteristicCallBack.onCharacteristics(allCharacteristics);
-                    }
+                    Timber.d("CharacteristicsDiscoveredCallback.call()");
+                    gattCharacteristicCallBack.onCharacteristics(GattLayout.from(gatt.getServices()).getCharacteristics(MacAddress.toString(address)));
                 });
             }
 
@@ -329,20 +503,22 @@ public class BluetoothServer extends BluetoothGattCallback {
         });
     }
 
-    public void gattPrimary(final String address, final GattCharacteristicCallBack gattCharacteristicCallBack, final InteractiveGattCallback.StatusListener statusListener) {
-        final List<ParcelUuid> parcelUuidList = new ArrayList<>();
+    /**
+     * Answered from stored layout without connecting if device was discovered before
+     */
+    public void gattPrimary(final long address, final GattCharacteristicCallBack gattCharacteristicCallBack, final InteractiveGattCallback.StatusListener statusListener) {
+        final GattLayout layout = layoutStore.get(address);
+        if (layout != null) {
+            gattCharacteristicCallBack.onServices(layout.getServiceUuids());
+            return;
+        }
 
         applyForConnectionOrScan(address, new ConnectionOperation() {
             @Override
             public void call(DeviceConnection connection) {
                 connection.getCallback().setServicesDiscoveredCallback(gatt -> {
                     Timber.d("ServicesDiscoveredCallback.call()");
-
-                    final List<BluetoothGattService> services = gatt.getServices();
-                    for (BluetoothGattService service : services) {
-                        parcelUuidList.add(new ParcelUuid(service.getUuid()));
-                    }
-                    gattCharacteristicCallBack.onServices(parcelUuidList);
+                    gattCharacteristicCallBack.onServices(GattLayout.from(gatt.getServices()).getServiceUuids());
                 });
             }
 
@@ -355,13 +531,70 @@ public class BluetoothServer extends BluetoothGattCallback {
         });
     }
 
-    public void gattRead(final String address, final String serviceUUID, final String characteristicUUID,
+    /**
+     * @return characteristic with handle listed by gatt/characteristics, or null if there is no such handle
+     * or device was never discovered
+     */
+    public BTLECharacteristic getCharacteristic(long address, int handle) {
+        final GattLayout layout = layoutStore.get(address);
+        return layout != null ? layout.getCharacteristic(MacAddress.toString(address), handle) : null;
+    }
+
+    /**
+     * Drops stored layout of device and, if it's connected, discovers services again. Reports new list of services,
+     * or empty list if device is not connected - layout is discovered with the next connection then
+     */
+    public void gattRefresh(final long address, final GattCharacteristicCallBack gattCharacteristicCallBack) {
+        layoutStore.remove(address);
+        final DeviceConnection connection = activeConnections.get(address);
+        if (connection == null || !connection.getCallback().refreshServices()) {
+            gattCharacteristicCallBack.onServices(new ArrayList<>());
+            return;
+        }
+        connection.getCallback().setServicesDiscoveredCallback(gatt -> gattCharacteristicCallBack.onServices(GattLayout.from(gatt.getServices()).getServiceUuids()));
+    }
+
+    /**
+     * @param maxAge value received from device not more than this many milliseconds ago is returned without reading, 0 to always read
+     */
+    public void gattRead(final long address, final AttributeUuid serviceUUID, final AttributeUuid characteristicUUID, final long maxAge,
                                                         final GattCharacteristicCallBack gattCharacteristicCallBack,
                                                         final InteractiveGattCallback.StatusListener statusListener) {
         applyForConnectionOrScan(address, new ConnectionOperation() {
             @Override
             public void call(DeviceConnection connection) {
-                connection.getCallback().readCharacteristic(serviceUUID, characteristicUUID, gattCharacteristicCallBack, statusListener);
+                connection.getCallback().readCharacteristic(serviceUUID, characteristicUUID, maxAge, gattCharacteristicCallBack, statusListener);
+            }
+
+            @Override
+            public void fail(String message) {
+                statusListener.onStatus(false, message);
+            }
+        });
+    }
+
+    /**
+     * Reads characteristics on one connection and reports all results together, failed reads don't affect the rest
+     */
+    public void gattReadMultiple(final long address, final List<AttributeUuid> serviceUUIDs, final List<AttributeUuid> characteristicUUIDs, final long maxAge,
+                                 final WireEncoding encoding, final GattCharacteristicCallBack gattCharacteristicCallBack,
+                                 final InteractiveGattCallback.StatusListener statusListener) {
+        applyForConnectionOrScan(address, new ConnectionOperation() {
+            @Override
+            public void call(DeviceConnection connection) {
+                final List<ListenableFuture<byte[]>> futures = connection.getCallback().readCharacteristics(serviceUUIDs, characteristicUUIDs, maxAge);
+                Futures.whenAllComplete(futures).run(() -> {
+                    final long now = System.currentTimeMillis();
+                    final List<BTLEReadResult> results = new ArrayList<>(futures.size());
+                    for (ListenableFuture<byte[]> future : futures) {
+                        try {
+                            results.add(new BTLEReadResult(BTLEBatchStepResult.COMPLETED, encoding.encode(Futures.getDone(future), now), null));
+                        } catch (ExecutionException e) {
+                            results.add(new BTLEReadResult(BTLEBatchStepResult.FAILED, null, e.getCause().getMessage()));
+                        }
+                    }
+                    gattCharacteristicCallBack.onReadMultiple(results);
+                }, MoreExecutors.directExecutor());
             }
 
             @Override
@@ -371,7 +604,7 @@ public class BluetoothServer extends BluetoothGattCallback {
         });
     }
 
-    public void gattWrite(final String address, final String serviceUUID, final String characteristicUUID,
+    public void gattWrite(final long address, final AttributeUuid serviceUUID, final AttributeUuid characteristicUUID,
                                                          final byte[] value, final GattCharacteristicCallBack gattCharacteristicCallBack,
                                                          final InteractiveGattCallback.StatusListener statusListener) {
         applyForConnectionOrScan(address, new ConnectionOperation() {
@@ -387,22 +620,32 @@ public class BluetoothServer extends BluetoothGattCallback {
         });
     }
 
-    public void gattNotifications(final Context context, final String address, final String serviceUUID, final String characteristicUUID,
-                                                                 final boolean isOn, final GattCharacteristicCallBack gattCharachteristicCallBack,
-                                                                 final InteractiveGattCallback.StatusListener statusListener) {
-        applyForConnection(address, new ConnectionOperation() {
+    public void gattWriteStream(final long address, final AttributeUuid serviceUUID, final AttributeUuid characteristicUUID,
+                                final byte[] value, final GattCharacteristicCallBack gattCharacteristicCallBack,
+                                final InteractiveGattCallback.StatusListener statusListener) {
+        applyForConnectionOrScan(address, new ConnectionOperation() {
             @Override
             public void call(DeviceConnection connection) {
-                String sUUID = serviceUUID;
-                if (sUUID.length() == 4) {
-                    sUUID = connection.getCallback().getFullServiceUuid(sUUID);
-                }
-                String cUUID = characteristicUUID;
-                if (cUUID.length() == 4) {
-                    cUUID = connection.getCallback().getFullCharacteristicUuid(cUUID);
-                }
+                connection.getCallback().writeCharacteristicStream(serviceUUID, characteristicUUID, gattCharacteristicCallBack, value, statusListener);
+            }
+
+            @Override
+            public void fail(String message) {
+                statusListener.onStatus(false, message);
+            }
+        });
+    }
 
-                connection.getCallback().setNotificationSubscription(new InteractiveGattCallback.NotificationSubscription(sUUID, cUUID, address, context, isOn, statusListener) {
+    /**
+     * Adds subscription to characteristic's notifications, any number of them may be active on connection
+     */
+    public void gattNotifications(final Context context, final long address, final AttributeUuid serviceUUID, final AttributeUuid characteristicUUID,
+                                  final DeliveryPolicy policy, final GattCharacteristicCallBack gattCharachteristicCallBack,
+                                  final InteractiveGattCallback.StatusListener statusListener) {
+        applyForConnection(address, new ConnectionOperation() {
+            @Override
+            public void call(DeviceConnection connection) {
+                connection.getCallback().subscribe(new InteractiveGattCallback.NotificationSubscription(serviceUUID, characteristicUUID, address, context, policy, statusListener) {
                     @Override
                     public void onNotification(byte[] value) {
                         Timber.d("onNotification: 0x%s", String.valueOf(Hex.encodeHex(value)));
@@ -414,7 +657,37 @@ public class BluetoothServer extends BluetoothGattCallback {
             @Override
             public void fail(String message) {
                 Timber.d(message);
+                statusListener.onStatus(false, message);
             }
         }, true);
     }
+
+    /**
+     * Removes subscription, notifications are disabled on device when the last subscription to characteristic is gone.
+     * Subscriptions don't outlive connection, so device isn't connected for this
+     *
+     * @param subscription id listed by gatt/connection, or 0 for the latest subscription to characteristic
+     */
+    public void gattNotificationsStop(final long address, final AttributeUuid serviceUUID, final AttributeUuid characteristicUUID, final int subscription,
+                                      final InteractiveGattCallback.StatusListener statusListener) {
+        applyForConnection(address, new ConnectionOperation() {
+            @Override
+            public void call(DeviceConnection connection) {
+                connection.getCallback().unsubscribe(serviceUUID, characteristicUUID, subscription, statusListener);
+            }
+
+            @Override
+            public void fail(String message) {
+                Timber.d(message);
+                statusListener.onStatus(false, message);
+            }
+        });
+    }
+
+    /**
+     * Called on scan callback thread for each newly discovered device - should return quickly
+     */
+    public interface DiscoveryListener {
+        void onDeviceDiscovered(long address);
+    }
 }
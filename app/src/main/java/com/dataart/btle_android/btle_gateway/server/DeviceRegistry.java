@@ -0,0 +1,69 @@
+package com.dataart.btle_android.btle_gateway.server;
+
+import android.bluetooth.BluetoothDevice;
+
+import com.dataart.btle_android.btle_gateway.gateway_helpers.LongHashMap;
+
+import java.util.Collection;
+
+/**
+ * Discovered devices indexed by packed MAC address.
+ * Upserts come from the scan callback thread and reads from command threads - neither blocks the other:
+ * lookups are O(1) and {@link #values()} is a snapshot taken without locking the scan path.
+ * Registry is the first stage of scan results, repeated advertisements stop here
+ */
+class DeviceRegistry implements ScanSessionManager.Ingest {
+
+    private final LongHashMap<LeScanResult> devices = new LongHashMap<>();
+    private final AddListener addListener;
+
+    DeviceRegistry(AddListener addListener) {
+        this.addListener = addListener;
+    }
+
+    //    Called from scan callback thread for every result
+    @Override
+    public boolean onDeviceFound(BluetoothDevice device, long address, int rssi, byte[] scanRecord, long now) {
+        LeScanResult result = devices.get(address);
+        if (result == null) {
+            result = new LeScanResult(device, address, rssi, scanRecord, now);
+            if (add(result)) {
+                addListener.onAdded(result);
+                return true;
+            }
+//            Concurrent callback has added the same device first
+            result = devices.get(address);
+        }
+//        Already found - refresh rssi and last-seen time, and scan record if it has changed
+        return result.update(rssi, scanRecord, now);
+    }
+
+    /**
+     * Adds newly discovered device. If another thread added the same address in the meantime, existing entry wins
+     *
+     * @return true if entry was added
+     */
+    boolean add(LeScanResult result) {
+        return devices.putIfAbsent(result.getAddress(), result) == null;
+    }
+
+    LeScanResult get(long address) {
+        return devices.get(address);
+    }
+
+    Collection<LeScanResult> values() {
+        return devices.values();
+    }
+
+    int size() {
+        return devices.size();
+    }
+
+    void clear() {
+        devices.clear();
+    }
+
+    interface AddListener {
+        void onAdded(LeScanResult result);
+    }
+}
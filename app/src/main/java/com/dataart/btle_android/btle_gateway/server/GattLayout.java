@@ -0,0 +1,97 @@
+package com.dataart.btle_android.btle_gateway.server;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+import android.os.ParcelUuid;
+
+import com.dataart.btle_android.btle_gateway.model.BTLECharacteristic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Services, characteristics with their properties and descriptors of single device, as discovered.
+ * Plain structure, so it's stored as json
+ */
+class GattLayout {
+
+    private final List<Service> services;
+
+    private GattLayout(List<Service> services) {
+        this.services = services;
+    }
+
+    static GattLayout from(List<BluetoothGattService> gattServices) {
+        final List<Service> services = new ArrayList<>(gattServices.size());
+        for (BluetoothGattService gattService : gattServices) {
+            final List<Characteristic> characteristics = new ArrayList<>(gattService.getCharacteristics().size());
+            for (BluetoothGattCharacteristic gattCharacteristic : gattService.getCharacteristics()) {
+                final List<String> descriptors = new ArrayList<>(gattCharacteristic.getDescriptors().size());
+                for (BluetoothGattDescriptor descriptor : gattCharacteristic.getDescriptors()) {
+                    descriptors.add(descriptor.getUuid().toString());
+                }
+                characteristics.add(new Characteristic(gattCharacteristic.getUuid().toString(), gattCharacteristic.getProperties(), descriptors));
+            }
+            services.add(new Service(gattService.getUuid().toString(), characteristics));
+        }
+        return new GattLayout(services);
+    }
+
+    List<ParcelUuid> getServiceUuids() {
+        final List<ParcelUuid> uuids = new ArrayList<>(services.size());
+        for (Service service : services) {
+            uuids.add(new ParcelUuid(UUID.fromString(service.uuid)));
+        }
+        return uuids;
+    }
+
+    //    Handles are numbered the same way as connection's attribute table does it
+    ArrayList<BTLECharacteristic> getCharacteristics(String device) {
+        final ArrayList<BTLECharacteristic> result = new ArrayList<>();
+        for (Service service : services) {
+            for (Characteristic characteristic : service.characteristics) {
+                result.add(new BTLECharacteristic(device, service.uuid, characteristic.uuid, result.size() + 1, characteristic.properties, characteristic.descriptors));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return characteristic with given handle or null
+     */
+    BTLECharacteristic getCharacteristic(String device, int handle) {
+        int remaining = handle - 1;
+        for (Service service : services) {
+            if (remaining >= 0 && remaining < service.characteristics.size()) {
+                final Characteristic characteristic = service.characteristics.get(remaining);
+                return new BTLECharacteristic(device, service.uuid, characteristic.uuid, handle, characteristic.properties, characteristic.descriptors);
+            }
+            remaining -= service.characteristics.size();
+        }
+        return null;
+    }
+
+    private static class Service {
+        private final String uuid;
+        private final List<Characteristic> characteristics;
+
+        private Service(String uuid, List<Characteristic> characteristics) {
+            this.uuid = uuid;
+            this.characteristics = characteristics;
+        }
+    }
+
+    private static class Characteristic {
+        private final String uuid;
+        private final int properties;
+        private final List<String> descriptors;
+
+        private Characteristic(String uuid, int properties, List<String> descriptors) {
+            this.uuid = uuid;
+            this.properties = properties;
+            this.descriptors = descriptors;
+        }
+    }
+}
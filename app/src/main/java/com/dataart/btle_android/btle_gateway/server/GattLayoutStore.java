@@ -0,0 +1,71 @@
+package com.dataart.btle_android.btle_gateway.server;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.dataart.btle_android.btle_gateway.gateway_helpers.LongHashMap;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.MacAddress;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import timber.log.Timber;
+
+/**
+ * Discovered GATT layouts by device address, kept in shared preferences across restarts, so services and
+ * characteristics of known device are listed without connecting to it. Layout is replaced on every discovery
+ * and dropped when device reports that its services changed
+ */
+class GattLayoutStore {
+
+    private final SharedPreferences preferences;
+    private final LongHashMap<GattLayout> layouts = new LongHashMap<>();
+    private final Gson gson = new Gson();
+
+    GattLayoutStore(Context context) {
+        this.preferences = context.getSharedPreferences(context.getPackageName() + "_gattlayouts", Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return layout of device discovered earlier or null if it's unknown
+     */
+    GattLayout get(long address) {
+        GattLayout layout = layouts.get(address);
+        if (layout != null) {
+            return layout;
+        }
+        final String json = preferences.getString(MacAddress.toString(address), null);
+        if (json == null) {
+            return null;
+        }
+        try {
+            layout = gson.fromJson(json, GattLayout.class);
+        } catch (JsonParseException e) {
+            Timber.e("stored gatt layout is broken: %s", e.toString());
+            remove(address);
+            return null;
+        }
+        layouts.put(address, layout);
+        return layout;
+    }
+
+    void put(long address, GattLayout layout) {
+        layouts.put(address, layout);
+        final String key = MacAddress.toString(address);
+        final String json = gson.toJson(layout);
+        final String stored = preferences.getString(key, null);
+//        most reconnects find the same layout - nothing to write then
+        if (json.equals(stored)) {
+            return;
+        }
+        if (stored != null) {
+//            device changed its services without indicating it, e.g. while it wasn't connected
+            Timber.w("gatt layout of %s has changed since the last discovery", key);
+        }
+        preferences.edit().putString(key, json).apply();
+    }
+
+    void remove(long address) {
+        layouts.remove(address);
+        preferences.edit().remove(MacAddress.toString(address)).apply();
+    }
+}
@@ -6,28 +6,94 @@ import java.util.Objects;
 
 class LeScanResult {
 
+    static final long REPEAT_FORWARD_INTERVAL = 1000;
+
     private final BluetoothDevice mDevice;
-    private final int mRssi;
-    private final byte[] mScanRecord;
+    private final long mAddress;
+    private volatile int mRssi;
+    private volatile byte[] mScanRecord;
+    private volatile long mLastSeen;
+    private final RssiHistory mRssiHistory;
+    //    Fingerprint of the last forwarded payload and when it was forwarded, see update()
+    private long mFingerprint;
+    private long mForwardedAt;
 
-    public LeScanResult(BluetoothDevice device, int rssi, byte[] scanRecord) {
+    public LeScanResult(BluetoothDevice device, long address, int rssi, byte[] scanRecord, long lastSeen) {
         mDevice = device;
+        mAddress = address;
         mRssi = rssi;
         mScanRecord = scanRecord;
+        mLastSeen = lastSeen;
+        mRssiHistory = new RssiHistory(rssi, lastSeen);
+        mFingerprint = fingerprint(scanRecord);
+        mForwardedAt = lastSeen;
+    }
+
+    /**
+     * Called from scan callback thread on every advertisement of already discovered device.
+     * Peripherals repeat the same payload many times a second - such repeats only refresh RSSI and last-seen time.
+     * Repeat is still forwarded once in a while, so that consumers attached later get to see the device
+     *
+     * @return true if payload has changed and should be processed further
+     */
+    boolean update(int rssi, byte[] scanRecord, long lastSeen) {
+        mRssiHistory.add(rssi, lastSeen);
+        mRssi = rssi;
+        mLastSeen = lastSeen;
+
+        final long fingerprint = fingerprint(scanRecord);
+        synchronized (this) {
+            if (fingerprint == mFingerprint && lastSeen - mForwardedAt < REPEAT_FORWARD_INTERVAL) {
+                return false;
+            }
+            mFingerprint = fingerprint;
+            mForwardedAt = lastSeen;
+        }
+        mScanRecord = scanRecord;
+        return true;
+    }
+
+    //    64-bit FNV-1a, collisions are negligible for payloads of one device
+    private static long fingerprint(byte[] scanRecord) {
+        if (scanRecord == null) {
+            return 0;
+        }
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : scanRecord) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash ^ scanRecord.length;
     }
 
     public BluetoothDevice getDevice() {
         return mDevice;
     }
 
+    public long getAddress() {
+        return mAddress;
+    }
+
     public int getRssi() {
         return mRssi;
     }
 
+    public double getSmoothedRssi() {
+        return mRssiHistory.getEstimate();
+    }
+
+    RssiHistory getRssiHistory() {
+        return mRssiHistory;
+    }
+
     public byte[] getScanRecord() {
         return mScanRecord;
     }
 
+    public long getLastSeen() {
+        return mLastSeen;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (o == this) {
@@ -40,13 +106,14 @@ class LeScanResult {
 
 //            devices equals by address
         if (o instanceof LeScanResult) {
-            //noinspection SimplifiableIfStatement
-            if (this.mDevice == null || ((LeScanResult) o).mDevice == null)
-                return false;
-
-            return Objects.equals(this.mDevice.getAddress(), ((LeScanResult) o).mDevice.getAddress());
+            return this.mAddress == ((LeScanResult) o).mAddress;
         }
 
         return false;
     }
+
+    @Override
+    public int hashCode() {
+        return (int) (mAddress ^ (mAddress >>> 32));
+    }
 }
@@ -0,0 +1,72 @@
+package com.dataart.btle_android.btle_gateway.server;
+
+/**
+ * Recent RSSI samples of single device in fixed-size ring buffer, plus smoothed RSSI from one-dimensional
+ * Kalman filter. Updated on scan callback thread for every advertisement without allocation
+ */
+class RssiHistory {
+
+    static final int CAPACITY = 16;
+
+    //    dBm^2 per second - how fast real signal level is expected to drift
+    private static final double PROCESS_NOISE = 1.0;
+    //    dBm^2 - variance of single reading, multipath and body shadowing make it large
+    private static final double MEASUREMENT_NOISE = 16.0;
+
+    private final long[] timestamps = new long[CAPACITY];
+    private final int[] values = new int[CAPACITY];
+    //    index of the next sample to write
+    private int head = 0;
+    private int count = 0;
+
+    private double estimate;
+    private double errorCovariance;
+
+    RssiHistory(int rssi, long timestamp) {
+        timestamps[0] = timestamp;
+        values[0] = rssi;
+        head = 1;
+        count = 1;
+        estimate = rssi;
+        errorCovariance = MEASUREMENT_NOISE;
+    }
+
+    synchronized void add(int rssi, long timestamp) {
+        final long previous = timestamps[(head + CAPACITY - 1) % CAPACITY];
+        timestamps[head] = timestamp;
+        values[head] = rssi;
+        head = (head + 1) % CAPACITY;
+        if (count < CAPACITY) {
+            count++;
+        }
+
+//        the longer device was silent, the less previous estimate is trusted
+        errorCovariance += PROCESS_NOISE * Math.max(0, timestamp - previous) / 1000.0;
+        final double gain = errorCovariance / (errorCovariance + MEASUREMENT_NOISE);
+        estimate += gain * (rssi - estimate);
+        errorCovariance *= 1 - gain;
+    }
+
+    synchronized double getEstimate() {
+        return estimate;
+    }
+
+    synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Copies samples, oldest first, into given arrays which should be at least {@link #size()} long
+     *
+     * @return number of samples copied
+     */
+    synchronized int copyTo(long[] timestamps, int[] values) {
+        final int n = Math.min(count, Math.min(timestamps.length, values.length));
+        for (int i = 0; i < n; i++) {
+            final int index = (head + CAPACITY - n + i) % CAPACITY;
+            timestamps[i] = this.timestamps[index];
+            values[i] = this.values[index];
+        }
+        return n;
+    }
+}
@@ -0,0 +1,89 @@
+package com.dataart.btle_android.btle_gateway.server;
+
+import android.os.SystemClock;
+
+import com.dataart.btle_android.btle_gateway.advertising.AdvertisingData;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.LongHashMap;
+import com.dataart.btle_android.btle_gateway.model.BTLEDevice;
+import com.dataart.btle_android.btle_gateway.model.BTLEScanDelta;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Remembers what was already reported about discovered devices and produces coalesced deltas:
+ * new devices, devices whose RSSI changed by at least rssiThreshold and devices not seen for lostTimeout.
+ * <p>
+ * Not thread-safe, should be used from single thread
+ */
+public class ScanDeltaTracker {
+
+    private final DeviceRegistry registry;
+    private final long lostTimeout;
+    private final int rssiThreshold;
+    private final LongHashMap<Reported> reported = new LongHashMap<>();
+    private final AdvertisingData advertisingData = new AdvertisingData();
+
+    ScanDeltaTracker(DeviceRegistry registry, long lostTimeout, int rssiThreshold) {
+        this.registry = registry;
+        this.lostTimeout = lostTimeout;
+        this.rssiThreshold = rssiThreshold;
+    }
+
+    /**
+     * Marks device as reported individually, so it won't appear as new in the next delta
+     *
+     * @return device to report or null if it is unknown or already reported
+     */
+    public BTLEDevice report(long address) {
+        final LeScanResult result = registry.get(address);
+        if (result == null || reported.containsKey(address)) {
+            return null;
+        }
+        reported.put(address, new Reported(result.getRssi()));
+        return BluetoothServer.toBTLEDevice(result, advertisingData);
+    }
+
+    public BTLEScanDelta poll() {
+        final long now = SystemClock.elapsedRealtime();
+        final List<BTLEDevice> added = new ArrayList<>();
+        final List<BTLEDevice> changed = new ArrayList<>();
+        final List<String> lost = new ArrayList<>();
+
+        for (LeScanResult result : registry.values()) {
+            final Reported state = reported.get(result.getAddress());
+            final boolean seenRecently = now - result.getLastSeen() <= lostTimeout;
+            if (state == null) {
+                reported.put(result.getAddress(), new Reported(result.getRssi()));
+                added.add(BluetoothServer.toBTLEDevice(result, advertisingData));
+            } else if (state.lost) {
+                if (seenRecently) {
+//                    came back - report as new
+                    state.lost = false;
+                    state.rssi = result.getRssi();
+                    added.add(BluetoothServer.toBTLEDevice(result, advertisingData));
+                }
+            } else if (!seenRecently) {
+                state.lost = true;
+                lost.add(result.getDevice().getAddress());
+            } else if (Math.abs(result.getRssi() - state.rssi) >= rssiThreshold) {
+                state.rssi = result.getRssi();
+                changed.add(BluetoothServer.toBTLEDevice(result, advertisingData));
+            }
+        }
+        return new BTLEScanDelta(added, changed, lost);
+    }
+
+    public int getReportedCount() {
+        return reported.size();
+    }
+
+    private static class Reported {
+        int rssi;
+        boolean lost = false;
+
+        Reported(int rssi) {
+            this.rssi = rssi;
+        }
+    }
+}
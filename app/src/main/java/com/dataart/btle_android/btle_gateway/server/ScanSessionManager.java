@@ -0,0 +1,287 @@
+package com.dataart.btle_android.btle_gateway.server;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.os.Debug;
+import android.os.SystemClock;
+
+import com.dataart.btle_android.btle_gateway.advertising.AdvertisingData;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.GatewayTimer;
+import com.dataart.btle_android.helpers.BleHelpersFactory;
+import com.dataart.btle_android.helpers.ble.base.BleScanFilter;
+import com.dataart.btle_android.helpers.ble.base.BleScanner;
+import com.dataart.btle_android.helpers.ble.base.ScanBatch;
+import com.dataart.btle_android.helpers.ble.base.ScanParameters;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+
+import timber.log.Timber;
+
+/**
+ * Shares single radio scan between any number of sessions. Each session has its own filter, scan mode and deadline.
+ * Radio runs while at least one session is attached, with the widest filter and the most aggressive mode among them,
+ * and every result goes to registry and to each session whose filter matches it.
+ * <p>
+ * Scan is restarted only when new session isn't covered by the running one, and never more often than platform allows:
+ * Android silently stops delivering results to an app which starts scan more than 5 times in 30 seconds.
+ * Restart which doesn't fit into this budget is postponed, running scan goes on meanwhile.
+ * After the last session is gone radio is kept on for a short while, so back-to-back commands reuse it
+ */
+public class ScanSessionManager {
+
+    private static final int MAX_STARTS = 5;
+    private static final long STARTS_WINDOW = 30 * 1000;
+    private static final long LINGER = 2000;
+
+    private final BleScanner scanner;
+    private final Ingest ingest;
+    private final ScanStatistics statistics;
+    private final List<Session> sessions = new CopyOnWriteArrayList<>();
+
+    //    times of the last starts, ring buffer with the oldest one at startsHead
+    private final long[] starts = new long[MAX_STARTS];
+    private int startsHead = 0;
+    //    parameters of the running scan, null when radio is off
+    private ScanParameters running;
+    private ScheduledFuture<?> pendingRestart;
+    private ScheduledFuture<?> pendingStop;
+
+    private final ThreadLocal<AdvertisingData> advertisingData = new ThreadLocal<AdvertisingData>() {
+        @Override
+        protected AdvertisingData initialValue() {
+            return new AdvertisingData();
+        }
+    };
+
+    //    package-private for delivery benchmark, which feeds it the way scanner does
+    final BleScanner.ScanCallback dispatcher = new BleScanner.ScanCallback() {
+        @Override
+        public void onDeviceFound(BluetoothDevice device, long address, int rssi, byte[] scanRecord) {
+            final long started = Debug.threadCpuTimeNanos();
+            onResult(device, address, rssi, scanRecord, SystemClock.elapsedRealtime());
+            statistics.onCallback(1, Debug.threadCpuTimeNanos() - started);
+        }
+
+        @Override
+        public void onBatchFound(ScanBatch batch) {
+//            whole batch is ingested in one pass with single timestamp
+            final long started = Debug.threadCpuTimeNanos();
+            final long now = SystemClock.elapsedRealtime();
+            for (int i = 0; i < batch.size(); i++) {
+                onResult(batch.getDevice(i), batch.getAddress(i), batch.getRssi(i), batch.getScanRecord(i), now);
+            }
+            statistics.onCallback(batch.size(), Debug.threadCpuTimeNanos() - started);
+        }
+    };
+
+    ScanSessionManager(BluetoothAdapter bluetoothAdapter, Ingest ingest, ScanStatistics statistics) {
+        this.ingest = ingest;
+        this.statistics = statistics;
+        this.scanner = BleHelpersFactory.getScanner(dispatcher, bluetoothAdapter);
+        for (int i = 0; i < MAX_STARTS; i++) {
+            starts[i] = -STARTS_WINDOW;
+        }
+    }
+
+    /**
+     * Attaches new session, starting or widening radio scan if needed
+     *
+     * @param timeout session is detached and {@link Listener#onTimeout(Session)} called after this many milliseconds
+     */
+    public Session attach(ScanParameters parameters, long timeout, Listener listener) {
+        final Session session = new Session(parameters, listener);
+        synchronized (this) {
+            sessions.add(session);
+            session.deadline = GatewayTimer.schedule(() -> expire(session), timeout);
+            update();
+        }
+        Timber.d("scan session attached, sessions: %d", sessions.size());
+        return session;
+    }
+
+    /**
+     * Detaches session without calling its listener. Does nothing if session is already gone
+     */
+    public void detach(Session session) {
+        synchronized (this) {
+            if (!sessions.remove(session)) {
+                return;
+            }
+            session.deadline.cancel(false);
+            update();
+        }
+        Timber.d("scan session detached, sessions: %d", sessions.size());
+    }
+
+    public boolean isActive() {
+        return !sessions.isEmpty();
+    }
+
+    private void expire(Session session) {
+        synchronized (this) {
+            if (!sessions.remove(session)) {
+                return;
+            }
+            update();
+        }
+        Timber.d("scan session timed out, sessions: %d", sessions.size());
+        session.listener.onTimeout(session);
+    }
+
+    //    Repeated adverts stop at the first stage - they're neither parsed nor matched against sessions
+    private void onResult(BluetoothDevice device, long address, int rssi, byte[] scanRecord, long now) {
+        if (ingest.onDeviceFound(device, address, rssi, scanRecord, now)) {
+            dispatch(device, address, rssi, scanRecord);
+        } else {
+            statistics.onRepeat();
+        }
+    }
+
+    private void dispatch(BluetoothDevice device, long address, int rssi, byte[] scanRecord) {
+        AdvertisingData data = null;
+        for (Session session : sessions) {
+            final BleScanFilter filter = session.parameters.getFilter();
+            if (!filter.isEmpty()) {
+//                parsed lazily, once per result for all sessions
+                if (data == null) {
+                    data = advertisingData.get().wrap(scanRecord);
+                }
+                if (!filter.matches(address, data)) {
+                    continue;
+                }
+            }
+            session.listener.onDeviceFound(session, device, rssi, scanRecord);
+        }
+    }
+
+    //    Should be called under lock after every change of sessions
+    private void update() {
+        if (sessions.isEmpty()) {
+            cancel(pendingRestart);
+            pendingRestart = null;
+            if (running != null && pendingStop == null) {
+                pendingStop = GatewayTimer.schedule(this::stopIfIdle, LINGER);
+            }
+            return;
+        }
+
+        cancel(pendingStop);
+        pendingStop = null;
+
+        final ScanParameters wanted = merge();
+        if (running != null && covers(running, wanted)) {
+            return;
+        }
+
+        final long now = SystemClock.elapsedRealtime();
+        final long available = starts[startsHead] + STARTS_WINDOW;
+        if (now < available) {
+            if (pendingRestart == null) {
+                Timber.d("scan start budget exhausted, restart postponed for %d ms", available - now);
+                pendingRestart = GatewayTimer.schedule(this::restart, available - now);
+            }
+            return;
+        }
+
+        cancel(pendingRestart);
+        pendingRestart = null;
+        starts[startsHead] = now;
+        startsHead = (startsHead + 1) % MAX_STARTS;
+
+        if (running != null) {
+            scanner.stopScan();
+        }
+        scanner.startScan(wanted);
+        running = wanted;
+        Timber.d("radio scan started, mode %s, report delay %d", wanted.getScanMode(), wanted.getReportDelay());
+    }
+
+    private synchronized void restart() {
+        pendingRestart = null;
+        update();
+    }
+
+    private synchronized void stopIfIdle() {
+        pendingStop = null;
+        if (sessions.isEmpty() && running != null) {
+            scanner.stopScan();
+            running = null;
+            Timber.d("radio scan stopped");
+        }
+    }
+
+    //    The only filter if all sessions share equal one, otherwise none - sessions filter results themselves
+    private ScanParameters merge() {
+        BleScanFilter filter = null;
+        boolean unfiltered = false;
+        ScanParameters.ScanMode mode = ScanParameters.ScanMode.LOW_POWER;
+        long reportDelay = Long.MAX_VALUE;
+        for (Session session : sessions) {
+            final ScanParameters parameters = session.parameters;
+            final BleScanFilter sessionFilter = parameters.getFilter();
+            if (sessionFilter.isEmpty() || (filter != null && !filter.equals(sessionFilter))) {
+                unfiltered = true;
+            } else {
+                filter = sessionFilter;
+            }
+            if (parameters.getScanMode().getValue() > mode.getValue()) {
+                mode = parameters.getScanMode();
+            }
+            reportDelay = Math.min(reportDelay, parameters.getReportDelay());
+        }
+        return new ScanParameters(unfiltered ? BleScanFilter.ANY : filter, mode, reportDelay);
+    }
+
+    private static boolean covers(ScanParameters running, ScanParameters wanted) {
+        return (running.getFilter().isEmpty() || running.getFilter().equals(wanted.getFilter()))
+                && running.getScanMode().getValue() >= wanted.getScanMode().getValue()
+                && running.getReportDelay() <= wanted.getReportDelay();
+    }
+
+    private static void cancel(ScheduledFuture<?> future) {
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    public static class Session {
+        private final ScanParameters parameters;
+        private final Listener listener;
+        private ScheduledFuture<?> deadline;
+
+        private Session(ScanParameters parameters, Listener listener) {
+            this.parameters = parameters;
+            this.listener = listener;
+        }
+
+        public ScanParameters getParameters() {
+            return parameters;
+        }
+    }
+
+    /**
+     * First stage of scan pipeline, sees every result
+     */
+    interface Ingest {
+        /**
+         * @return false if result only repeats already seen advertisement and shouldn't go to sessions
+         */
+        boolean onDeviceFound(BluetoothDevice device, long address, int rssi, byte[] scanRecord, long now);
+    }
+
+    public interface Listener {
+        /**
+         * Called on scan callback thread for every result matching session's filter
+         */
+        default void onDeviceFound(Session session, BluetoothDevice device, int rssi, byte[] scanRecord) {
+        }
+
+        /**
+         * Session reached its deadline and is already detached
+         */
+        default void onTimeout(Session session) {
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.dataart.btle_android.btle_gateway.server;
+
+import android.os.SystemClock;
+
+import com.dataart.btle_android.btle_gateway.model.BTLEScanStatistics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts scan callbacks delivered into the process, results carried by them and CPU time spent
+ * on ingesting them - to compare immediate and batched delivery, and how many results were repeats
+ */
+class ScanStatistics {
+
+    private final AtomicLong callbacks = new AtomicLong();
+    private final AtomicLong results = new AtomicLong();
+    private final AtomicLong cpuTimeNanos = new AtomicLong();
+    private final AtomicLong repeats = new AtomicLong();
+    private volatile long startedAt = SystemClock.elapsedRealtime();
+    private volatile long reportDelay = 0;
+
+    void reset(long reportDelay) {
+        callbacks.set(0);
+        results.set(0);
+        cpuTimeNanos.set(0);
+        repeats.set(0);
+        this.reportDelay = reportDelay;
+        startedAt = SystemClock.elapsedRealtime();
+    }
+
+    void onCallback(int resultCount, long cpuNanos) {
+        callbacks.incrementAndGet();
+        results.addAndGet(resultCount);
+        cpuTimeNanos.addAndGet(cpuNanos);
+    }
+
+    //    result that repeated previous advertisement and was dropped by dedup stage
+    void onRepeat() {
+        repeats.incrementAndGet();
+    }
+
+    BTLEScanStatistics getSnapshot() {
+        final long duration = Math.max(1, SystemClock.elapsedRealtime() - startedAt);
+        final long callbackCount = callbacks.get();
+        final long resultCount = results.get();
+        final long repeatCount = repeats.get();
+        return new BTLEScanStatistics(duration, reportDelay, callbackCount, resultCount,
+                callbackCount * 1000.0 / duration, resultCount * 1000.0 / duration,
+                cpuTimeNanos.get() / 1000000.0, repeatCount, resultCount > 0 ? (double) repeatCount / resultCount : 0);
+    }
+}
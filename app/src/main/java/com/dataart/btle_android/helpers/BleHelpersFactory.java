@@ -4,8 +4,12 @@ import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.os.Build;
 
+import com.dataart.btle_android.helpers.ble.base.BleConnector;
 import com.dataart.btle_android.helpers.ble.base.BleInitializer;
 import com.dataart.btle_android.helpers.ble.base.BleScanner;
+import com.dataart.btle_android.helpers.ble.connectors.BleConnectorJ;
+import com.dataart.btle_android.helpers.ble.connectors.BleConnectorM;
+import com.dataart.btle_android.helpers.ble.connectors.BleConnectorO;
 import com.dataart.btle_android.helpers.ble.initializers.BleInitializerJ;
 import com.dataart.btle_android.helpers.ble.initializers.BleInitializerL;
 import com.dataart.btle_android.helpers.ble.initializers.BleInitializerM;
@@ -42,6 +46,21 @@ public class BleHelpersFactory {
             return new BleScannerJ(scanCallback, bluetoothAdapter);
         }
 
+//        There is no BLE support in Android versions below Jelly Bean
+        return null;
+    }
+
+    public static BleConnector getConnector(BluetoothAdapter bluetoothAdapter) {
+        final int osVersion = Build.VERSION.SDK_INT;
+
+        if (osVersion >= Build.VERSION_CODES.O) {
+            return new BleConnectorO(bluetoothAdapter);
+        } else if (osVersion >= Build.VERSION_CODES.M) {
+            return new BleConnectorM(bluetoothAdapter);
+        } else if (osVersion >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return new BleConnectorJ(bluetoothAdapter);
+        }
+
 //        There is no BLE support in Android versions below Jelly Bean
         return null;
     }
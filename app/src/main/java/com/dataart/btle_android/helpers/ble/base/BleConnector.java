@@ -0,0 +1,46 @@
+package com.dataart.btle_android.helpers.ble.base;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.content.Context;
+
+/**
+ * Helper for opening GATT connections with the best options OS version provides
+ */
+public abstract class BleConnector {
+    protected final BluetoothAdapter bluetoothAdapter;
+
+    public BleConnector(BluetoothAdapter bluetoothAdapter) {
+        this.bluetoothAdapter = bluetoothAdapter;
+    }
+
+    /**
+     * @param phy preferred phy or null for platform default. Connection is always established on 1M or Coded,
+     *            switch to 2M is requested with {@link #setPreferredPhy(BluetoothGatt, Phy)} after that
+     */
+    public abstract BluetoothGatt connect(Context context, BluetoothDevice device, BluetoothGattCallback callback, Phy phy);
+
+    /**
+     * Requests phy for both directions. Result comes to onPhyUpdate
+     *
+     * @return false if phy is not supported here, nothing is requested then
+     */
+    public boolean setPreferredPhy(BluetoothGatt gatt, Phy phy) {
+        return false;
+    }
+
+    /**
+     * Requests current phy, result comes to onPhyRead
+     *
+     * @return false if phy can't be read here
+     */
+    public boolean readPhy(BluetoothGatt gatt) {
+        return false;
+    }
+
+    public boolean isPhySupported(Phy phy) {
+        return phy == Phy.LE_1M;
+    }
+}
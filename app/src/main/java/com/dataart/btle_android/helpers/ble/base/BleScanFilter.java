@@ -0,0 +1,122 @@
+package com.dataart.btle_android.helpers.ble.base;
+
+import com.dataart.btle_android.btle_gateway.advertising.AdvertisingData;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Scan filter: service uuid, name prefix, list of addresses and manufacturer data with mask.
+ * All specified conditions must match. Scanners push what they can down to the controller
+ * and apply the rest in software with {@link #matches(long, AdvertisingData)}.
+ * Filters with the same conditions are equal, so sessions may share radio scan whichever command built them
+ */
+public class BleScanFilter {
+
+    public static final BleScanFilter ANY = new BleScanFilter(null, null, null, AdvertisingData.MANUFACTURER_UNKNOWN, null, null);
+
+    private final UUID serviceUuid;
+    private final String namePrefix;
+    //    packed addresses, sorted for binary search
+    private final long[] addresses;
+    private final int manufacturerId;
+    private final byte[] manufacturerData;
+    private final byte[] manufacturerDataMask;
+
+    public BleScanFilter(UUID serviceUuid, String namePrefix, long[] addresses,
+                         int manufacturerId, byte[] manufacturerData, byte[] manufacturerDataMask) {
+        this.serviceUuid = serviceUuid;
+        this.namePrefix = namePrefix;
+        this.manufacturerId = manufacturerId;
+        this.manufacturerData = manufacturerData;
+        this.manufacturerDataMask = manufacturerDataMask;
+        if (addresses != null && addresses.length > 0) {
+            this.addresses = addresses.clone();
+            Arrays.sort(this.addresses);
+        } else {
+            this.addresses = null;
+        }
+    }
+
+    public static BleScanFilter forAddress(long address) {
+        return new BleScanFilter(null, null, new long[]{address}, AdvertisingData.MANUFACTURER_UNKNOWN, null, null);
+    }
+
+    public boolean isEmpty() {
+        return serviceUuid == null && namePrefix == null && addresses == null && manufacturerId == AdvertisingData.MANUFACTURER_UNKNOWN;
+    }
+
+    /**
+     * Software matching, allocation-free. Used where controller can't filter and for name prefix,
+     * which has no platform counterpart
+     */
+    public boolean matches(long address, AdvertisingData data) {
+        if (addresses != null && Arrays.binarySearch(addresses, address) < 0) {
+            return false;
+        }
+        if (serviceUuid != null && !data.hasServiceUuid(serviceUuid)) {
+            return false;
+        }
+        if (namePrefix != null && !data.localNameStartsWith(namePrefix)) {
+            return false;
+        }
+        //noinspection SimplifiableIfStatement
+        if (manufacturerId != AdvertisingData.MANUFACTURER_UNKNOWN
+                && (data.getManufacturerId() != manufacturerId || !data.manufacturerDataMatches(manufacturerData, manufacturerDataMask))) {
+            return false;
+        }
+        return true;
+    }
+
+    public UUID getServiceUuid() {
+        return serviceUuid;
+    }
+
+    public String getNamePrefix() {
+        return namePrefix;
+    }
+
+    public long[] getAddresses() {
+        return addresses;
+    }
+
+    public int getManufacturerId() {
+        return manufacturerId;
+    }
+
+    public byte[] getManufacturerData() {
+        return manufacturerData;
+    }
+
+    public byte[] getManufacturerDataMask() {
+        return manufacturerDataMask;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof BleScanFilter)) {
+            return false;
+        }
+        final BleScanFilter other = (BleScanFilter) o;
+        return manufacturerId == other.manufacturerId
+                && (serviceUuid != null ? serviceUuid.equals(other.serviceUuid) : other.serviceUuid == null)
+                && (namePrefix != null ? namePrefix.equals(other.namePrefix) : other.namePrefix == null)
+                && Arrays.equals(addresses, other.addresses)
+                && Arrays.equals(manufacturerData, other.manufacturerData)
+                && Arrays.equals(manufacturerDataMask, other.manufacturerDataMask);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = serviceUuid != null ? serviceUuid.hashCode() : 0;
+        result = 31 * result + (namePrefix != null ? namePrefix.hashCode() : 0);
+        result = 31 * result + Arrays.hashCode(addresses);
+        result = 31 * result + manufacturerId;
+        result = 31 * result + Arrays.hashCode(manufacturerData);
+        result = 31 * result + Arrays.hashCode(manufacturerDataMask);
+        return result;
+    }
+}
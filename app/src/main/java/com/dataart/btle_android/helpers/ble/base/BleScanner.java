@@ -2,6 +2,11 @@ package com.dataart.btle_android.helpers.ble.base;
 
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.dataart.btle_android.btle_gateway.advertising.AdvertisingData;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.MacAddress;
 
 
 /**
@@ -12,17 +17,112 @@ import android.bluetooth.BluetoothDevice;
 public abstract class BleScanner {
     protected final ScanCallback scanCallback;
     protected final BluetoothAdapter bluetoothAdapter;
+    protected volatile ScanParameters parameters = ScanParameters.DEFAULT;
+
+    //    scan results may come from several binder threads - parser is reused per thread
+    private final ThreadLocal<AdvertisingData> advertisingData = new ThreadLocal<AdvertisingData>() {
+        @Override
+        protected AdvertisingData initialValue() {
+            return new AdvertisingData();
+        }
+    };
+
+    //    Software batching stage, for platforms without offloaded batching: results are collected
+    //    into pending batch and handed over in one callback per report delay window
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Object flushLock = new Object();
+    private ScanBatch pending = new ScanBatch();
+    private ScanBatch delivering = new ScanBatch();
+    private volatile boolean softwareBatching = false;
+    private final Runnable flushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+            if (softwareBatching) {
+                handler.postDelayed(this, parameters.getReportDelay());
+            }
+        }
+    };
 
     public BleScanner(ScanCallback scanCallback, BluetoothAdapter bluetoothAdapter) {
         this.scanCallback = scanCallback;
         this.bluetoothAdapter = bluetoothAdapter;
     }
 
-    public abstract void startScan();
+    public void startScan() {
+        startScan(ScanParameters.DEFAULT);
+    }
+
+    public abstract void startScan(ScanParameters parameters);
 
     public abstract void stopScan();
 
+    /**
+     * Passes result to scanCallback if it matches software part of current filter,
+     * or queues it if software batching is on
+     */
+    protected void onScanResult(BluetoothDevice device, int rssi, byte[] scanRecord) {
+        final long address = MacAddress.parse(device.getAddress());
+        if (!accepts(address, scanRecord)) {
+            return;
+        }
+        if (softwareBatching) {
+            synchronized (this) {
+                pending.add(device, address, rssi, scanRecord);
+            }
+            return;
+        }
+        scanCallback.onDeviceFound(device, address, rssi, scanRecord);
+    }
+
+    protected boolean accepts(long address, byte[] scanRecord) {
+        final BleScanFilter filter = parameters.getFilter();
+        return filter.isEmpty() || filter.matches(address, advertisingData.get().wrap(scanRecord));
+    }
+
+    protected void startSoftwareBatching() {
+        softwareBatching = true;
+        handler.postDelayed(flushRunnable, parameters.getReportDelay());
+    }
+
+    //    delivers what's left in the current window
+    protected void stopSoftwareBatching() {
+        if (softwareBatching) {
+            softwareBatching = false;
+            handler.removeCallbacks(flushRunnable);
+            flush();
+        }
+    }
+
+    private void flush() {
+        synchronized (flushLock) {
+            final ScanBatch batch;
+            synchronized (this) {
+                batch = pending;
+                pending = delivering;
+                delivering = batch;
+            }
+            if (!batch.isEmpty()) {
+                scanCallback.onBatchFound(batch);
+            }
+            batch.clear();
+        }
+    }
+
     public interface ScanCallback {
-        void onDeviceFound(BluetoothDevice device, int rssi, byte[] scanRecord);
+        /**
+         * @param address MAC address of device packed into long, so it's parsed only once per result
+         */
+        void onDeviceFound(BluetoothDevice device, long address, int rssi, byte[] scanRecord);
+
+        /**
+         * Batched delivery, see {@link ScanParameters#getReportDelay()}. Batch is reused after return,
+         * so it must not be kept
+         */
+        default void onBatchFound(ScanBatch batch) {
+            for (int i = 0; i < batch.size(); i++) {
+                onDeviceFound(batch.getDevice(i), batch.getAddress(i), batch.getRssi(i), batch.getScanRecord(i));
+            }
+        }
     }
 }
@@ -0,0 +1,52 @@
+package com.dataart.btle_android.helpers.ble.base;
+
+/**
+ * LE physical layer. Values and masks are the same as android.bluetooth.BluetoothDevice.PHY_LE_*
+ */
+public enum Phy {
+    LE_1M("1m", 1, 1),
+    LE_2M("2m", 2, 2),
+    LE_CODED("coded", 3, 4);
+
+    private final String name;
+    private final int value;
+    private final int mask;
+
+    Phy(String name, int value, int mask) {
+        this.name = name;
+        this.value = value;
+        this.mask = mask;
+    }
+
+    /**
+     * @return phy or null if name is unknown
+     */
+    public static Phy fromName(final String name) {
+        for (Phy phy : values()) {
+            if (phy.name.equalsIgnoreCase(name)) {
+                return phy;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return phy reported by platform or null if value is unknown
+     */
+    public static Phy fromValue(final int value) {
+        for (Phy phy : values()) {
+            if (phy.value == value) {
+                return phy;
+            }
+        }
+        return null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMask() {
+        return mask;
+    }
+}
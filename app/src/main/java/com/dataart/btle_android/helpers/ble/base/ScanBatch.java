@@ -0,0 +1,81 @@
+package com.dataart.btle_android.helpers.ble.base;
+
+import android.bluetooth.BluetoothDevice;
+
+/**
+ * Batch of scan results delivered in one callback. Backed by parallel arrays, so it's reused
+ * from window to window without allocating per result
+ */
+public class ScanBatch {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private BluetoothDevice[] devices = new BluetoothDevice[INITIAL_CAPACITY];
+    private long[] addresses = new long[INITIAL_CAPACITY];
+    private int[] rssi = new int[INITIAL_CAPACITY];
+    private byte[][] scanRecords = new byte[INITIAL_CAPACITY][];
+    private int size;
+
+    /**
+     * @param address MAC address of device packed into long, parsed once by scanner
+     */
+    public void add(BluetoothDevice device, long address, int rssi, byte[] scanRecord) {
+        if (size == devices.length) {
+            grow();
+        }
+        this.devices[size] = device;
+        this.addresses[size] = address;
+        this.rssi[size] = rssi;
+        this.scanRecords[size] = scanRecord;
+        size++;
+    }
+
+    public void clear() {
+//        drop references, so devices and records of the window can be collected
+        for (int i = 0; i < size; i++) {
+            devices[i] = null;
+            scanRecords[i] = null;
+        }
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public BluetoothDevice getDevice(int index) {
+        return devices[index];
+    }
+
+    public long getAddress(int index) {
+        return addresses[index];
+    }
+
+    public int getRssi(int index) {
+        return rssi[index];
+    }
+
+    public byte[] getScanRecord(int index) {
+        return scanRecords[index];
+    }
+
+    private void grow() {
+        final int capacity = devices.length * 2;
+        final BluetoothDevice[] grownDevices = new BluetoothDevice[capacity];
+        final long[] grownAddresses = new long[capacity];
+        final int[] grownRssi = new int[capacity];
+        final byte[][] grownRecords = new byte[capacity][];
+        System.arraycopy(devices, 0, grownDevices, 0, size);
+        System.arraycopy(addresses, 0, grownAddresses, 0, size);
+        System.arraycopy(rssi, 0, grownRssi, 0, size);
+        System.arraycopy(scanRecords, 0, grownRecords, 0, size);
+        devices = grownDevices;
+        addresses = grownAddresses;
+        rssi = grownRssi;
+        scanRecords = grownRecords;
+    }
+}
@@ -0,0 +1,75 @@
+package com.dataart.btle_android.helpers.ble.base;
+
+/**
+ * Filter, scan mode and report delay for a single scan. On Android L and above all are handed to the controller
+ * through ScanFilter and ScanSettings, on Jelly Bean filter and batching are applied in software and mode is ignored.
+ * Low power is the platform default mode
+ */
+public class ScanParameters {
+
+    public static final ScanParameters DEFAULT = new ScanParameters(BleScanFilter.ANY, ScanMode.LOW_POWER);
+
+    private final BleScanFilter filter;
+    private final ScanMode scanMode;
+    private final long reportDelay;
+
+    public ScanParameters(BleScanFilter filter, ScanMode scanMode) {
+        this(filter, scanMode, 0);
+    }
+
+    /**
+     * @param reportDelay batch window in milliseconds, 0 to deliver every result immediately
+     */
+    public ScanParameters(BleScanFilter filter, ScanMode scanMode, long reportDelay) {
+        this.filter = filter != null ? filter : BleScanFilter.ANY;
+        this.scanMode = scanMode != null ? scanMode : ScanMode.LOW_POWER;
+        this.reportDelay = Math.max(0, reportDelay);
+    }
+
+    public BleScanFilter getFilter() {
+        return filter;
+    }
+
+    public ScanMode getScanMode() {
+        return scanMode;
+    }
+
+    public long getReportDelay() {
+        return reportDelay;
+    }
+
+    public boolean isBatched() {
+        return reportDelay > 0;
+    }
+
+    public enum ScanMode {
+        //        values are the same as android.bluetooth.le.ScanSettings.SCAN_MODE_*
+        LOW_POWER("lowPower", 0),
+        BALANCED("balanced", 1),
+        LOW_LATENCY("lowLatency", 2);
+
+        private final String name;
+        private final int value;
+
+        ScanMode(String name, int value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        /**
+         * @return scan mode or null if name is unknown
+         */
+        public static ScanMode fromName(final String name) {
+            for (ScanMode mode : values()) {
+                if (mode.name.equalsIgnoreCase(name)) {
+                    return mode;
+                }
+            }
+            return null;
+        }
+
+        public int getValue() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.dataart.btle_android.helpers.ble.connectors;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.content.Context;
+
+import com.dataart.btle_android.helpers.ble.base.BleConnector;
+import com.dataart.btle_android.helpers.ble.base.Phy;
+
+/**
+ * Connector for Android Jelly Bean to Lollipop: no transport or phy options, link stays on 1M
+ */
+public class BleConnectorJ extends BleConnector {
+
+    public BleConnectorJ(BluetoothAdapter bluetoothAdapter) {
+        super(bluetoothAdapter);
+    }
+
+    @Override
+    public BluetoothGatt connect(Context context, BluetoothDevice device, BluetoothGattCallback callback, Phy phy) {
+        return device.connectGatt(context, false, callback);
+    }
+}
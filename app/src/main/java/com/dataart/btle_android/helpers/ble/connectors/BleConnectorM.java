@@ -0,0 +1,29 @@
+package com.dataart.btle_android.helpers.ble.connectors;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.content.Context;
+import android.os.Build;
+
+import com.dataart.btle_android.helpers.ble.base.BleConnector;
+import com.dataart.btle_android.helpers.ble.base.Phy;
+
+/**
+ * Connector for Android M and N: LE transport is requested explicitly, so dual-mode devices
+ * are not connected over BR/EDR. There is no phy control yet
+ */
+@TargetApi(Build.VERSION_CODES.M)
+public class BleConnectorM extends BleConnector {
+
+    public BleConnectorM(BluetoothAdapter bluetoothAdapter) {
+        super(bluetoothAdapter);
+    }
+
+    @Override
+    public BluetoothGatt connect(Context context, BluetoothDevice device, BluetoothGattCallback callback, Phy phy) {
+        return device.connectGatt(context, false, callback, BluetoothDevice.TRANSPORT_LE);
+    }
+}
@@ -0,0 +1,64 @@
+package com.dataart.btle_android.helpers.ble.connectors;
+
+import android.annotation.TargetApi;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCallback;
+import android.content.Context;
+import android.os.Build;
+
+import com.dataart.btle_android.helpers.ble.base.BleConnector;
+import com.dataart.btle_android.helpers.ble.base.Phy;
+
+import timber.log.Timber;
+
+/**
+ * Connector for Android O and above: LE transport and phy selection. Phys the adapter doesn't support
+ * are not requested at all
+ */
+@TargetApi(Build.VERSION_CODES.O)
+public class BleConnectorO extends BleConnector {
+
+    public BleConnectorO(BluetoothAdapter bluetoothAdapter) {
+        super(bluetoothAdapter);
+    }
+
+    @Override
+    public BluetoothGatt connect(Context context, BluetoothDevice device, BluetoothGattCallback callback, Phy phy) {
+//        2M can't be used to establish connection, Coded can - it's the long range option
+        int mask = BluetoothDevice.PHY_LE_1M_MASK;
+        if (phy == Phy.LE_CODED && isPhySupported(phy)) {
+            mask |= BluetoothDevice.PHY_LE_CODED_MASK;
+        }
+        return device.connectGatt(context, false, callback, BluetoothDevice.TRANSPORT_LE, mask);
+    }
+
+    @Override
+    public boolean setPreferredPhy(BluetoothGatt gatt, Phy phy) {
+        if (phy == null || !isPhySupported(phy)) {
+            Timber.d("phy %s is not supported by adapter", phy != null ? phy.getName() : null);
+            return false;
+        }
+        gatt.setPreferredPhy(phy.getMask(), phy.getMask(), BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+        return true;
+    }
+
+    @Override
+    public boolean readPhy(BluetoothGatt gatt) {
+        gatt.readPhy();
+        return true;
+    }
+
+    @Override
+    public boolean isPhySupported(Phy phy) {
+        switch (phy) {
+            case LE_2M:
+                return bluetoothAdapter.isLe2MPhySupported();
+            case LE_CODED:
+                return bluetoothAdapter.isLeCodedPhySupported();
+            default:
+                return true;
+        }
+    }
+}
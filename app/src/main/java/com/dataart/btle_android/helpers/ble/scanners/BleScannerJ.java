@@ -3,11 +3,13 @@ package com.dataart.btle_android.helpers.ble.scanners;
 import android.bluetooth.BluetoothAdapter;
 
 import com.dataart.btle_android.helpers.ble.base.BleScanner;
+import com.dataart.btle_android.helpers.ble.base.ScanParameters;
 
 
 /**
  * Created by Constantine Mars on 6/13/16.
- * Scanner for Android Jelly Bean
+ * Scanner for Android Jelly Bean. Platform can't filter or batch here, so both are done in software
+ * and scan mode is ignored
  */
 
 @SuppressWarnings("deprecation")
@@ -17,16 +19,21 @@ public class BleScannerJ extends BleScanner {
 
     public BleScannerJ(ScanCallback scanCallback, BluetoothAdapter bluetoothAdapter) {
         super(scanCallback, bluetoothAdapter);
-        callback = scanCallback::onDeviceFound;
+        callback = this::onScanResult;
     }
 
     @Override
-    public void startScan() {
+    public void startScan(ScanParameters parameters) {
+        this.parameters = parameters;
+        if (parameters.isBatched()) {
+            startSoftwareBatching();
+        }
         bluetoothAdapter.startLeScan(callback);
     }
 
     @Override
     public void stopScan() {
         bluetoothAdapter.stopLeScan(callback);
+        stopSoftwareBatching();
     }
 }
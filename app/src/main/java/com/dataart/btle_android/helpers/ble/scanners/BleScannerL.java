@@ -4,13 +4,29 @@ import android.annotation.TargetApi;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
 import android.os.Build;
+import android.os.ParcelUuid;
+
+import com.dataart.btle_android.btle_gateway.gateway_helpers.GatewayTimer;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.MacAddress;
+import com.dataart.btle_android.helpers.ble.base.BleScanFilter;
+import com.dataart.btle_android.helpers.ble.base.ScanBatch;
+import com.dataart.btle_android.helpers.ble.base.ScanParameters;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * Created by Constantine Mars on 6/13/16.
  * <p>
- * Scanner for Android L and above
+ * Scanner for Android L and above. Filter, scan mode and report delay are pushed down to the controller,
+ * so the app processor is woken up only for matching adverts, once per batch window.
+ * Without offloaded batching support, results are batched in software.
+ * On stop, the batch collected by the controller so far is flushed and delivered before the scan is stopped
  */
 
 @TargetApi(Build.VERSION_CODES.LOLLIPOP)
@@ -18,27 +34,76 @@ public class BleScannerL extends BleScannerJ {
 
     private BluetoothLeScanner scanner;
 
-    private final android.bluetooth.le.ScanCallback callback;
+    //    flushed batch that doesn't arrive in this time is considered empty
+    private static final long FLUSH_TIMEOUT = 1000;
+
+    //    new callback per scan, so the stopped one may wait for its last batch while the next scan runs
+    private Callback callback;
+    private final ScanBatch hardwareBatch = new ScanBatch();
+    private boolean hardwareBatching = false;
 
     public BleScannerL(ScanCallback scanCallback, BluetoothAdapter bluetoothAdapter) {
         super(scanCallback, bluetoothAdapter);
-
-        callback = createCallback(scanCallback);
     }
 
-    private static android.bluetooth.le.ScanCallback createCallback(ScanCallback scanCallback) {
-        return new android.bluetooth.le.ScanCallback() {
-            @Override
-            public void onScanResult(int callbackType, ScanResult result) {
+    private class Callback extends android.bluetooth.le.ScanCallback {
+        private boolean stopped = false;
+        private ScheduledFuture<?> flushDeadline;
+
+        @Override
+        public void onScanResult(int callbackType, ScanResult result) {
 
-                BluetoothDevice device = result.getDevice();
-                int rssi = result.getRssi();
-                byte[] scanRecord = (result.getScanRecord() != null ? result.getScanRecord().getBytes() : null);
-                scanCallback.onDeviceFound(device, rssi, scanRecord);
+            BluetoothDevice device = result.getDevice();
+            int rssi = result.getRssi();
+            byte[] scanRecord = (result.getScanRecord() != null ? result.getScanRecord().getBytes() : null);
+//            name prefix has no hardware counterpart and is checked here
+            BleScannerL.this.onScanResult(device, rssi, scanRecord);
 
-                super.onScanResult(callbackType, result);
+            super.onScanResult(callbackType, result);
+        }
+
+        @Override
+        public void onBatchScanResults(List<ScanResult> results) {
+//            whole window comes in one binder call and is handed over in one pass
+            synchronized (hardwareBatch) {
+                for (ScanResult result : results) {
+                    BluetoothDevice device = result.getDevice();
+                    byte[] scanRecord = (result.getScanRecord() != null ? result.getScanRecord().getBytes() : null);
+                    final long address = MacAddress.parse(device.getAddress());
+                    if (accepts(address, scanRecord)) {
+                        hardwareBatch.add(device, address, result.getRssi(), scanRecord);
+                    }
+                }
+                if (!hardwareBatch.isEmpty()) {
+                    scanCallback.onBatchFound(hardwareBatch);
+                }
+                hardwareBatch.clear();
             }
-        };
+            if (isFlushing()) {
+                stop();
+            }
+        }
+
+        private synchronized boolean isFlushing() {
+            return flushDeadline != null;
+        }
+
+        //    Flushed batch arrives asynchronously and only while scan is running, so scan is stopped after it
+        synchronized void flushAndStop() {
+            getScanner().flushPendingScanResults(this);
+            flushDeadline = GatewayTimer.schedule(this::stop, FLUSH_TIMEOUT);
+        }
+
+        synchronized void stop() {
+            if (stopped) {
+                return;
+            }
+            stopped = true;
+            if (flushDeadline != null) {
+                flushDeadline.cancel(false);
+            }
+            getScanner().stopScan(this);
+        }
     }
 
     private BluetoothLeScanner getScanner() {
@@ -49,14 +114,78 @@ public class BleScannerL extends BleScannerJ {
     }
 
     @Override
-    public void startScan() {
-        getScanner().startScan(callback);
+    public void startScan(ScanParameters parameters) {
+        this.parameters = parameters;
+        final ScanSettings.Builder settings = new ScanSettings.Builder()
+                .setScanMode(parameters.getScanMode().getValue());
+
+        hardwareBatching = parameters.isBatched() && bluetoothAdapter.isOffloadedScanBatchingSupported();
+        if (hardwareBatching) {
+            settings.setReportDelay(parameters.getReportDelay());
+        } else if (parameters.isBatched()) {
+            startSoftwareBatching();
+        }
+        callback = new Callback();
+        getScanner().startScan(createFilters(parameters.getFilter()), settings.build(), callback);
     }
 
     @Override
     public void stopScan() {
-        getScanner().stopScan(callback);
+        if (callback == null) {
+            return;
+        }
+        if (hardwareBatching) {
+            callback.flushAndStop();
+            hardwareBatching = false;
+        } else {
+            callback.stop();
+        }
+        callback = null;
+        stopSoftwareBatching();
     }
 
+    //    Filters in the list are OR-ed, so each address gets its own filter with the rest of conditions
+    private static List<ScanFilter> createFilters(BleScanFilter filter) {
+        final List<ScanFilter> filters = new ArrayList<>();
+        if (filter.isEmpty()) {
+            return filters;
+        }
+
+        final long[] addresses = filter.getAddresses();
+        if (addresses == null) {
+            filters.add(createFilter(filter, null));
+        } else {
+            for (long address : addresses) {
+                filters.add(createFilter(filter, MacAddress.toString(address)));
+            }
+        }
+        return filters;
+    }
 
+    private static ScanFilter createFilter(BleScanFilter filter, String address) {
+        final ScanFilter.Builder builder = new ScanFilter.Builder();
+        if (address != null) {
+            builder.setDeviceAddress(address);
+        }
+        if (filter.getServiceUuid() != null) {
+            builder.setServiceUuid(new ParcelUuid(filter.getServiceUuid()));
+        }
+        if (filter.getManufacturerId() >= 0) {
+            final byte[] data = filter.getManufacturerData() != null ? filter.getManufacturerData() : new byte[0];
+            builder.setManufacturerData(filter.getManufacturerId(), data, maskFor(data, filter.getManufacturerDataMask()));
+        }
+        return builder.build();
+    }
+
+    //    ScanFilter requires mask of the same length as data
+    private static byte[] maskFor(byte[] data, byte[] mask) {
+        if (mask == null || mask.length == data.length) {
+            return mask;
+        }
+        final byte[] result = new byte[data.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = i < mask.length ? mask[i] : (byte) 0xFF;
+        }
+        return result;
+    }
 }
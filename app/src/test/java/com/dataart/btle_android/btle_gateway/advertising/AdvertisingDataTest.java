@@ -0,0 +1,204 @@
+package com.dataart.btle_android.btle_gateway.advertising;
+
+import com.dataart.btle_android.btle_gateway.gateway_helpers.Benchmark;
+import com.dataart.btle_android.btle_gateway.gateway_helpers.HexHelper;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class AdvertisingDataTest {
+
+    //    Common advert layouts: iBeacon, Eddystone-UID, and a sensor with name, TX power and service UUIDs
+    private static final byte[] IBEACON = HexHelper.parseHexBinary(
+            "0201061AFF4C000215F7826DA64FA24E988024BC5B71E0893E00010002C5");
+    private static final byte[] EDDYSTONE_UID = HexHelper.parseHexBinary(
+            "0201060303AAFE1716AAFE00E7EDD3F0F3A5B1C4D9A8F2E100000000000100000000000000");
+    private static final byte[] SENSOR_TAG = HexHelper.parseHexBinary(
+            "0201060B0953656E736F7254616731020A040502"
+                    + "0F180A1811079ECADC240EE5A9E093F3A3B50100406E0000000000");
+    private static final byte[] TRUNCATED = HexHelper.parseHexBinary("0201060B0953656E73");
+
+    private static final byte[][] RECORDED = {IBEACON, EDDYSTONE_UID, SENSOR_TAG};
+
+    private static final UUID NORDIC_UART = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
+    private static final UUID BATTERY_SERVICE = UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb");
+
+    @Test
+    public void localNameTxPowerAndServiceUuids() {
+        final AdvertisingData data = new AdvertisingData().wrap(SENSOR_TAG);
+        assertTrue(data.hasLocalName());
+        assertEquals("SensorTag1", data.getLocalName());
+        assertTrue(data.localNameStartsWith("Sensor"));
+        assertFalse(data.localNameStartsWith("SensorTag12"));
+        assertEquals(4, data.getTxPowerLevel());
+
+        assertEquals(3, data.getServiceUuidCount());
+        assertEquals(BATTERY_SERVICE, data.getServiceUuid(0));
+        assertEquals(UUID.fromString("0000180a-0000-1000-8000-00805f9b34fb"), data.getServiceUuid(1));
+        assertEquals(NORDIC_UART, data.getServiceUuid(2));
+        assertTrue(data.hasServiceUuid(NORDIC_UART));
+        assertTrue(data.hasServiceUuid(BATTERY_SERVICE));
+        assertFalse(data.hasServiceUuid(UUID.fromString("0000feaa-0000-1000-8000-00805f9b34fb")));
+        assertEquals(AdvertisingData.MANUFACTURER_UNKNOWN, data.getManufacturerId());
+    }
+
+    @Test
+    public void manufacturerData() {
+        final AdvertisingData data = new AdvertisingData().wrap(IBEACON);
+        assertEquals(0x004C, data.getManufacturerId());
+        assertEquals(23, data.getManufacturerDataLength());
+        assertEquals(0x02, data.getRecord()[data.getManufacturerDataOffset()]);
+        assertTrue(data.manufacturerDataMatches(new byte[]{0x02, 0x15}, null));
+        assertTrue(data.manufacturerDataMatches(new byte[]{0x02, 0x00}, new byte[]{(byte) 0xFF, 0x00}));
+        assertFalse(data.manufacturerDataMatches(new byte[]{0x02, 0x16}, null));
+        assertFalse(data.hasLocalName());
+        assertEquals(AdvertisingData.TX_POWER_UNKNOWN, data.getTxPowerLevel());
+    }
+
+    @Test
+    public void serviceData() {
+        final AdvertisingData data = new AdvertisingData().wrap(EDDYSTONE_UID);
+        assertEquals(1, data.getServiceUuidCount());
+        assertEquals(1, data.getServiceDataCount());
+        assertEquals(UUID.fromString("0000feaa-0000-1000-8000-00805f9b34fb"), data.getServiceDataUuid(0));
+        assertEquals(20, data.getServiceDataLength(0));
+        assertEquals("00E7EDD3F0F3A5B1C4D9A8F2E100000000000100", data.getServiceDataHex(0));
+    }
+
+    @Test
+    public void malformedTailAndNullRecordAreIgnored() {
+        final AdvertisingData data = new AdvertisingData().wrap(TRUNCATED);
+        assertFalse(data.hasLocalName());
+        assertEquals(0, data.getServiceUuidCount());
+
+        data.wrap(null);
+        assertNull(data.getLocalName());
+        assertEquals(0, data.getServiceDataCount());
+    }
+
+    @Test
+    public void instanceIsReusedAcrossRecords() {
+        final AdvertisingData data = new AdvertisingData();
+        data.wrap(SENSOR_TAG);
+        data.wrap(IBEACON);
+        assertFalse(data.hasLocalName());
+        assertEquals(0, data.getServiceUuidCount());
+        assertEquals(0x004C, data.getManufacturerId());
+    }
+
+    @Test
+    public void filteringDoesNotAllocate() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        final long thread = Thread.currentThread().getId();
+        final AdvertisingData data = new AdvertisingData();
+
+        long matches = filter(data, 100000);
+        final long before = threads.getThreadAllocatedBytes(thread);
+        matches += filter(data, 100000);
+        final long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue(matches > 0);
+        assertTrue("allocated " + allocated + " bytes", allocated < 1000);
+    }
+
+    /**
+     * Typical scan callback work - parse advert and check filters, flyweight vs. parser which copies every AD structure
+     */
+    @Test
+    public void filterBenchmark() {
+        final int adverts = 30000;
+        final AdvertisingData data = new AdvertisingData();
+        Benchmark.nanosPerOp("flyweight parse and filter", adverts, () -> filter(data, adverts));
+        Benchmark.nanosPerOp("copying parse and filter", adverts, () -> {
+            long matches = 0;
+            for (int i = 0; i < adverts; i++) {
+                final CopyingParser parsed = new CopyingParser(RECORDED[i % RECORDED.length]);
+                if (parsed.serviceUuids.contains(NORDIC_UART)
+                        || parsed.localName != null && parsed.localName.startsWith("Sensor")
+                        || parsed.manufacturerId == 0x004C) {
+                    matches++;
+                }
+            }
+            return matches;
+        });
+    }
+
+    private static long filter(AdvertisingData data, int adverts) {
+        long matches = 0;
+        for (int i = 0; i < adverts; i++) {
+            data.wrap(RECORDED[i % RECORDED.length]);
+            if (data.hasServiceUuid(NORDIC_UART) || data.localNameStartsWith("Sensor") || data.getManufacturerId() == 0x004C) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    //    The usual approach, like android.bluetooth.le.ScanRecord: every structure is copied out up front
+    private static class CopyingParser {
+        final List<UUID> serviceUuids = new ArrayList<>();
+        final List<byte[]> serviceData = new ArrayList<>();
+        String localName;
+        int manufacturerId = AdvertisingData.MANUFACTURER_UNKNOWN;
+        byte[] manufacturerData;
+
+        CopyingParser(byte[] record) {
+            int offset = 0;
+            while (offset < record.length) {
+                final int length = record[offset] & 0xFF;
+                if (length == 0 || offset + length >= record.length) {
+                    break;
+                }
+                final byte[] value = new byte[length - 1];
+                System.arraycopy(record, offset + 2, value, 0, value.length);
+                switch (record[offset + 1] & 0xFF) {
+                    case 0x02:
+                    case 0x03:
+                        for (int i = 0; i + 1 < value.length; i += 2) {
+                            final long alias = (value[i] & 0xFF) | (value[i + 1] & 0xFF) << 8;
+                            serviceUuids.add(new UUID(0x0000000000001000L | alias << 32, 0x800000805F9B34FBL));
+                        }
+                        break;
+                    case 0x06:
+                    case 0x07:
+                        for (int i = 0; i + 15 < value.length; i += 16) {
+                            long msb = 0;
+                            long lsb = 0;
+                            for (int j = 15; j >= 8; j--) {
+                                msb = (msb << 8) | (value[i + j] & 0xFF);
+                            }
+                            for (int j = 7; j >= 0; j--) {
+                                lsb = (lsb << 8) | (value[i + j] & 0xFF);
+                            }
+                            serviceUuids.add(new UUID(msb, lsb));
+                        }
+                        break;
+                    case 0x08:
+                    case 0x09:
+                        localName = new String(value);
+                        break;
+                    case 0x16:
+                        serviceData.add(value);
+                        break;
+                    case 0xFF:
+                        manufacturerId = (value[0] & 0xFF) | (value[1] & 0xFF) << 8;
+                        manufacturerData = value;
+                        break;
+                }
+                offset += length + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.dataart.btle_android.btle_gateway.gateway_helpers;
+
+import java.util.Locale;
+
+/**
+ * Minimal timed loop for micro-benchmarks run as unit tests: warms up, then takes the best of several rounds.
+ * Numbers are printed for comparison only, timings depend on the machine and nothing is asserted on them
+ */
+public final class Benchmark {
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    //    keeps JIT from dropping results of measured code
+    private static volatile long sink;
+
+    private Benchmark() {
+    }
+
+    public interface Body {
+        /**
+         * @return any value depending on the work done
+         */
+        long run();
+    }
+
+    /**
+     * @param ops number of operations body performs per call
+     * @return nanoseconds per operation, best of the measured rounds
+     */
+    public static double nanosPerOp(String name, int ops, Body body) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sink += body.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            final long start = System.nanoTime();
+            sink += body.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        final double result = (double) best / ops;
+        System.out.println(String.format(Locale.US, "%-50s %10.1f ns/op", name, result));
+        return result;
+    }
+}
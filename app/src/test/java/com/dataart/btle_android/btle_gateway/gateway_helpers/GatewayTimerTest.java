@@ -0,0 +1,130 @@
+package com.dataart.btle_android.btle_gateway.gateway_helpers;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GatewayTimerTest {
+
+    private static final long LONG_TIMEOUT = 10 * 1000;
+
+    @Test
+    public void timerFires() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final long fired = GatewayTimer.getFired();
+        GatewayTimer.schedule(latch::countDown, 10);
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertTrue(GatewayTimer.getFired() > fired);
+    }
+
+    @Test
+    public void cancelledTimerLeavesQueueRightAway() {
+        final int pending = GatewayTimer.getPending();
+        final ScheduledFuture<?> timeout = GatewayTimer.schedule(() -> {
+        }, LONG_TIMEOUT);
+        assertEquals(pending + 1, GatewayTimer.getPending());
+        timeout.cancel(false);
+        assertEquals(pending, GatewayTimer.getPending());
+    }
+
+    @Test
+    public void failingPeriodicTaskKeepsRunning() throws InterruptedException {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<ScheduledFuture<?>> periodic = new AtomicReference<>();
+        final int pending = GatewayTimer.getPending();
+        periodic.set(GatewayTimer.scheduleAtFixedRate(() -> {
+            if (runs.incrementAndGet() == 3) {
+//                cancelled while running, so it isn't queued again
+                periodic.get().cancel(false);
+                latch.countDown();
+            }
+            throw new IllegalStateException("task failure");
+        }, 5));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(3, runs.get());
+        assertEquals(pending, GatewayTimer.getPending());
+    }
+
+    @Test
+    public void timeoutNames() {
+        assertSame(GatewayTimer.Timeout.DESCRIPTOR_WRITE, GatewayTimer.Timeout.fromName("descriptorwrite"));
+        assertEquals("deviceWait", GatewayTimer.Timeout.DEVICE_WAIT.getName());
+        assertNull(GatewayTimer.Timeout.fromName("unknown"));
+    }
+
+    /**
+     * Thread count doesn't depend on how many operations are waiting for their timeouts
+     */
+    @Test
+    public void threadCountStaysFlat() throws InterruptedException {
+//        timer thread is started lazily, make sure it's there before counting
+        final CountDownLatch started = new CountDownLatch(1);
+        GatewayTimer.execute(started::countDown);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        final int threads = Thread.activeCount();
+        final int pending = GatewayTimer.getPending();
+        final ScheduledFuture<?>[] timeouts = new ScheduledFuture<?>[10000];
+        for (int i = 0; i < timeouts.length; i++) {
+            timeouts[i] = GatewayTimer.schedule(() -> {
+            }, LONG_TIMEOUT);
+        }
+        assertEquals(pending + timeouts.length, GatewayTimer.getPending());
+        assertEquals(threads, Thread.activeCount());
+        for (ScheduledFuture<?> timeout : timeouts) {
+            timeout.cancel(false);
+        }
+        assertEquals(pending, GatewayTimer.getPending());
+    }
+
+    /**
+     * Timeout of operation which completes in time: scheduled and cancelled timer vs. sleeping thread it replaced
+     */
+    @Test
+    public void timeoutBenchmark() {
+        final int ops = 200;
+        Benchmark.nanosPerOp("timer schedule and cancel", ops, () -> {
+            long cancelled = 0;
+            for (int i = 0; i < ops; i++) {
+                if (GatewayTimer.schedule(() -> {
+                }, LONG_TIMEOUT).cancel(false)) {
+                    cancelled++;
+                }
+            }
+            return cancelled;
+        });
+        Benchmark.nanosPerOp("sleeping thread start and interrupt", ops, () -> {
+            final Thread[] sleepers = new Thread[ops];
+            for (int i = 0; i < ops; i++) {
+                sleepers[i] = new Thread(() -> {
+                    try {
+                        Thread.sleep(LONG_TIMEOUT);
+                    } catch (InterruptedException ignored) {
+                    }
+                });
+                sleepers[i].start();
+            }
+//            the old timeout thread was never stopped, it slept till the end - here it's stopped to keep test short
+            for (Thread sleeper : sleepers) {
+                sleeper.interrupt();
+            }
+            for (Thread sleeper : sleepers) {
+                try {
+                    sleeper.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return sleepers.length;
+        });
+    }
+}
@@ -0,0 +1,115 @@
+package com.dataart.btle_android.btle_gateway.gateway_helpers;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LongHashMapTest {
+
+    @Test
+    public void putGetRemove() {
+        final LongHashMap<String> map = new LongHashMap<>();
+        assertTrue(map.isEmpty());
+        assertNull(map.put(0x112233445566L, "a"));
+        assertNull(map.put(0L, "zero"));
+        assertEquals("a", map.put(0x112233445566L, "b"));
+
+        assertEquals("b", map.get(0x112233445566L));
+        assertEquals("zero", map.get(0L));
+        assertNull(map.get(1L));
+        assertEquals(2, map.size());
+
+        assertEquals("b", map.remove(0x112233445566L));
+        assertNull(map.remove(0x112233445566L));
+        assertFalse(map.containsKey(0x112233445566L));
+        assertTrue(map.containsKey(0L));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void putIfAbsentKeepsExisting() {
+        final LongHashMap<String> map = new LongHashMap<>();
+        assertNull(map.putIfAbsent(7L, "first"));
+        assertEquals("first", map.putIfAbsent(7L, "second"));
+        assertEquals("first", map.get(7L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullValueIsRejected() {
+        new LongHashMap<String>().put(1L, null);
+    }
+
+    @Test
+    public void growsAndSurvivesRemovals() {
+        final LongHashMap<Long> map = new LongHashMap<>();
+        for (long key = 0; key < 10000; key++) {
+            map.put(key * 31, key);
+        }
+        for (long key = 0; key < 10000; key += 2) {
+            map.remove(key * 31);
+        }
+//        removed slots are only dropped on rehash, keep inserting past it
+        for (long key = 10000; key < 20000; key++) {
+            map.put(key * 31, key);
+        }
+        assertEquals(15000, map.size());
+        for (long key = 0; key < 20000; key++) {
+            final Long value = map.get(key * 31);
+            if (key < 10000 && key % 2 == 0) {
+                assertNull(value);
+            } else {
+                assertEquals(Long.valueOf(key), value);
+            }
+        }
+        assertEquals(15000, map.values().size());
+    }
+
+    @Test
+    public void clearEmptiesMap() {
+        final LongHashMap<String> map = new LongHashMap<>();
+        map.put(1L, "a");
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(1L));
+        assertTrue(map.values().isEmpty());
+    }
+
+    @Test
+    public void readersDontSeeTornEntriesWhileWriterGrowsMap() throws InterruptedException {
+        final LongHashMap<Long> map = new LongHashMap<>();
+        final int count = 200000;
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final Thread reader = new Thread(() -> {
+            while (map.size() < count && failure.get() == null) {
+                for (long key = 0; key < 1000; key++) {
+                    final Long value = map.get(key);
+                    if (value != null && value != key) {
+                        failure.set("key " + key + " has value " + value);
+                    }
+                }
+                final List<Long> snapshot = map.values();
+                final Set<Long> unique = new HashSet<>(snapshot);
+                if (unique.size() != snapshot.size()) {
+                    failure.set("snapshot has duplicates");
+                }
+            }
+        });
+        reader.start();
+        for (long key = 0; key < count; key++) {
+            map.put(key, key);
+        }
+        reader.join();
+        assertNull(failure.get(), failure.get());
+        for (long key = 0; key < count; key++) {
+            assertEquals(Long.valueOf(key), map.get(key));
+        }
+    }
+}
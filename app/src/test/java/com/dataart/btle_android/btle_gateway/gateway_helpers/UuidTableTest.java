@@ -0,0 +1,128 @@
+package com.dataart.btle_android.btle_gateway.gateway_helpers;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UuidTableTest {
+
+    private static final UUID BATTERY_LEVEL = UUID.fromString("00002a19-0000-1000-8000-00805f9b34fb");
+    private static final UUID TI_AA01 = UUID.fromString("f000aa01-0451-4000-b000-000000000000");
+    private static final UUID OTHER_AA01 = UUID.fromString("1234aa01-0000-4000-8000-000000000000");
+    private static final UUID BASE_AA02 = UUID.fromString("0000aa02-0000-1000-8000-00805f9b34fb");
+    private static final UUID TI_AA02 = UUID.fromString("f000aa02-0451-4000-b000-000000000000");
+
+    @Test
+    public void parseKeepsAliasForm() {
+        assertTrue(AttributeUuid.parse("2A19").alias);
+        assertTrue(AttributeUuid.parse("00002a19").alias);
+        assertFalse(AttributeUuid.parse(BATTERY_LEVEL.toString()).alias);
+        assertEquals(BATTERY_LEVEL, AttributeUuid.parse("2a19").uuid);
+        assertEquals("2a19", AttributeUuid.parse("2A19").toString());
+        assertNull(AttributeUuid.parse("2a1"));
+        assertNull(AttributeUuid.parse("xyzw"));
+    }
+
+    @Test
+    public void shortAliasResolvesVendorUuid() {
+        final UuidTable table = new UuidTable(Arrays.asList(BATTERY_LEVEL, TI_AA01));
+        assertEquals(BATTERY_LEVEL, table.resolve(AttributeUuid.parse("2a19")));
+        assertEquals(TI_AA01, table.resolve(AttributeUuid.parse("aa01")));
+        assertEquals(TI_AA01, table.resolve(AttributeUuid.parse("f000aa01")));
+        assertNull(table.resolve(AttributeUuid.parse("aa03")));
+    }
+
+    @Test
+    public void aliasSharedByVendorUuidsIsAmbiguous() {
+        final UuidTable table = new UuidTable(Arrays.asList(TI_AA01, OTHER_AA01, BATTERY_LEVEL));
+        assertNull(table.resolve(AttributeUuid.parse("aa01")));
+        assertTrue(table.isAmbiguous(AttributeUuid.parse("aa01")));
+        assertFalse(table.isAmbiguous(AttributeUuid.parse("2a19")));
+        assertEquals(Collections.singletonList("aa01"), table.getAmbiguousAliases());
+//        full UUIDs still resolve
+        assertEquals(TI_AA01, table.resolve(AttributeUuid.exact(TI_AA01)));
+        assertEquals(OTHER_AA01, table.resolve(AttributeUuid.parse(OTHER_AA01.toString())));
+    }
+
+    @Test
+    public void standardUuidWinsOverVendorOnesSharingAlias() {
+        final UuidTable table = new UuidTable(Arrays.asList(TI_AA02, BASE_AA02));
+        assertEquals(BASE_AA02, table.resolve(AttributeUuid.parse("aa02")));
+        assertFalse(table.isAmbiguous(AttributeUuid.parse("aa02")));
+        assertTrue(table.getAmbiguousAliases().isEmpty());
+    }
+
+    @Test
+    public void fullUuidIsMatchedExactly() {
+        final UuidTable table = new UuidTable(Collections.singletonList(TI_AA01));
+        final UUID expanded = UUID.fromString("0000aa01-0000-1000-8000-00805f9b34fb");
+//        written in full, standard UUID stands only for itself and isn't taken for alias of vendor one
+        assertEquals(expanded, table.resolve(AttributeUuid.parse(expanded.toString())));
+        assertFalse(table.isAmbiguous(AttributeUuid.parse(expanded.toString())));
+        assertEquals(TI_AA01, table.resolve(AttributeUuid.parse("aa01")));
+    }
+
+    @Test
+    public void undiscoveredFullUuidIsPassedThrough() {
+        final UUID unknown = UUID.randomUUID();
+        assertEquals(unknown, UuidTable.EMPTY.resolve(AttributeUuid.exact(unknown)));
+        assertNull(UuidTable.EMPTY.resolve(AttributeUuid.parse("2a19")));
+        assertNull(UuidTable.EMPTY.resolve(null));
+    }
+
+    @Test
+    public void duplicatesAreNotAmbiguous() {
+        final UuidTable table = new UuidTable(Arrays.asList(TI_AA01, TI_AA01));
+        assertEquals(1, table.size());
+        assertEquals(TI_AA01, table.resolve(AttributeUuid.parse("aa01")));
+    }
+
+    /**
+     * Per-operation resolution: table vs. string slicing and UUID.fromString it replaced
+     */
+    @Test
+    public void resolutionBenchmark() {
+        final int ops = 100000;
+        final List<UUID> discovered = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            discovered.add(new UUID(0xf0000000_04514000L | (long) (0xaa00 + i) << 32, 0xb000000000000000L));
+        }
+        final UuidTable table = new UuidTable(discovered);
+        final AttributeUuid[] parsed = new AttributeUuid[discovered.size()];
+        final String[] aliases = new String[discovered.size()];
+        final Map<String, String> shortToLong = new HashMap<>();
+        for (int i = 0; i < parsed.length; i++) {
+            aliases[i] = String.format(Locale.US, "%04x", 0xaa00 + i);
+            parsed[i] = AttributeUuid.parse(aliases[i]);
+            final String full = discovered.get(i).toString();
+            shortToLong.put(full.toLowerCase().substring(4, 8), full);
+        }
+
+        Benchmark.nanosPerOp("uuid table resolve", ops, () -> {
+            long hash = 0;
+            for (int i = 0; i < ops; i++) {
+                hash += table.resolve(parsed[i % parsed.length]).getLeastSignificantBits();
+            }
+            return hash;
+        });
+        Benchmark.nanosPerOp("short-to-long map and UUID.fromString", ops, () -> {
+            long hash = 0;
+            for (int i = 0; i < ops; i++) {
+                hash += UUID.fromString(shortToLong.get(aliases[i % aliases.length].toLowerCase())).getLeastSignificantBits();
+            }
+            return hash;
+        });
+    }
+}
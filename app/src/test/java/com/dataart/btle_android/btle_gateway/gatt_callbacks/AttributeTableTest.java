@@ -0,0 +1,167 @@
+package com.dataart.btle_android.btle_gateway.gatt_callbacks;
+
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.bluetooth.BluetoothGattService;
+
+import com.dataart.btle_android.btle_gateway.gateway_helpers.Benchmark;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class AttributeTableTest {
+
+    private static final UUID BATTERY_SERVICE = UUID.fromString("0000180f-0000-1000-8000-00805f9b34fb");
+    private static final UUID BATTERY_LEVEL = UUID.fromString("00002a19-0000-1000-8000-00805f9b34fb");
+    private static final UUID DEVICE_INFORMATION = UUID.fromString("0000180a-0000-1000-8000-00805f9b34fb");
+    private static final UUID MODEL_NUMBER = UUID.fromString("00002a24-0000-1000-8000-00805f9b34fb");
+
+    @Test
+    public void handlesFollowDiscoveryOrder() {
+        final Characteristic level = new Characteristic(BATTERY_LEVEL, true);
+        final Characteristic model = new Characteristic(MODEL_NUMBER, false);
+        final AttributeTable table = new AttributeTable(Arrays.asList(
+                new Service(BATTERY_SERVICE, level),
+                new Service(DEVICE_INFORMATION, model)));
+
+        assertEquals(2, table.size());
+        assertSame(level, table.get(1).characteristic);
+        assertEquals(BATTERY_SERVICE, table.get(1).serviceUuid);
+        assertSame(level.ccc, table.get(1).ccc);
+        assertSame(model, table.get(2).characteristic);
+        assertNull(table.get(2).ccc);
+        assertNull(table.get(0));
+        assertNull(table.get(3));
+    }
+
+    @Test
+    public void lookupByUuidsTellsServicesApart() {
+        final Characteristic first = new Characteristic(BATTERY_LEVEL, true);
+        final Characteristic second = new Characteristic(BATTERY_LEVEL, true);
+        final AttributeTable table = new AttributeTable(Arrays.asList(
+                new Service(BATTERY_SERVICE, first),
+                new Service(DEVICE_INFORMATION, second)));
+
+        assertSame(first, table.get(BATTERY_SERVICE, BATTERY_LEVEL).characteristic);
+        assertSame(second, table.get(DEVICE_INFORMATION, BATTERY_LEVEL).characteristic);
+        assertEquals(2, table.get(DEVICE_INFORMATION, BATTERY_LEVEL).handle);
+        assertNull(table.get(BATTERY_SERVICE, MODEL_NUMBER));
+        assertNull(table.get(MODEL_NUMBER, BATTERY_LEVEL));
+    }
+
+    @Test
+    public void emptyTable() {
+        assertEquals(0, AttributeTable.EMPTY.size());
+        assertNull(AttributeTable.EMPTY.get(1));
+        assertNull(AttributeTable.EMPTY.get(BATTERY_SERVICE, BATTERY_LEVEL));
+        assertEquals(0, new AttributeTable(Collections.emptyList()).size());
+    }
+
+    /**
+     * Characteristic lookup per operation: table vs. getService / getCharacteristic walk it replaced
+     */
+    @Test
+    public void lookupBenchmark() {
+        final int ops = 100000;
+        final List<BluetoothGattService> services = new ArrayList<>();
+        final UUID[][] keys = new UUID[60][];
+        for (int s = 0; s < 10; s++) {
+            final UUID serviceUuid = new UUID(0xf0000000_04514000L | (long) (0xaa00 + s * 16) << 32, 0xb000000000000000L);
+            final Characteristic[] characteristics = new Characteristic[6];
+            for (int c = 0; c < characteristics.length; c++) {
+                final UUID uuid = new UUID(0xf0000000_04514000L | (long) (0xaa01 + s * 16 + c) << 32, 0xb000000000000000L);
+                characteristics[c] = new Characteristic(uuid, c % 2 == 0);
+                keys[s * 6 + c] = new UUID[]{serviceUuid, uuid};
+            }
+            services.add(new Service(serviceUuid, characteristics));
+        }
+        final AttributeTable table = new AttributeTable(services);
+
+        Benchmark.nanosPerOp("attribute table lookup", ops, () -> {
+            long found = 0;
+            for (int i = 0; i < ops; i++) {
+                final UUID[] key = keys[i % keys.length];
+                found += table.get(key[0], key[1]).characteristic.getUuid().hashCode();
+            }
+            return found;
+        });
+        Benchmark.nanosPerOp("service and characteristic walk", ops, () -> {
+            long found = 0;
+            for (int i = 0; i < ops; i++) {
+                final UUID[] key = keys[i % keys.length];
+                found += walk(services, key[0], key[1]).getUuid().hashCode();
+            }
+            return found;
+        });
+//        gain is small for a handful of services and grows with their number, so only results are compared
+        for (UUID[] key : keys) {
+            assertSame(walk(services, key[0], key[1]), table.get(key[0], key[1]).characteristic);
+        }
+    }
+
+    //    What BluetoothGatt.getService and BluetoothGattService.getCharacteristic do
+    private static BluetoothGattCharacteristic walk(List<BluetoothGattService> services, UUID serviceUuid, UUID uuid) {
+        for (BluetoothGattService service : services) {
+            if (service.getUuid().equals(serviceUuid)) {
+                for (BluetoothGattCharacteristic characteristic : service.getCharacteristics()) {
+                    if (characteristic.getUuid().equals(uuid)) {
+                        return characteristic;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    //    Framework getters are overridden, so tests don't depend on android.jar implementation
+    private static class Service extends BluetoothGattService {
+        private final UUID uuid;
+        private final List<BluetoothGattCharacteristic> characteristics;
+
+        Service(UUID uuid, BluetoothGattCharacteristic... characteristics) {
+            super(uuid, SERVICE_TYPE_PRIMARY);
+            this.uuid = uuid;
+            this.characteristics = Arrays.asList(characteristics);
+        }
+
+        @Override
+        public UUID getUuid() {
+            return uuid;
+        }
+
+        @Override
+        public List<BluetoothGattCharacteristic> getCharacteristics() {
+            return characteristics;
+        }
+    }
+
+    private static class Characteristic extends BluetoothGattCharacteristic {
+        private final UUID uuid;
+        private final BluetoothGattDescriptor ccc;
+
+        Characteristic(UUID uuid, boolean notifies) {
+            super(uuid, 0, 0);
+            this.uuid = uuid;
+            ccc = notifies ? new BluetoothGattDescriptor(AttributeTable.CCC_UUID, 0) : null;
+        }
+
+        @Override
+        public UUID getUuid() {
+            return uuid;
+        }
+
+        @Override
+        public BluetoothGattDescriptor getDescriptor(UUID uuid) {
+            return AttributeTable.CCC_UUID.equals(uuid) ? ccc : null;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.dataart.btle_android.btle_gateway.server;
+
+import com.dataart.btle_android.btle_gateway.gateway_helpers.Benchmark;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeviceRegistryTest {
+
+    private static final int LOOKUPS = 10000;
+    private static final DeviceRegistry.AddListener IGNORE_ADDED = result -> {
+    };
+
+    @Test
+    public void addKeepsFirstEntryOfAddress() {
+        final DeviceRegistry registry = new DeviceRegistry(IGNORE_ADDED);
+        final LeScanResult first = result(0xAABBCCDDEE01L);
+        assertTrue(registry.add(first));
+        assertFalse(registry.add(result(0xAABBCCDDEE01L)));
+        assertSame(first, registry.get(0xAABBCCDDEE01L));
+        assertNull(registry.get(0xAABBCCDDEE02L));
+        assertEquals(1, registry.size());
+    }
+
+    @Test
+    public void hitUpdatesExistingEntry() {
+        final DeviceRegistry registry = new DeviceRegistry(IGNORE_ADDED);
+        registry.add(new LeScanResult(null, 1L, -80, new byte[]{2, 1, 6}, 1000));
+        final LeScanResult result = registry.get(1L);
+        final byte[] record = {2, 1, 5};
+        assertTrue(result.update(-60, record, 1100));
+        assertEquals(-60, result.getRssi());
+        assertEquals(1100, result.getLastSeen());
+        assertSame(record, result.getScanRecord());
+//        the same payload again is a repeat, only RSSI and last seen change
+        assertFalse(result.update(-65, new byte[]{2, 1, 5}, 1200));
+        assertEquals(-65, result.getRssi());
+        assertEquals(1200, result.getLastSeen());
+    }
+
+    @Test
+    public void ingestStopsRepeats() {
+        final List<LeScanResult> added = new ArrayList<>();
+        final DeviceRegistry registry = new DeviceRegistry(added::add);
+        assertTrue(registry.onDeviceFound(null, 1L, -80, new byte[]{2, 1, 6}, 1000));
+        assertEquals(1, added.size());
+        assertFalse(registry.onDeviceFound(null, 1L, -70, new byte[]{2, 1, 6}, 1100));
+        assertTrue(registry.onDeviceFound(null, 1L, -75, new byte[]{2, 1, 5}, 1200));
+        assertEquals(1, added.size());
+        assertEquals(-75, registry.get(1L).getRssi());
+        assertEquals(1200, registry.get(1L).getLastSeen());
+    }
+
+    @Test
+    public void snapshotAndClear() {
+        final DeviceRegistry registry = new DeviceRegistry(IGNORE_ADDED);
+        for (long address = 1; address <= 100; address++) {
+            registry.add(result(address));
+        }
+        final List<LeScanResult> snapshot = new ArrayList<>(registry.values());
+        registry.clear();
+        assertEquals(100, snapshot.size());
+        assertEquals(0, registry.size());
+        assertTrue(registry.values().isEmpty());
+    }
+
+    /**
+     * Lookup of advertising device, registry vs. the linear list walk it replaced. List walk grows with the number
+     * of devices, registry lookup doesn't
+     */
+    @Test
+    public void lookupBenchmark() {
+        for (int size : new int[]{10, 1000, 10000}) {
+            final DeviceRegistry registry = new DeviceRegistry(IGNORE_ADDED);
+            final List<LeScanResult> list = new ArrayList<>(size);
+            final long[] addresses = new long[size];
+            final Random random = new Random(size);
+            for (int i = 0; i < size; i++) {
+                addresses[i] = random.nextLong() & 0xFFFFFFFFFFFFL;
+                final LeScanResult result = result(addresses[i]);
+                registry.add(result);
+                list.add(result);
+            }
+            final long[] lookups = new long[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; i++) {
+                lookups[i] = addresses[random.nextInt(size)];
+            }
+
+            Benchmark.nanosPerOp("registry lookup, " + size + " devices", LOOKUPS, () -> {
+                long found = 0;
+                for (long address : lookups) {
+                    found += registry.get(address).getAddress();
+                }
+                return found;
+            });
+            Benchmark.nanosPerOp("list walk, " + size + " devices", LOOKUPS, () -> {
+                long found = 0;
+                for (long address : lookups) {
+                    for (LeScanResult result : list) {
+                        if (result.getAddress() == address) {
+                            found += result.getAddress();
+                            break;
+                        }
+                    }
+                }
+                return found;
+            });
+        }
+    }
+
+    private static LeScanResult result(long address) {
+        return new LeScanResult(null, address, -70, null, 0);
+    }
+}
@@ -0,0 +1,158 @@
+package com.dataart.btle_android.btle_gateway.server;
+
+import com.dataart.btle_android.btle_gateway.model.BTLEScanStatistics;
+import com.dataart.btle_android.helpers.ble.base.BleScanner;
+import com.dataart.btle_android.helpers.ble.base.ScanBatch;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Immediate vs. batched scan delivery, in-process part: the same stream of results goes through the real
+ * ScanSessionManager dispatcher and registry, once per callback and once per report delay window.
+ * Platform clocks are stubbed in unit tests, and binder transaction saved per callback on device comes on top,
+ * see scan/stats for the whole effect
+ */
+public class ScanDeliveryTest {
+
+    //    800 tags advertising 10 times a second, for 10 seconds
+    private static final int DEVICES = 800;
+    private static final int RATE = 8000;
+    private static final int SECONDS = 10;
+    //    share of adverts whose payload differs from the previous one of the same device
+    private static final double CHANGED = 0.2;
+    private static final int REPORT_DELAY = 1000;
+    private static final int ROUNDS = 5;
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private long[] addresses;
+    private byte[][] records;
+    private int[] rssi;
+    private int repeats;
+
+    @Test
+    public void immediateDelivery() {
+        generateStream();
+        final ScanStatistics statistics = new ScanStatistics();
+        final int[] added = new int[1];
+        run(new DeviceRegistry(result -> added[0]++), statistics, false);
+
+        final BTLEScanStatistics snapshot = statistics.getSnapshot();
+        assertEquals(RATE * SECONDS, snapshot.callbacks);
+        assertEquals(RATE * SECONDS, snapshot.results);
+        assertEquals(repeats, snapshot.repeats);
+        assertEquals(DEVICES, added[0]);
+    }
+
+    @Test
+    public void batchedDelivery() {
+        generateStream();
+        final ScanStatistics statistics = new ScanStatistics();
+        final int[] added = new int[1];
+        run(new DeviceRegistry(result -> added[0]++), statistics, true);
+
+        final BTLEScanStatistics snapshot = statistics.getSnapshot();
+        assertEquals(SECONDS * 1000 / REPORT_DELAY, snapshot.callbacks);
+        assertEquals(RATE * SECONDS, snapshot.results);
+        assertEquals(repeats, snapshot.repeats);
+        assertEquals(DEVICES, added[0]);
+    }
+
+    /**
+     * Prints CPU time per result of both deliveries, measured once per run around the whole stream
+     */
+    @Test
+    public void deliveryBenchmark() {
+        Assume.assumeTrue(threads.isCurrentThreadCpuTimeSupported());
+        generateStream();
+
+        double immediate = Double.MAX_VALUE;
+        double batched = Double.MAX_VALUE;
+//        first round warms up
+        for (int round = 0; round <= ROUNDS; round++) {
+            final double immediateCpu = run(new DeviceRegistry(result -> {
+            }), new ScanStatistics(), false);
+            final double batchedCpu = run(new DeviceRegistry(result -> {
+            }), new ScanStatistics(), true);
+            if (round > 0) {
+                immediate = Math.min(immediate, immediateCpu);
+                batched = Math.min(batched, batchedCpu);
+            }
+        }
+
+        System.out.println(String.format(Locale.US, "%-24s %8d callbacks/s %8.0f ns CPU per result",
+                "immediate", RATE, immediate));
+        System.out.println(String.format(Locale.US, "%-24s %8d callbacks/s %8.0f ns CPU per result",
+                "batched, " + REPORT_DELAY + " ms", 1000 / REPORT_DELAY, batched));
+    }
+
+    //    @return thread CPU time per result, in nanoseconds
+    private double run(DeviceRegistry registry, ScanStatistics statistics, boolean batching) {
+        final BleScanner.ScanCallback dispatcher = new ScanSessionManager(null, registry, statistics).dispatcher;
+        final ScanBatch batch = new ScanBatch();
+        final int perWindow = RATE * REPORT_DELAY / 1000;
+
+        final long started = threads.getCurrentThreadCpuTime();
+        for (int i = 0; i < records.length; i++) {
+            if (!batching) {
+                dispatcher.onDeviceFound(null, addresses[i], rssi[i], records[i]);
+                continue;
+            }
+//            what software batching stage of scanner does, then one callback per window
+            batch.add(null, addresses[i], rssi[i], records[i]);
+            if (batch.size() == perWindow) {
+                dispatcher.onBatchFound(batch);
+                batch.clear();
+            }
+        }
+        return (double) (threads.getCurrentThreadCpuTime() - started) / records.length;
+    }
+
+    private void generateStream() {
+        final Random random = new Random(1);
+        final int count = RATE * SECONDS;
+        addresses = new long[count];
+        records = new byte[count][];
+        rssi = new int[count];
+        final byte[][] current = new byte[DEVICES][];
+        final boolean[] seen = new boolean[DEVICES];
+        repeats = 0;
+        for (int d = 0; d < DEVICES; d++) {
+            current[d] = advert(random);
+        }
+        for (int i = 0; i < count; i++) {
+            final int device = random.nextInt(DEVICES);
+            if (random.nextDouble() < CHANGED) {
+                current[device] = advert(random);
+            } else if (seen[device]) {
+                repeats++;
+            }
+            seen[device] = true;
+            addresses[i] = 0xC0FFEE000000L + device;
+            records[i] = current[device];
+            rssi[i] = -40 - random.nextInt(50);
+        }
+    }
+
+    //    flags and manufacturer data, 31 bytes like legacy advert
+    private static byte[] advert(Random random) {
+        final byte[] record = new byte[31];
+        record[0] = 2;
+        record[1] = 1;
+        record[2] = 6;
+        record[3] = 27;
+        record[4] = (byte) 0xFF;
+        for (int i = 5; i < record.length; i++) {
+            record[i] = (byte) random.nextInt();
+        }
+        return record;
+    }
+}